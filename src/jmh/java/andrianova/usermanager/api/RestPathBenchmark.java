@@ -0,0 +1,104 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.config.CachingPreparsedDocumentProvider;
+import andrianova.usermanager.config.GraphQlConfig;
+import andrianova.usermanager.domain.InMemoryUserDao;
+import andrianova.usermanager.domain.Password;
+import andrianova.usermanager.domain.Role;
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
+import andrianova.usermanager.service.UserDataLoaders;
+import andrianova.usermanager.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.GraphQL;
+import graphql.execution.instrumentation.dataloader.DataLoaderDispatcherInstrumentation;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares throughput of REST request handling through GraphQL engine
+ * and through direct service calls, including json serialization of the response.
+ * Storage is replaced with {@link InMemoryUserDao}, so only the request handling path is measured.
+ * <p>
+ * Run with {@code gradlew jmh}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestPathBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private UserRequestHandler graphQlHandler;
+    private UserRequestHandler directHandler;
+    private String userId;
+
+    @Setup
+    public void setUp() throws Exception {
+        UserDao userDao = new InMemoryUserDao();
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            userIds.add(userDao.create(User.builder()
+                    .withEmail("user" + i + "@test.com")
+                    .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                    .withFirstName("firstName" + i)
+                    .withLastName("lastName" + i)
+                    .withAvatarId("8d969eef6ecad3c29a3a629280e686cf0c3f5d5a86aff3ca12020c923adc6c92")
+                    .withRole(Role.USER)
+                    .build()).getUserId());
+        }
+        userId = userIds.get(0).toString();
+
+        UserService userService = new UserService();
+        inject(userService, "userDao", userDao);
+
+        GraphQL graphQl = GraphQL.newGraphQL(new GraphQlConfig().graphQLSchema(userService))
+                .preparsedDocumentProvider(new CachingPreparsedDocumentProvider(100))
+                .instrumentation(new DataLoaderDispatcherInstrumentation())
+                .build();
+        UserDataLoaders userDataLoaders = new UserDataLoaders();
+        inject(userDataLoaders, "userDao", userDao);
+        graphQlHandler = new GraphQlUserRequestHandler();
+        inject(graphQlHandler, "graphQl", graphQl);
+        inject(graphQlHandler, "userDataLoaders", userDataLoaders);
+        directHandler = new DirectUserRequestHandler();
+        inject(directHandler, "userService", userService);
+    }
+
+    @Benchmark
+    public byte[] getByIdGraphQl() throws Exception {
+        return objectMapper.writeValueAsBytes(graphQlHandler.getById(userId).toCompletableFuture().join().getBody());
+    }
+
+    @Benchmark
+    public byte[] getByIdDirect() throws Exception {
+        return objectMapper.writeValueAsBytes(directHandler.getById(userId).toCompletableFuture().join().getBody());
+    }
+
+    @Benchmark
+    public byte[] listGraphQl() throws Exception {
+        return objectMapper.writeValueAsBytes(graphQlHandler.list(PAGE_SIZE, null).toCompletableFuture().join().getBody());
+    }
+
+    @Benchmark
+    public byte[] listDirect() throws Exception {
+        return objectMapper.writeValueAsBytes(directHandler.list(PAGE_SIZE, null).toCompletableFuture().join().getBody());
+    }
+
+    private static void inject(Object target, String fieldName, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
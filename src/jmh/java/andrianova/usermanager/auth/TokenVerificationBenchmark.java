@@ -0,0 +1,58 @@
+package andrianova.usermanager.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares per-request cost of jwt verification:
+ * building algorithm and verifier for every token,
+ * reusing shared verifier and
+ * looking up already verified token in {@link TokenVerifier}.
+ * <p>
+ * Run with {@code gradlew jmh}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenVerificationBenchmark {
+
+    private static final String SIGNING_KEY = "secret";
+
+    private String token;
+    private JWTVerifier sharedVerifier;
+    private TokenVerifier tokenVerifier;
+
+    @Setup
+    public void setUp() {
+        Algorithm algorithm = Algorithm.HMAC512(SIGNING_KEY);
+        token = JWT.create().withSubject("admin@test.com").sign(algorithm);
+        sharedVerifier = JWT.require(algorithm).build();
+        tokenVerifier = new TokenVerifier(algorithm, 10_000, Duration.ofMinutes(5));
+    }
+
+    @Benchmark
+    public String verifierPerRequest() {
+        return JWT.require(Algorithm.HMAC512(SIGNING_KEY))
+                .build()
+                .verify(token)
+                .getSubject();
+    }
+
+    @Benchmark
+    public String sharedVerifier() {
+        return sharedVerifier.verify(token).getSubject();
+    }
+
+    @Benchmark
+    public String cachedVerification() {
+        return tokenVerifier.verify(token);
+    }
+}
@@ -0,0 +1,99 @@
+package andrianova.usermanager.load;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Http client of the running application shared by load tests.
+ * Application url is set by {@code loadTest.url} system property, default {@code http://localhost:8080},
+ * admin credentials by {@code loadTest.email} and {@code loadTest.password}
+ */
+class ApiClient {
+
+    private static final Pattern TOKEN = Pattern.compile("\"token\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern END_CURSOR = Pattern.compile("\"endCursor\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final String url = System.getProperty("loadTest.url", "http://localhost:8080");
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private String token;
+
+    /**
+     * Logs in with admin credentials, following requests are authorized with received token
+     */
+    void login() throws IOException, InterruptedException {
+        String email = System.getProperty("loadTest.email", "admin@test.com");
+        String password = System.getProperty("loadTest.password", "123456");
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + "/login"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                "{\"email\": \"" + email + "\", \"password\": \"" + password + "\"}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        token = find(TOKEN, response.body())
+                .orElseThrow(() -> new IllegalStateException("login failed: " + response.statusCode()));
+    }
+
+    /**
+     * Authorized request builder
+     *
+     * @param path request path
+     */
+    HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(url + path))
+                .header("Authorization", token)
+                .timeout(Duration.ofSeconds(10));
+    }
+
+    HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        return client.send(request, bodyHandler);
+    }
+
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        return client.sendAsync(request, bodyHandler);
+    }
+
+    /**
+     * Lists ids of up to {@code limit} users page by page
+     */
+    List<String> userIds(int limit) throws IOException, InterruptedException {
+        List<String> ids = new ArrayList<>(limit);
+        String pageToken = null;
+        do {
+            String query = "/user?pageSize=" + Math.min(1000, limit - ids.size())
+                    + (pageToken == null ? "" : "&pageToken=" + pageToken);
+            String body = send(request(query).build()).body();
+            Matcher matcher = ID.matcher(body);
+            while (matcher.find() && ids.size() < limit) {
+                ids.add(matcher.group(1));
+            }
+            pageToken = find(END_CURSOR, body).orElse(null);
+        } while (pageToken != null && ids.size() < limit);
+        return ids;
+    }
+
+    private static Optional<String> find(Pattern pattern, String body) {
+        Matcher matcher = pattern.matcher(body);
+        return matcher.find() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
+}
@@ -0,0 +1,120 @@
+package andrianova.usermanager.load;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Compares fetching N users of running application with N {@code GET /user/{id}} requests,
+ * sent one after another and concurrently, against one {@code POST /user/_batch-get} request,
+ * for N = 10, 100 and 1000.
+ * Missing users are imported before the measurement.
+ * <p>
+ * Run with {@code gradlew batchGetBenchmark}, system properties:
+ * <ul>
+ *     <li>{@code loadTest.url}, {@code loadTest.email}, {@code loadTest.password} - see {@link ApiClient}</li>
+ *     <li>{@code loadTest.warmupIterations} - iterations before measurement, default 5</li>
+ *     <li>{@code loadTest.iterations} - measured iterations, default 20</li>
+ * </ul>
+ */
+public class BatchGetBenchmark {
+
+    private static final int[] SIZES = {10, 100, 1000};
+
+    private final int warmupIterations = Integer.getInteger("loadTest.warmupIterations", 5);
+    private final int iterations = Integer.getInteger("loadTest.iterations", 20);
+    private final ApiClient client = new ApiClient();
+
+    public static void main(String[] args) throws Exception {
+        new BatchGetBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        client.login();
+        int maxSize = SIZES[SIZES.length - 1];
+        List<String> ids = client.userIds(maxSize);
+        if (ids.size() < maxSize) {
+            importUsers(maxSize);
+            ids = client.userIds(maxSize);
+        }
+
+        System.out.printf("%6s %18s %18s %14s%n", "N", "sequential ms", "concurrent ms", "batch ms");
+        for (int size : SIZES) {
+            List<String> batch = ids.subList(0, size);
+            System.out.printf("%6d %18.2f %18.2f %14.2f%n", size,
+                    measure(() -> sequentialGets(batch)),
+                    measure(() -> concurrentGets(batch)),
+                    measure(() -> batchGet(batch)));
+        }
+    }
+
+    private double measure(Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / (iterations * 1_000_000.0);
+    }
+
+    private void sequentialGets(List<String> ids) throws Exception {
+        for (String id : ids) {
+            check(client.send(client.request("/user/" + id).build(), HttpResponse.BodyHandlers.discarding()));
+        }
+    }
+
+    private void concurrentGets(List<String> ids) {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            responses.add(client.sendAsync(client.request("/user/" + id).build(),
+                    HttpResponse.BodyHandlers.discarding()));
+        }
+        responses.forEach(response -> check(response.join()));
+    }
+
+    private void batchGet(List<String> ids) throws Exception {
+        String body = ids.stream()
+                .map(id -> "\"" + id + "\"")
+                .collect(Collectors.joining(", ", "{\"ids\": [", "]}"));
+        check(client.send(client.request("/user/_batch-get")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding()));
+    }
+
+    private void importUsers(int count) throws Exception {
+        String password = Base64.getEncoder().encodeToString("123456".getBytes(StandardCharsets.UTF_8));
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            body.append("{\"email\": \"batch-get-").append(i).append("@load.test\", ")
+                    .append("\"password\": \"").append(password).append("\", ")
+                    .append("\"role\": \"user\"}\n");
+        }
+        check(client.send(client.request("/user/_import")
+                        .header("Content-Type", "application/x-ndjson")
+                        .timeout(Duration.ofMinutes(1))
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding()));
+    }
+
+    private static void check(HttpResponse<?> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("request failed: " + response.statusCode());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
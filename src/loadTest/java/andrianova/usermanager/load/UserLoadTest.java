@@ -0,0 +1,139 @@
+package andrianova.usermanager.load;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds how many concurrent requests running application sustains.
+ * Every client repeatedly requests {@code GET /user/{id}} from its own virtual thread,
+ * number of clients is increased step by step until error rate or p99 latency exceed the limits.
+ * <p>
+ * Start the application with a fixed heap, e.g. {@code java -Xmx256m -jar user-manager.jar},
+ * once with default settings and once with {@code --user-manager.virtual-threads.enabled=true},
+ * and compare max sustained concurrency reported by {@code gradlew loadTest}.
+ * <p>
+ * System properties:
+ * <ul>
+ *     <li>{@code loadTest.url}, {@code loadTest.email}, {@code loadTest.password} - see {@link ApiClient}</li>
+ *     <li>{@code loadTest.levels} - comma separated numbers of concurrent clients</li>
+ *     <li>{@code loadTest.stepSeconds} - duration of each step</li>
+ *     <li>{@code loadTest.maxErrorRate} - max share of failed requests for sustained step</li>
+ *     <li>{@code loadTest.maxP99Millis} - max p99 latency for sustained step</li>
+ * </ul>
+ */
+public class UserLoadTest {
+
+    private final Duration stepDuration = Duration.ofSeconds(
+            Long.getLong("loadTest.stepSeconds", 10));
+    private final double maxErrorRate = Double.parseDouble(
+            System.getProperty("loadTest.maxErrorRate", "0.01"));
+    private final long maxP99Millis = Long.getLong("loadTest.maxP99Millis", 1000);
+    private final ApiClient client = new ApiClient();
+
+    private String userId;
+
+    public static void main(String[] args) throws Exception {
+        int[] levels = Arrays.stream(System.getProperty("loadTest.levels", "50,100,200,500,1000,2000,5000")
+                        .split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        new UserLoadTest().run(levels);
+    }
+
+    private void run(int[] levels) throws Exception {
+        client.login();
+        userId = client.userIds(1).stream()
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("no users found"));
+
+        int sustained = 0;
+        System.out.printf("%10s %12s %10s %10s %10s%n", "clients", "requests/s", "errors", "p50 ms", "p99 ms");
+        for (int clients : levels) {
+            StepResult result = runStep(clients);
+            System.out.printf("%10d %12.0f %9.2f%% %10.1f %10.1f%n", clients,
+                    result.requests / (double) stepDuration.toSeconds(),
+                    result.errorRate() * 100, result.percentileMillis(0.5), result.percentileMillis(0.99));
+            if (result.errorRate() > maxErrorRate || result.percentileMillis(0.99) > maxP99Millis) {
+                break;
+            }
+            sustained = clients;
+        }
+        System.out.println("Max sustained concurrency: " + sustained);
+    }
+
+    private StepResult runStep(int clients) throws Exception {
+        long deadline = System.nanoTime() + stepDuration.toNanos();
+        List<Future<ClientResult>> futures = new ArrayList<>(clients);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> runClient(deadline)));
+            }
+        }
+        StepResult result = new StepResult();
+        for (Future<ClientResult> future : futures) {
+            result.add(future.get());
+        }
+        return result;
+    }
+
+    private ClientResult runClient(long deadline) {
+        HttpRequest request = client.request("/user/" + userId).build();
+        ClientResult result = new ClientResult();
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    result.latencies.add(System.nanoTime() - start);
+                } else {
+                    result.errors++;
+                }
+            } catch (IOException e) {
+                result.errors++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static class ClientResult {
+        private final List<Long> latencies = new ArrayList<>();
+        private long errors;
+    }
+
+    private static class StepResult {
+        private final List<Long> latencies = new ArrayList<>();
+        private long requests;
+        private long errors;
+
+        private void add(ClientResult client) {
+            latencies.addAll(client.latencies);
+            requests += client.latencies.size() + client.errors;
+            errors += client.errors;
+        }
+
+        private double errorRate() {
+            return requests == 0 ? 1 : errors / (double) requests;
+        }
+
+        private double percentileMillis(double percentile) {
+            if (latencies.isEmpty()) {
+                return Double.NaN;
+            }
+            latencies.sort(null);
+            int index = (int) Math.ceil(percentile * latencies.size()) - 1;
+            return latencies.get(Math.max(0, index)) / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package andrianova.usermanager.load;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures latency of user writes of running application.
+ * Every client repeatedly creates a user, changes its email and deletes it,
+ * latency percentiles are reported per operation.
+ * <p>
+ * Start the application once with {@code --user-manager.write-mode=sequential}
+ * and once with {@code --user-manager.write-mode=parallel} and compare reports of {@code gradlew writeLatencyTest}.
+ * <p>
+ * System properties:
+ * <ul>
+ *     <li>{@code loadTest.url}, {@code loadTest.email}, {@code loadTest.password} - see {@link ApiClient}</li>
+ *     <li>{@code loadTest.clients} - number of concurrent clients, default 20</li>
+ *     <li>{@code loadTest.seconds} - test duration, default 30</li>
+ * </ul>
+ */
+public class WriteLatencyTest {
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+    private static final String PASSWORD = Base64.getEncoder()
+            .encodeToString("123456".getBytes(StandardCharsets.UTF_8));
+
+    private final int clients = Integer.getInteger("loadTest.clients", 20);
+    private final Duration duration = Duration.ofSeconds(Long.getLong("loadTest.seconds", 30));
+    private final ApiClient client = new ApiClient();
+
+    private enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    public static void main(String[] args) throws Exception {
+        new WriteLatencyTest().run();
+    }
+
+    private void run() throws Exception {
+        client.login();
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Map<Operation, Latencies>>> futures = new ArrayList<>(clients);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> runClient(deadline)));
+            }
+        }
+        Map<Operation, Latencies> total = newLatencies();
+        for (Future<Map<Operation, Latencies>> future : futures) {
+            future.get().forEach((operation, latencies) -> total.get(operation).add(latencies));
+        }
+
+        System.out.printf("%8s %10s %8s %10s %10s %10s%n", "op", "requests", "errors", "p50 ms", "p99 ms", "max ms");
+        total.forEach((operation, latencies) -> System.out.printf("%8s %10d %8d %10.1f %10.1f %10.1f%n",
+                operation, latencies.values.size() + latencies.errors, latencies.errors,
+                latencies.percentileMillis(0.5), latencies.percentileMillis(0.99),
+                latencies.percentileMillis(1)));
+    }
+
+    private Map<Operation, Latencies> runClient(long deadline) {
+        Map<Operation, Latencies> latencies = newLatencies();
+        try {
+            while (System.nanoTime() < deadline) {
+                String email = UUID.randomUUID() + "@load.test";
+                HttpResponse<String> created = send(latencies.get(Operation.CREATE), client.request("/user")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body(email)))
+                        .build());
+                if (created == null || created.statusCode() != 200) {
+                    continue;
+                }
+                Matcher id = ID.matcher(created.body());
+                if (!id.find()) {
+                    continue;
+                }
+                send(latencies.get(Operation.UPDATE), client.request("/user/" + id.group(1))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(body("updated-" + email)))
+                        .build());
+                send(latencies.get(Operation.DELETE), client.request("/user/" + id.group(1))
+                        .DELETE()
+                        .build());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return latencies;
+    }
+
+    /**
+     * Sends request recording its latency
+     *
+     * @return response, null if request failed
+     */
+    private HttpResponse<String> send(Latencies latencies, HttpRequest request) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request);
+            if (response.statusCode() == 200) {
+                latencies.values.add(System.nanoTime() - start);
+            } else {
+                latencies.errors++;
+            }
+            return response;
+        } catch (IOException e) {
+            latencies.errors++;
+            return null;
+        }
+    }
+
+    private static String body(String email) {
+        return "{\"email\": \"" + email + "\", \"password\": \"" + PASSWORD + "\", " +
+                "\"firstName\": \"firstName\", \"lastName\": \"lastName\", \"role\": \"user\"}";
+    }
+
+    private static Map<Operation, Latencies> newLatencies() {
+        Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Latencies());
+        }
+        return latencies;
+    }
+
+    private static class Latencies {
+        private final List<Long> values = new ArrayList<>();
+        private long errors;
+
+        private void add(Latencies other) {
+            values.addAll(other.values);
+            errors += other.errors;
+        }
+
+        private double percentileMillis(double percentile) {
+            if (values.isEmpty()) {
+                return Double.NaN;
+            }
+            values.sort(null);
+            int index = (int) Math.ceil(percentile * values.size()) - 1;
+            return values.get(Math.max(0, index)) / 1_000_000.0;
+        }
+    }
+}
@@ -4,17 +4,16 @@ import andrianova.usermanager.auth.AuthService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.validation.Valid;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 /**
@@ -26,28 +25,25 @@ public class AuthController {
     @Autowired
     private AuthService authService;
 
-    @Autowired
-    private AuthenticationManager authenticationManager;
-
     /**
      * Login with email and password
      *
      * @param request login request
-     * @return response with Authorization header set or Unauthorized error
+     * @return response with Authorization header set or Unauthorized error,
+     * HttpStatus.SERVICE_UNAVAILABLE if too many logins are in progress
      */
     @PostMapping("login")
-    public ResponseEntity<LoginResponse> login(@RequestBody @Valid LoginRequest request) {
-        try {
-            Authentication authenticate = authenticationManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(request.getEmail(), request.getPassword()));
-
-            UserDetails user = (UserDetails) authenticate.getPrincipal();
+    public CompletionStage<ResponseEntity<LoginResponse>> login(@RequestBody @Valid LoginRequest request) {
+        return authService.login(request.getEmail(), request.getPassword())
+                .thenApply(user -> user
+                        .map(found -> ResponseEntity.ok(new LoginResponse(authService.createAuthToken(found),
+                                found.getAuthorities().stream()
+                                        .map(GrantedAuthority::getAuthority).collect(Collectors.toList()))))
+                        .orElseGet(() -> ResponseEntity.status(HttpStatus.UNAUTHORIZED).build()));
+    }
 
-            return ResponseEntity.ok(new LoginResponse(authService.createAuthToken(user),
-                    user.getAuthorities().stream()
-                    .map(GrantedAuthority::getAuthority).collect(Collectors.toList())));
-        } catch (BadCredentialsException ex) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        }
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    private void handleRejected() {
     }
 }
@@ -0,0 +1,143 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.domain.Role;
+import andrianova.usermanager.domain.UserField;
+import andrianova.usermanager.domain.UserPage;
+import andrianova.usermanager.domain.WriteStatus;
+import andrianova.usermanager.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * {@link UserRequestHandler} calling {@link UserService} directly
+ * and serializing user views straight to the response, without GraphQL execution
+ */
+@Component
+@ConditionalOnProperty(name = "user-manager.api.mode", havingValue = "direct")
+public class DirectUserRequestHandler implements UserRequestHandler {
+
+    @Autowired
+    private UserService userService;
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> list(Integer pageSize, String pageToken) {
+        return userService.getUsersAsync(pageSize, pageToken, UserField.SUMMARY)
+                .thenApply(DirectUserRequestHandler::toListResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> listByRole(Integer pageSize, String pageToken, Role role) {
+        return userService.getUsersByRoleAsync(role, pageSize, pageToken, UserField.SUMMARY)
+                .thenApply(DirectUserRequestHandler::toListResponse);
+    }
+
+    private static ResponseEntity<?> toListResponse(UserPage page) {
+        Map<String, Object> pageInfo = new LinkedHashMap<>();
+        pageInfo.put("endCursor", page.getPageInfo().getEndCursor());
+        pageInfo.put("hasNextPage", page.getPageInfo().hasNextPage());
+        Map<String, Object> users = new LinkedHashMap<>();
+        users.put("nodes", page.getUsers().stream()
+                .map(UserSummaryView::new)
+                .collect(Collectors.toList()));
+        users.put("pageInfo", pageInfo);
+        return ResponseEntity.ok(data("users", users));
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> listByName(Integer pageSize, String after, String before) {
+        CompletionStage<UserPage> page = before != null
+                ? userService.getUsersByNameAsync(null, null, pageSize, before, UserField.SUMMARY)
+                : userService.getUsersByNameAsync(pageSize, after, null, null, UserField.SUMMARY);
+        return page.thenApply(DirectUserRequestHandler::toListByNameResponse);
+    }
+
+    private static ResponseEntity<?> toListByNameResponse(UserPage page) {
+        Map<String, Object> pageInfo = new LinkedHashMap<>();
+        pageInfo.put("startCursor", page.getPageInfo().getStartCursor());
+        pageInfo.put("endCursor", page.getPageInfo().getEndCursor());
+        pageInfo.put("hasPreviousPage", page.getPageInfo().hasPreviousPage());
+        pageInfo.put("hasNextPage", page.getPageInfo().hasNextPage());
+        Map<String, Object> users = new LinkedHashMap<>();
+        users.put("nodes", page.getUsers().stream()
+                .map(UserSummaryView::new)
+                .collect(Collectors.toList()));
+        users.put("pageInfo", pageInfo);
+        return ResponseEntity.ok(data("usersByName", users));
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> getById(String id) {
+        return userService.getUserAsync(UUID.fromString(id))
+                .thenApply(user -> ResponseEntity.ok(data("user", user
+                        .map(UserView::new)
+                        .orElse(null))));
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> batchGet(List<UUID> ids) {
+        return userService.getUsersByIdsAsync(ids, UserField.SUMMARY)
+                .thenApply(batch -> {
+                    Map<String, Object> users = new LinkedHashMap<>();
+                    users.put("users", batch.getUsers().stream()
+                            .map(UserSummaryView::new)
+                            .collect(Collectors.toList()));
+                    users.put("missingIds", batch.getMissingIds());
+                    return ResponseEntity.ok(data("usersByIds", users));
+                });
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> search(String query, Integer limit) {
+        return userService.searchUsersAsync(query, limit, UserField.SUMMARY)
+                .thenApply(users -> ResponseEntity.ok(data("searchUsers", users.stream()
+                        .map(UserSummaryView::new)
+                        .collect(Collectors.toList()))));
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> create(UserRequest request) {
+        return userService.createAsync(request)
+                .thenApply(result -> result.getStatus() == WriteStatus.OK
+                        ? ResponseEntity.ok(new UserSummaryView(result.getUser()))
+                        : ResponseEntity.status(UserRequestHandler.toHttpStatus(result.getStatus())).build());
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> update(UUID id, UserRequest request) {
+        return userService.updateUserAsync(id, request)
+                .thenApply(status -> ResponseEntity.status(UserRequestHandler.toHttpStatus(status)).build());
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> patch(UUID id, UserPatchRequest request) {
+        return userService.patchUserAsync(id, request)
+                .thenApply(status -> ResponseEntity.status(UserRequestHandler.toHttpStatus(status)).build());
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> delete(UUID id) {
+        return userService.deleteUserAsync(id)
+                .thenApply(DirectUserRequestHandler::toStatusResponse);
+    }
+
+    private static ResponseEntity<?> toStatusResponse(boolean success) {
+        if (success) {
+            return ResponseEntity.ok().build();
+        }
+        return ResponseEntity.badRequest().build();
+    }
+
+    private static Map<String, Object> data(String field, Object value) {
+        return Collections.singletonMap("data", Collections.singletonMap(field, value));
+    }
+}
@@ -0,0 +1,261 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.domain.Role;
+import andrianova.usermanager.domain.WriteStatus;
+import andrianova.usermanager.service.UserDataLoaders;
+import graphql.ErrorType;
+import graphql.ExceptionWhileDataFetching;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.GraphQLError;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * {@link UserRequestHandler} executing GraphQL operations
+ */
+@Component
+@ConditionalOnProperty(name = "user-manager.api.mode", havingValue = "graphql", matchIfMissing = true)
+public class GraphQlUserRequestHandler implements UserRequestHandler {
+
+    private static final String LIST_QUERY = "query users($first: Int, $after: String) {" +
+            " users(first: $first, after: $after) {" +
+            " nodes { id, email, firstName, lastName, role }," +
+            " pageInfo { endCursor, hasNextPage }}}";
+    private static final String LIST_BY_ROLE_QUERY = "query usersByRole($first: Int, $after: String, $role: Role) {" +
+            " users(first: $first, after: $after, role: $role) {" +
+            " nodes { id, email, firstName, lastName, role }," +
+            " pageInfo { endCursor, hasNextPage }}}";
+    private static final String LIST_BY_NAME_QUERY =
+            "query usersByName($first: Int, $after: String, $last: Int, $before: String) {" +
+            " usersByName(first: $first, after: $after, last: $last, before: $before) {" +
+            " nodes { id, email, firstName, lastName, role }," +
+            " pageInfo { startCursor, endCursor, hasPreviousPage, hasNextPage }}}";
+    private static final String GET_QUERY = "query user($id: UUID) {" +
+            " user(id: $id) {" +
+            " id, email, password { hash }, firstName, lastName, avatarId, role }}";
+    private static final String BATCH_GET_QUERY = "query usersByIds($ids: [UUID!]!) {" +
+            " usersByIds(ids: $ids) {" +
+            " users { id, email, firstName, lastName, role }, missingIds }}";
+    private static final String SEARCH_QUERY = "query searchUsers($query: String!, $limit: Int) {" +
+            " searchUsers(query: $query, limit: $limit) {" +
+            " id, email, firstName, lastName, role }}";
+    private static final String CREATE_MUTATION = "mutation createUser($user: UserRequestInput) {" +
+            " createUser(user: $user) {" +
+            " status, user { id, email, firstName, lastName, role }}}";
+    private static final String UPDATE_MUTATION = "mutation updateUser($id: UUID, $user: UserRequestInput) {" +
+            " updateUser(id: $id, user: $user) }";
+    private static final String PATCH_MUTATION = "mutation patchUser($id: UUID, $user: UserPatchRequestInput) {" +
+            " patchUser(id: $id, user: $user) }";
+    private static final String DELETE_MUTATION = "mutation deleteUser($id: UUID) {" +
+            " deleteUser(id: $id) }";
+
+    @Autowired
+    private GraphQL graphQl;
+    @Autowired
+    private UserDataLoaders userDataLoaders;
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> list(Integer pageSize, String pageToken) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("first", pageSize);
+        variables.put("after", pageToken);
+        return execute(LIST_QUERY, variables)
+                .thenApply(GraphQlUserRequestHandler::toQueryResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> listByRole(Integer pageSize, String pageToken, Role role) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("first", pageSize);
+        variables.put("after", pageToken);
+        variables.put("role", role.getName());
+        return execute(LIST_BY_ROLE_QUERY, variables)
+                .thenApply(GraphQlUserRequestHandler::toQueryResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> listByName(Integer pageSize, String after, String before) {
+        Map<String, Object> variables = new HashMap<>();
+        if (before != null) {
+            variables.put("last", pageSize);
+            variables.put("before", before);
+        } else {
+            variables.put("first", pageSize);
+            variables.put("after", after);
+        }
+        return execute(LIST_BY_NAME_QUERY, variables)
+                .thenApply(GraphQlUserRequestHandler::toQueryResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> getById(String id) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("id", id);
+        return execute(GET_QUERY, variables)
+                .thenApply(GraphQlUserRequestHandler::toQueryResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> batchGet(List<UUID> ids) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("ids", ids.stream().map(UUID::toString).collect(Collectors.toList()));
+        return execute(BATCH_GET_QUERY, variables)
+                .thenApply(GraphQlUserRequestHandler::toQueryResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> search(String query, Integer limit) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("query", query);
+        variables.put("limit", limit);
+        return execute(SEARCH_QUERY, variables)
+                .thenApply(GraphQlUserRequestHandler::toQueryResponse);
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> create(UserRequest request) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("user", toVariables(request));
+        return execute(CREATE_MUTATION, variables).thenApply(this::toCreateResponse);
+    }
+
+    private ResponseEntity<?> toCreateResponse(ExecutionResult result) {
+        if (!result.getErrors().isEmpty()) {
+            return toErrorResponse(result);
+        }
+        Map created = (Map) ((Map) result.getData()).get("createUser");
+        HttpStatus status = UserRequestHandler.toHttpStatus(WriteStatus.valueOf((String) created.get("status")));
+        if (status != HttpStatus.OK) {
+            return ResponseEntity.status(status).build();
+        }
+        return ResponseEntity.ok(created.get("user"));
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> update(UUID id, UserRequest request) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("id", id.toString());
+        variables.put("user", toVariables(request));
+        return execute(UPDATE_MUTATION, variables)
+                .thenApply(result -> toWriteResponse(result, "updateUser"));
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> patch(UUID id, UserPatchRequest request) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("email", request.getEmail());
+        user.put("password", request.getPassword());
+        user.put("role", request.getRole());
+        user.put("firstName", request.getFirstName());
+        user.put("lastName", request.getLastName());
+        user.put("avatar", request.getAvatar());
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("id", id.toString());
+        variables.put("user", user);
+        return execute(PATCH_MUTATION, variables)
+                .thenApply(result -> toWriteResponse(result, "patchUser"));
+    }
+
+    private ResponseEntity<?> toWriteResponse(ExecutionResult result, String field) {
+        if (!result.getErrors().isEmpty()) {
+            return toErrorResponse(result);
+        }
+        String status = (String) ((Map) result.getData()).get(field);
+        return ResponseEntity.status(UserRequestHandler.toHttpStatus(WriteStatus.valueOf(status))).build();
+    }
+
+    @Override
+    public CompletionStage<ResponseEntity<?>> delete(UUID id) {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("id", id.toString());
+        return execute(DELETE_MUTATION, variables)
+                .thenApply(result -> toStatusResponse(result, "deleteUser"));
+    }
+
+    private ResponseEntity<?> toStatusResponse(ExecutionResult result, String field) {
+        if (!result.getErrors().isEmpty()) {
+            return toErrorResponse(result);
+        }
+        if ((Boolean) ((Map) result.getData()).get(field)) {
+            return ResponseEntity.ok().build();
+        }
+        return ResponseEntity.badRequest().build();
+    }
+
+    /**
+     * @return result as GraphQL response, or status of the error as {@link UserController} responds in direct mode
+     */
+    private static ResponseEntity<?> toQueryResponse(ExecutionResult result) {
+        return toErrorStatus(result)
+                .<ResponseEntity<?>>map(status -> ResponseEntity.status(status).build())
+                .orElseGet(() -> ResponseEntity.ok(result.toSpecification()));
+    }
+
+    /**
+     * @return status of the error as in direct mode, 500 for unexpected errors
+     */
+    private static ResponseEntity<?> toErrorResponse(ExecutionResult result) {
+        return ResponseEntity.status(toErrorStatus(result).orElse(HttpStatus.INTERNAL_SERVER_ERROR)).build();
+    }
+
+    /**
+     * Maps errors the same way as exception handlers of {@link UserController}:
+     * 503 if password hashing pool rejected the operation, 400 for invalid arguments,
+     * which are {@link IllegalArgumentException}s of data fetchers and variables failing validation,
+     * as operations themselves are fixed
+     *
+     * @return status of the errors, empty if there are none or they are unexpected
+     */
+    private static Optional<HttpStatus> toErrorStatus(ExecutionResult result) {
+        HttpStatus status = null;
+        for (GraphQLError error : result.getErrors()) {
+            if (error.getErrorType() == ErrorType.ValidationError) {
+                status = HttpStatus.BAD_REQUEST;
+            }
+            if (error instanceof ExceptionWhileDataFetching) {
+                for (Throwable e = ((ExceptionWhileDataFetching) error).getException(); e != null; e = e.getCause()) {
+                    if (e instanceof RejectedExecutionException) {
+                        return Optional.of(HttpStatus.SERVICE_UNAVAILABLE);
+                    }
+                    if (e instanceof IllegalArgumentException) {
+                        status = HttpStatus.BAD_REQUEST;
+                    }
+                }
+            }
+        }
+        return Optional.ofNullable(status);
+    }
+
+    private CompletionStage<ExecutionResult> execute(String query, Map<String, Object> variables) {
+        return graphQl.executeAsync(ExecutionInput.newExecutionInput()
+                .query(query)
+                .variables(variables)
+                .dataLoaderRegistry(userDataLoaders.newRegistry())
+                .build());
+    }
+
+    private Map<String, Object> toVariables(UserRequest request) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("email", request.getEmail());
+        user.put("password", request.getPassword());
+        user.put("role", request.getRole());
+        user.put("firstName", request.getFirstName());
+        user.put("lastName", request.getLastName());
+        user.put("avatar", request.getAvatar());
+        return user;
+    }
+}
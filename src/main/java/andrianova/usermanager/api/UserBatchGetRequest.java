@@ -0,0 +1,38 @@
+package andrianova.usermanager.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.lang.NonNull;
+
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Request to get users by ids
+ */
+public class UserBatchGetRequest {
+    /**
+     * User ids
+     */
+    @NonNull
+    @NotNull
+    private final List<@NotNull UUID> ids;
+
+    @JsonCreator
+    public UserBatchGetRequest(@JsonProperty("ids") @NonNull List<UUID> ids) {
+        this.ids = ids;
+    }
+
+    @JsonProperty("ids") @NonNull
+    public List<UUID> getIds() {
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "UserBatchGetRequest{" +
+                "ids=" + ids +
+                '}';
+    }
+}
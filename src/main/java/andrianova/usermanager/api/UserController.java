@@ -1,81 +1,226 @@
 package andrianova.usermanager.api;
 
+import andrianova.usermanager.domain.Avatar;
+import andrianova.usermanager.domain.Role;
 import andrianova.usermanager.domain.User;
-import graphql.ExecutionResult;
-import graphql.GraphQL;
+import andrianova.usermanager.service.UserImportService;
+import andrianova.usermanager.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
-import java.util.Map;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Rest controller to manage {@link User}
+ * Rest controller to manage {@link User}.
+ * CRUD endpoints complete asynchronously, releasing request thread while database requests are in flight
  */
 @RestController
 @RequestMapping("/user")
 public class UserController {
 
+    /**
+     * Media type of newline delimited json
+     */
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    /**
+     * Value of {@code sort} parameter listing users ordered by name
+     */
+    private static final String SORT_BY_NAME = "name";
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType(UserImportReader.TEXT_CSV_VALUE);
+
     private final Logger log = LoggerFactory.getLogger(UserController.class);
 
     @Autowired
-    private GraphQL graphQl;
+    private UserRequestHandler requestHandler;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserImportService userImportService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private Validator validator;
 
     /**
-     * Lists all users
+     * Lists users page by page, in storage order or ordered by last name, first name and id with {@code sort=name}.
+     * Users having a role are listed with {@code role}, which can't be combined with sorting
+     *
+     * @param pageSize  max number of users on the page
+     * @param pageToken {@code pageInfo.endCursor} of the previous page
+     * @param sort      {@code name} to order users by name
+     * @param before    {@code pageInfo.startCursor} of the next page, to go back in users ordered by name
+     * @param role      name of the role of listed users
      */
     @GetMapping
-    public Map<String, Object> list() {
-        ExecutionResult result = graphQl.execute(
-                "{ users {" +
-                        " id, email, firstName, lastName, role }}");
-        return result.toSpecification();
+    public CompletionStage<ResponseEntity<?>> list(@RequestParam(value = "pageSize", required = false) Integer pageSize,
+                                                   @RequestParam(value = "pageToken", required = false) String pageToken,
+                                                   @RequestParam(value = "sort", required = false) String sort,
+                                                   @RequestParam(value = "before", required = false) String before,
+                                                   @RequestParam(value = "role", required = false) String role) {
+        if (role != null) {
+            if (sort != null || before != null) {
+                throw new IllegalArgumentException("Users by role can't be sorted or listed backward");
+            }
+            return requestHandler.listByRole(pageSize, pageToken, Role.findByName(role));
+        }
+        if (SORT_BY_NAME.equals(sort)) {
+            return requestHandler.listByName(pageSize, pageToken, before);
+        }
+        if (sort != null) {
+            throw new IllegalArgumentException("Unsupported sort " + sort);
+        }
+        if (before != null) {
+            throw new IllegalArgumentException("Users in storage order can't be listed backward");
+        }
+        return requestHandler.list(pageSize, pageToken);
+    }
+
+    /**
+     * Exports all users as newline delimited json.
+     * Users are written to the response while pages are fetched from the database
+     */
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody export() {
+        return out -> {
+            try {
+                userService.exportUsers(user -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(new UserSummaryView(user)));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Imports users from newline delimited json or csv request body.
+     * Result of every record is written to the response as newline delimited json
+     * while the import is in progress, see {@link UserImportReader} for the formats
+     *
+     * @param request     request with users to import
+     * @param contentType format of the request body
+     */
+    @PostMapping(value = "/_import",
+            consumes = {APPLICATION_NDJSON_VALUE, UserImportReader.TEXT_CSV_VALUE},
+            produces = APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody importUsers(HttpServletRequest request,
+                                             @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType) {
+        return out -> {
+            UserImportReader reader = MediaType.parseMediaType(contentType).isCompatibleWith(TEXT_CSV)
+                    ? UserImportReader.csv(request.getInputStream(), validator)
+                    : UserImportReader.ndjson(request.getInputStream(), objectMapper, validator);
+            try {
+                userImportService.importUsers(reader, result -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(result));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Search users whose email, first name or last name words start with every term of the query.
+     * Recently changed users may be found by previous values for a short time
+     *
+     * @param query terms separated by whitespace
+     * @param limit max number of users
+     * @return best matching users first
+     */
+    @GetMapping("/search")
+    public CompletionStage<ResponseEntity<?>> search(@RequestParam("q") String query,
+                                                     @RequestParam(value = "limit", required = false) Integer limit) {
+        return requestHandler.search(query, limit);
     }
 
     /**
      * Get user by id
      */
     @GetMapping("/{id}")
-    public Map<String, Object> getById(@PathVariable("id") String id) {
-        ExecutionResult result = graphQl.execute(
-                "{ user (id: \"" + id + "\") {" +
-                        " id, email, password { hash }, firstName, lastName, avatar, role }}");
-        return result.toSpecification();
+    public CompletionStage<ResponseEntity<?>> getById(@PathVariable("id") String id) {
+        return requestHandler.getById(id);
+    }
+
+    /**
+     * Get users by ids
+     *
+     * @param request user ids
+     * @return users in the order of ids and ids of missing users
+     */
+    @PostMapping(value = "/_batch-get", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletionStage<ResponseEntity<?>> batchGet(@RequestBody @Valid UserBatchGetRequest request) {
+        return requestHandler.batchGet(request.getIds());
+    }
+
+    /**
+     * Get user avatar content.
+     * Avatar id is used as ETag, so clients can revalidate cached avatar with If-None-Match header
+     *
+     * @param id          user id
+     * @param ifNoneMatch If-None-Match header
+     * @return HttpStatus.NOT_FOUND if user not exists or has no avatar,
+     * HttpStatus.NOT_MODIFIED if avatar matches If-None-Match header
+     */
+    @GetMapping("/{id}/avatar")
+    public ResponseEntity<StreamingResponseBody> getAvatar(
+            @PathVariable("id") UUID id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Optional<Avatar> avatar = userService.getAvatar(id);
+        if (avatar.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        String eTag = "\"" + avatar.get().getId() + "\"";
+        if (ifNoneMatch != null && Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals(eTag) || tag.equals("*"))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        StreamingResponseBody content = out -> userService.writeAvatar(avatar.get(), out);
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .contentType(MediaType.parseMediaType(avatar.get().getContentType()))
+                .contentLength(avatar.get().getSize())
+                .body(content);
     }
 
     /**
      * Creates new user
      *
      * @param request user create request
-     * @return HttpStatus.BAD_REQUEST if user already exists or request is not valid
+     * @return HttpStatus.CONFLICT if email is taken, HttpStatus.BAD_REQUEST if request is not valid
      */
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity create(@RequestBody @Valid UserRequest request) {
+    public CompletionStage<ResponseEntity<?>> create(@RequestBody @Valid UserRequest request) {
         log.debug("Create user: {}", request);
 
-        ExecutionResult result = graphQl.execute("mutation { createUser(user:  {" +
-                "email: " + wrapInQuotes(request.getEmail()) + ", " +
-                "password: " + wrapInQuotes(request.getPassword()) + ", " +
-                "role: " + wrapInQuotes(request.getRole()) + ", " +
-                "firstName: " + wrapInQuotes(request.getFirstName()) + ", " +
-                "lastName: " + wrapInQuotes(request.getLastName()) + ", " +
-                "avatar: " + wrapInQuotes(request.getAvatar()) +
-                "}) " +
-                "{id, email, firstName, lastName, role } } ");
-        if (!result.getErrors().isEmpty()) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
-        Object user = ((Map) result.getData()).get("createUser");
-        if (user == null) {
-            return ResponseEntity.badRequest().build();
-        }
-        return ResponseEntity.ok(user);
+        return requestHandler.create(request);
     }
 
     /**
@@ -83,34 +228,31 @@ public class UserController {
      *
      * @param id user id
      * @param request new user info
-     * @return HttpStatus.BAD_REQUEST if user not exists or request is not valid
+     * @return HttpStatus.CONFLICT if email is taken by another user,
+     * HttpStatus.BAD_REQUEST if user not exists or request is not valid
      */
     @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity update(@PathVariable("id") UUID id,
-                                 @RequestBody @Valid UserRequest request) {
+    public CompletionStage<ResponseEntity<?>> update(@PathVariable("id") UUID id,
+                                                     @RequestBody @Valid UserRequest request) {
         log.debug("Update user: {}", request);
 
-        ExecutionResult result = graphQl.execute("mutation { updateUser(" +
-                "id: " + wrapInQuotes(id.toString()) + ", " +
-                "user:  {" +
-                "email: " + wrapInQuotes(request.getEmail()) + ", " +
-                "password: " + wrapInQuotes(request.getPassword()) + ", " +
-                "role: " + wrapInQuotes(request.getRole()) + ", " +
-                "firstName: " + wrapInQuotes(request.getFirstName()) + ", " +
-                "lastName: " + wrapInQuotes(request.getLastName()) + ", " +
-                "avatar: " + wrapInQuotes(request.getAvatar()) +
-                "}) }");
-        if (!result.getErrors().isEmpty()) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
-        if ((Boolean) ((Map)result.getData()).get("updateUser")) {
-            return ResponseEntity.ok().build();
-        }
-        return ResponseEntity.badRequest().build();
+        return requestHandler.update(id, request);
     }
 
-    private String wrapInQuotes(String value) {
-        return value == null ? null : "\"" + value + "\"";
+    /**
+     * Changes fields present in the request, other fields are not changed
+     *
+     * @param id      user id
+     * @param request fields to change
+     * @return HttpStatus.CONFLICT if email is taken by another user,
+     * HttpStatus.BAD_REQUEST if user not exists or request is not valid
+     */
+    @PatchMapping(value = "/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletionStage<ResponseEntity<?>> patch(@PathVariable("id") UUID id,
+                                                    @RequestBody @Valid UserPatchRequest request) {
+        log.debug("Patch user: {}", request);
+
+        return requestHandler.patch(id, request);
     }
 
     /**
@@ -120,16 +262,8 @@ public class UserController {
      * @return HttpStatus.BAD_REQUEST if user not exists
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity delete(@PathVariable("id") UUID id) {
-        ExecutionResult result = graphQl.execute("mutation { deleteUser(" +
-                "id: \"" + id.toString() + "\")} ");
-        if (!result.getErrors().isEmpty()) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
-        if ((Boolean) ((Map)result.getData()).get("deleteUser")) {
-            return ResponseEntity.ok().build();
-        }
-        return ResponseEntity.badRequest().build();
+    public CompletionStage<ResponseEntity<?>> delete(@PathVariable("id") UUID id) {
+        return requestHandler.delete(id);
     }
 
     @ExceptionHandler(IllegalArgumentException.class)
@@ -137,4 +271,12 @@ public class UserController {
     private void handleException() {
     }
 
+    /**
+     * Password hashing pool is saturated
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    private void handleRejected() {
+    }
+
 }
@@ -0,0 +1,175 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.service.UserImportRecord;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Reads user import records line by line from newline delimited json or csv.
+ * Csv must start with a header naming the columns: {@code email, password, firstName, lastName, role, avatar}.
+ * Records which can't be parsed or are not valid are returned with an error, blank lines are skipped
+ */
+class UserImportReader implements Iterator<UserImportRecord> {
+
+    /**
+     * Media type of csv
+     */
+    static final String TEXT_CSV_VALUE = "text/csv";
+
+    private final BufferedReader reader;
+    private final Function<String, UserRequest> parser;
+    private final Validator validator;
+    private long line;
+    private UserImportRecord next;
+
+    private UserImportReader(BufferedReader reader, long line,
+                             Function<String, UserRequest> parser, Validator validator) {
+        this.reader = reader;
+        this.line = line;
+        this.parser = parser;
+        this.validator = validator;
+    }
+
+    /**
+     * Reader of newline delimited json, one {@link UserRequest} per line
+     */
+    static UserImportReader ndjson(InputStream in, ObjectMapper objectMapper, Validator validator) {
+        return new UserImportReader(reader(in), 0, value -> {
+            try {
+                return objectMapper.readValue(value, UserRequest.class);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException(e.getOriginalMessage(), e);
+            }
+        }, validator);
+    }
+
+    /**
+     * Reader of csv with header line
+     */
+    static UserImportReader csv(InputStream in, Validator validator) throws IOException {
+        BufferedReader reader = reader(in);
+        String header = reader.readLine();
+        if (header == null) {
+            return new UserImportReader(reader, 1, value -> null, validator);
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = parseCsvLine(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim(), i);
+        }
+        return new UserImportReader(reader, 1, value -> {
+            List<String> fields = parseCsvLine(value);
+            Function<String, String> field = column -> Optional.ofNullable(columns.get(column))
+                    .filter(index -> index < fields.size())
+                    .map(fields::get)
+                    .filter(text -> !text.isEmpty())
+                    .orElse(null);
+            return new UserRequest(field.apply("email"), field.apply("password"),
+                    field.apply("firstName"), field.apply("lastName"),
+                    field.apply("avatar"), field.apply("role"));
+        }, validator);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public UserImportRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        UserImportRecord record = next;
+        next = null;
+        return record;
+    }
+
+    private UserImportRecord readNext() {
+        String value;
+        try {
+            do {
+                value = reader.readLine();
+                line++;
+            } while (value != null && value.isBlank());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (value == null) {
+            return null;
+        }
+
+        UserRequest request;
+        try {
+            request = parser.apply(value);
+        } catch (NullPointerException e) {
+            return UserImportRecord.invalid(line, "email, password and role are required");
+        } catch (IllegalArgumentException e) {
+            return UserImportRecord.invalid(line, e.getMessage());
+        }
+        Set<ConstraintViolation<UserRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            return UserImportRecord.invalid(line, violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .collect(Collectors.joining(", ")));
+        }
+        return UserImportRecord.of(line, request);
+    }
+
+    private static BufferedReader reader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Splits csv line to fields, double quotes enclose fields with commas and escape quotes
+     */
+    private static List<String> parseCsvLine(String value) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < value.length() && value.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
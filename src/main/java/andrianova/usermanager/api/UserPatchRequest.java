@@ -0,0 +1,101 @@
+package andrianova.usermanager.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.leangen.graphql.annotations.GraphQLQuery;
+
+import javax.validation.constraints.Email;
+
+/**
+ * Request to change some fields of user, fields which are absent or null are not changed
+ */
+public class UserPatchRequest {
+    /**
+     * Email
+     */
+    @Email
+    @GraphQLQuery(name = "email")
+    private final String email;
+    /**
+     * Password
+     */
+    @GraphQLQuery(name = "password")
+    private final String password;
+    /**
+     * First name
+     */
+    @GraphQLQuery(name = "firstName")
+    private final String firstName;
+    /**
+     * Last name
+     */
+    @GraphQLQuery(name = "lastName")
+    private final String lastName;
+    /**
+     * Avatar
+     */
+    @GraphQLQuery(name = "avatar")
+    private final String avatar;
+    /**
+     * Role
+     */
+    @GraphQLQuery(name = "role")
+    private final String role;
+
+    @JsonCreator
+    public UserPatchRequest(@JsonProperty("email") String email,
+                            @JsonProperty("password") String password,
+                            @JsonProperty("firstName") String firstName,
+                            @JsonProperty("lastName") String lastName,
+                            @JsonProperty("avatar") String avatar,
+                            @JsonProperty("role") String role) {
+        this.email = email;
+        this.password = password;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.avatar = avatar;
+        this.role = role;
+    }
+
+    @JsonProperty("email")
+    public String getEmail() {
+        return email;
+    }
+
+    @JsonProperty("password")
+    public String getPassword() {
+        return password;
+    }
+
+    @JsonProperty("firstName")
+    public String getFirstName() {
+        return firstName;
+    }
+
+    @JsonProperty("lastName")
+    public String getLastName() {
+        return lastName;
+    }
+
+    @JsonProperty("avatar")
+    public String getAvatar() {
+        return avatar;
+    }
+
+    @JsonProperty("role")
+    public String getRole() {
+        return role;
+    }
+
+    @Override
+    public String toString() {
+        return "UserPatchRequest{" +
+                "email='" + email + '\'' +
+                ", password='" + password + '\'' +
+                ", firstName='" + firstName + '\'' +
+                ", lastName='" + lastName + '\'' +
+                ", avatar='" + avatar + '\'' +
+                ", role='" + role + '\'' +
+                '}';
+    }
+}
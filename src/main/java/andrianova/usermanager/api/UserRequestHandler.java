@@ -0,0 +1,129 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.domain.Role;
+import andrianova.usermanager.domain.WriteStatus;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Handles requests of {@link UserController}.
+ * Implementation is selected by {@code user-manager.api.mode} property:
+ * {@code graphql} (default) executes GraphQL operations, {@code direct} calls service layer directly.
+ * Both implementations produce responses of the same json shape.
+ * Responses are completed asynchronously, so request threads are not held while database requests are in flight
+ */
+public interface UserRequestHandler {
+
+    /**
+     * List users page by page
+     *
+     * @param pageSize  max number of users on the page, null for default
+     * @param pageToken token of the page, null for the first page
+     * @return {@code {data: {users: {nodes: [...], pageInfo: {...}}}}}
+     */
+    CompletionStage<ResponseEntity<?>> list(Integer pageSize, String pageToken);
+
+    /**
+     * List users having {@code role} page by page
+     *
+     * @param pageSize  max number of users on the page, null for default
+     * @param pageToken token of the page, null for the first page
+     * @param role      role of users
+     * @return {@code {data: {users: {nodes: [...], pageInfo: {...}}}}}
+     */
+    CompletionStage<ResponseEntity<?>> listByRole(Integer pageSize, String pageToken, Role role);
+
+    /**
+     * List users ordered by last name, first name and id page by page.
+     * Pages are read forward from {@code after} or backward from {@code before}, at most one of them is set
+     *
+     * @param pageSize max number of users on the page, null for default
+     * @param after    {@code pageInfo.endCursor} of the previous page, null for the first page
+     * @param before   {@code pageInfo.startCursor} of the next page
+     * @return {@code {data: {usersByName: {nodes: [...], pageInfo: {...}}}}}
+     */
+    CompletionStage<ResponseEntity<?>> listByName(Integer pageSize, String after, String before);
+
+    /**
+     * Get user by id
+     *
+     * @param id user id
+     * @return {@code {data: {user: {...}}}}
+     */
+    CompletionStage<ResponseEntity<?>> getById(String id);
+
+    /**
+     * Get users by ids
+     *
+     * @param ids user ids
+     * @return {@code {data: {usersByIds: {users: [...], missingIds: [...]}}}}, users are in the order of ids
+     */
+    CompletionStage<ResponseEntity<?>> batchGet(List<UUID> ids);
+
+    /**
+     * Search users by prefixes of email, first name and last name
+     *
+     * @param query terms separated by whitespace
+     * @param limit max number of users, null for default
+     * @return {@code {data: {searchUsers: [...]}}}, best matches first
+     */
+    CompletionStage<ResponseEntity<?>> search(String query, Integer limit);
+
+    /**
+     * Create user
+     *
+     * @param request user create request
+     * @return created user or HttpStatus.CONFLICT if email is taken
+     */
+    CompletionStage<ResponseEntity<?>> create(UserRequest request);
+
+    /**
+     * Update user
+     *
+     * @param id      user id
+     * @param request new user info
+     * @return HttpStatus.CONFLICT if email is taken by another user,
+     * HttpStatus.BAD_REQUEST if user not exists or not modified
+     */
+    CompletionStage<ResponseEntity<?>> update(UUID id, UserRequest request);
+
+    /**
+     * Change some fields of user
+     *
+     * @param id      user id
+     * @param request fields to change
+     * @return HttpStatus.CONFLICT if email is taken by another user,
+     * HttpStatus.BAD_REQUEST if user not exists or not modified
+     */
+    CompletionStage<ResponseEntity<?>> patch(UUID id, UserPatchRequest request);
+
+    /**
+     * Delete user
+     *
+     * @param id user id
+     * @return HttpStatus.BAD_REQUEST if user not exists
+     */
+    CompletionStage<ResponseEntity<?>> delete(UUID id);
+
+    /**
+     * Response status of the user write
+     *
+     * @param status write status
+     * @return HttpStatus.OK if user was written, HttpStatus.CONFLICT if email is taken,
+     * HttpStatus.BAD_REQUEST otherwise
+     */
+    static HttpStatus toHttpStatus(WriteStatus status) {
+        switch (status) {
+            case OK:
+                return HttpStatus.OK;
+            case EMAIL_CONFLICT:
+                return HttpStatus.CONFLICT;
+            default:
+                return HttpStatus.BAD_REQUEST;
+        }
+    }
+}
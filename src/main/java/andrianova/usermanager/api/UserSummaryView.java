@@ -0,0 +1,46 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.domain.User;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.UUID;
+
+/**
+ * Json view of {@link User} without credentials and avatar,
+ * same as {@code id, email, firstName, lastName, role} GraphQL selection
+ */
+@JsonPropertyOrder({"id", "email", "firstName", "lastName", "role"})
+public class UserSummaryView {
+
+    protected final User user;
+
+    public UserSummaryView(User user) {
+        this.user = user;
+    }
+
+    @JsonProperty("id")
+    public UUID getId() {
+        return user.getId();
+    }
+
+    @JsonProperty("email")
+    public String getEmail() {
+        return user.getEmail();
+    }
+
+    @JsonProperty("firstName")
+    public String getFirstName() {
+        return user.getFirstName();
+    }
+
+    @JsonProperty("lastName")
+    public String getLastName() {
+        return user.getLastName();
+    }
+
+    @JsonProperty("role")
+    public String getRole() {
+        return user.getRole() == null ? null : user.getRole().getName();
+    }
+}
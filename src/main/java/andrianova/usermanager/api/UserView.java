@@ -0,0 +1,28 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.domain.Password;
+import andrianova.usermanager.domain.User;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Json view of all {@link User} fields,
+ * same as {@code id, email, password { hash }, firstName, lastName, avatarId, role} GraphQL selection
+ */
+@JsonPropertyOrder({"id", "email", "password", "firstName", "lastName", "avatarId", "role"})
+public class UserView extends UserSummaryView {
+
+    public UserView(User user) {
+        super(user);
+    }
+
+    @JsonProperty("password")
+    public Password getPassword() {
+        return user.getPassword();
+    }
+
+    @JsonProperty("avatarId")
+    public String getAvatarId() {
+        return user.getAvatarId();
+    }
+}
@@ -1,25 +1,60 @@
 package andrianova.usermanager.auth;
 
 import andrianova.usermanager.config.SecurityProperties;
+import andrianova.usermanager.domain.OperationTimer;
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Service for jwt authorization
+ * Service for jwt authorization.
+ * Logins and lookups of users by token are timed as {@code auth} metric with {@code operation=login|findUser}
  */
 @Service
 public class AuthService {
 
+    private static final Logger log = LoggerFactory.getLogger(AuthService.class);
+
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private PasswordHasher passwordHasher;
     @Autowired
     private SecurityProperties securityProperties;
     @Autowired
     private UserDetailsService userDetailsService;
+    @Autowired
+    private PrincipalCache principalCache;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Algorithm algorithm;
+    private TokenVerifier tokenVerifier;
+    private OperationTimer timer;
+
+    @PostConstruct
+    public void init() {
+        algorithm = Algorithm.HMAC512(securityProperties.getSigningKey());
+        tokenVerifier = new TokenVerifier(algorithm,
+                securityProperties.getTokenCacheMaxSize(),
+                Duration.ofSeconds(securityProperties.getTokenCacheTtlSeconds()));
+        timer = new OperationTimer(meterRegistry, "auth", "Authentication operations");
+    }
 
     /**
      * Create authorization token
@@ -29,7 +64,46 @@ public class AuthService {
      */
     public String createAuthToken(UserDetails user) {
         return JWT.create().withSubject(user.getUsername())
-                .sign(Algorithm.HMAC512(securityProperties.getSigningKey()));
+                .sign(algorithm);
+    }
+
+    /**
+     * Check email and password of the user.
+     * Credentials are read with a single read, password is verified on {@link PasswordHasher} pool, and its hash is replaced in background
+     * if it is weaker than hashes created now
+     *
+     * @param email    user email
+     * @param password plain-text password
+     * @return user details, empty if user not exists or password doesn't match.
+     * Fails with {@link RejectedExecutionException} if too many passwords are being verified
+     */
+    public CompletionStage<Optional<UserDetails>> login(String email, String password) {
+        byte[] rawPassword = password.getBytes(StandardCharsets.UTF_8);
+        return timer.timeAsync("login", () -> userDao.findCredentialsByEmailAsync(email)
+                .thenCompose(user -> passwordHasher
+                        .verifyAsync(user.map(User::getPassword).orElse(null), rawPassword)
+                        .thenApply(matches -> matches ? user : Optional.<User>empty()))
+                .thenApply(user -> {
+                    user.ifPresent(found -> upgradePassword(found, rawPassword));
+                    return user.<UserDetails>map(UserDetailsImpl::new);
+                }));
+    }
+
+    /**
+     * Rehashes password with current strength if needed, failures are only logged
+     * since the old hash is still valid
+     */
+    private void upgradePassword(User user, byte[] rawPassword) {
+        if (!passwordHasher.needsUpgrade(user.getPassword())) {
+            return;
+        }
+        passwordHasher.hashAsync(rawPassword)
+                .thenCompose(upgraded -> userDao.replacePasswordAsync(user, upgraded))
+                .whenComplete((replaced, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to upgrade password of user {}", user.getId(), error);
+                    }
+                });
     }
 
     /**
@@ -39,12 +113,18 @@ public class AuthService {
      * @return user details
      */
     public Optional<UserDetails> findUser(String token) {
-        String username = JWT.require(Algorithm.HMAC512(securityProperties.getSigningKey()))
-                .build()
-                .verify(token)
-                .getSubject();
+        return timer.time("findUser", () -> {
+            String username = tokenVerifier.verify(token);
+
+            return Optional.ofNullable(principalCache.get(username, userDetailsService::loadUserByUsername));
+        });
+    }
 
-        return Optional.ofNullable(userDetailsService.loadUserByUsername(username));
+    /**
+     * @return timer of authentication operations
+     */
+    public OperationTimer getTimer() {
+        return timer;
     }
 
 }
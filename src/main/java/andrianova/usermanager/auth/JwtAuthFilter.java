@@ -1,5 +1,6 @@
 package andrianova.usermanager.auth;
 
+import andrianova.usermanager.domain.OperationTimer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -17,7 +18,9 @@ import java.util.Optional;
 import static org.apache.commons.lang.StringUtils.isEmpty;
 
 /**
- * Parses jwt token from request Authorization header and sets auth context
+ * Parses jwt token from request Authorization header and sets auth context.
+ * Authentication is timed as {@code auth} metric with {@code operation=filter}
+ * and outcome {@code anonymous}, {@code authenticated}, {@code not_found} or {@code error}
  */
 public class JwtAuthFilter extends OncePerRequestFilter {
 
@@ -32,13 +35,22 @@ public class JwtAuthFilter extends OncePerRequestFilter {
                                     HttpServletResponse response,
                                     FilterChain filterChain) throws ServletException, IOException {
         final String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        long start = System.nanoTime();
         if (isEmpty(header)) {
+            authService.getTimer().record("filter", "anonymous", start);
             filterChain.doFilter(request, response);
             return;
         }
 
-        Optional<UserDetails> userDetails = authService.findUser(header);
+        Optional<UserDetails> userDetails;
+        try {
+            userDetails = authService.findUser(header);
+        } catch (RuntimeException e) {
+            authService.getTimer().record("filter", OperationTimer.ERROR, start);
+            throw e;
+        }
         if (userDetails.isEmpty()) {
+            authService.getTimer().record("filter", OperationTimer.NOT_FOUND, start);
             filterChain.doFilter(request, response);
             return;
         }
@@ -49,6 +61,7 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
         SecurityContextHolder.getContext().setAuthentication(authentication);
+        authService.getTimer().record("filter", "authenticated", start);
         filterChain.doFilter(request, response);
     }
 }
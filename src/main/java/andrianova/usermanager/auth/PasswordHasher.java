@@ -0,0 +1,172 @@
+package andrianova.usermanager.auth;
+
+import andrianova.usermanager.config.SecurityProperties;
+import andrianova.usermanager.domain.OperationTimer;
+import andrianova.usermanager.domain.Password;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Hashes and verifies passwords on a dedicated bounded pool, so that a burst of logins
+ * doesn't occupy request threads serving other requests.
+ * When the queue is full, operations fail immediately with {@link RejectedExecutionException}.
+ * <p>
+ * Strength of new hashes is calibrated on startup, so that hashing takes about
+ * {@code security.password-hashing.target-millis}, unless it is set with {@code security.password-hashing.strength}.
+ * Operations are timed as {@code password} metric with {@code operation=hash|verify}
+ */
+@Component
+public class PasswordHasher {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+
+    /**
+     * Strength measured on calibration, cheap enough to measure quickly and expensive enough to measure precisely
+     */
+    private static final int CALIBRATION_STRENGTH = 8;
+    private static final int CALIBRATION_ROUNDS = 3;
+    /**
+     * Max calibrated strength, so that a slow startup doesn't produce hashes nobody can verify in time
+     */
+    private static final int MAX_CALIBRATED_STRENGTH = 16;
+    private static final String MISMATCH = "mismatch";
+    private static final String REJECTED = "rejected";
+
+    @Autowired
+    private SecurityProperties securityProperties;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+    private OperationTimer timer;
+    private int strength;
+    /**
+     * Hash verified when user is not found, so that response time doesn't reveal which emails exist
+     */
+    private Password missingUserPassword;
+
+    @PostConstruct
+    public void init() {
+        int threads = securityProperties.getPasswordHashingThreads() > 0
+                ? securityProperties.getPasswordHashingThreads()
+                : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(securityProperties.getPasswordHashingQueueSize()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        new ExecutorServiceMetrics(executor, "password", Tags.empty()).bindTo(meterRegistry);
+        timer = new OperationTimer(meterRegistry, "password", "Password hashing and verification");
+
+        strength = securityProperties.getPasswordHashingStrength() > 0
+                ? securityProperties.getPasswordHashingStrength()
+                : calibrate(securityProperties.getPasswordHashingTargetMillis());
+        missingUserPassword = Password.of(new byte[0], strength);
+        log.info("Hashing passwords with strength {} on {} threads", strength, threads);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Hash plain-text password with current strength
+     *
+     * @param password plain-text password
+     * @return hashed password, fails with {@link RejectedExecutionException} if too many passwords are queued
+     */
+    public CompletionStage<Password> hashAsync(byte[] password) {
+        return submit("hash", () -> Password.of(password, strength), hash -> OperationTimer.OK);
+    }
+
+    /**
+     * Check plain-text password against the hash
+     *
+     * @param hash     stored password, null if user is not found
+     * @param password plain-text password
+     * @return true if password matches, fails with {@link RejectedExecutionException} if too many passwords are queued
+     */
+    public CompletionStage<Boolean> verifyAsync(Password hash, byte[] password) {
+        return submit("verify", () -> {
+            boolean matches = (hash != null ? hash : missingUserPassword).matches(password);
+            return hash != null && matches;
+        }, matches -> matches ? OperationTimer.OK : MISMATCH);
+    }
+
+    /**
+     * @return true if hash is weaker than hashes created now and should be replaced
+     */
+    public boolean needsUpgrade(Password hash) {
+        return hash.isLegacy() || hash.getStrength() < strength;
+    }
+
+    /**
+     * @return strength of new hashes
+     */
+    public int getStrength() {
+        return strength;
+    }
+
+    private <T> CompletionStage<T> submit(String operation, Supplier<T> task, Function<T, String> outcome) {
+        long start = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    T value = task.get();
+                    timer.record(operation, outcome.apply(value), start);
+                    result.complete(value);
+                } catch (RuntimeException e) {
+                    timer.record(operation, OperationTimer.ERROR, start);
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            timer.record(operation, REJECTED, start);
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Finds strength with hashing time closest to {@code targetMillis} on this machine
+     */
+    static int calibrate(long targetMillis) {
+        byte[] sample = "calibration".getBytes(StandardCharsets.UTF_8);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i <= CALIBRATION_ROUNDS; i++) {
+            long start = System.nanoTime();
+            Password.of(sample, CALIBRATION_STRENGTH);
+            long elapsed = System.nanoTime() - start;
+            if (i > 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        double doublings = Math.log((double) TimeUnit.MILLISECONDS.toNanos(targetMillis) / best) / Math.log(2);
+        int calibrated = CALIBRATION_STRENGTH + (int) Math.round(doublings);
+        return Math.max(Password.MIN_STRENGTH, Math.min(MAX_CALIBRATED_STRENGTH, calibrated));
+    }
+}
@@ -0,0 +1,59 @@
+package andrianova.usermanager.auth;
+
+import andrianova.usermanager.config.SecurityProperties;
+import andrianova.usermanager.domain.UserChangeListener;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of authenticated principals keyed by token subject (user email).
+ * Principals hold only email, password hash and role of the user.
+ * Entries expire after configured ttl and are evicted when user is changed or deleted
+ */
+@Component
+public class PrincipalCache implements UserChangeListener {
+
+    @Autowired
+    private SecurityProperties securityProperties;
+
+    private Cache<String, UserDetails> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(securityProperties.getPrincipalCacheMaxSize())
+                .expireAfterWrite(Duration.ofSeconds(securityProperties.getPrincipalCacheTtlSeconds()))
+                .build();
+    }
+
+    /**
+     * Get principal from cache or load it
+     *
+     * @param username token subject
+     * @param loader   function to load principal if it is not cached
+     * @return principal
+     */
+    public UserDetails get(String username, Function<String, UserDetails> loader) {
+        return cache.get(username, loader);
+    }
+
+    @Override
+    public void userChanged(UUID userId, String email) {
+        if (email != null) {
+            cache.invalidate(email);
+        }
+    }
+
+    @Override
+    public void allUsersChanged() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,86 @@
+package andrianova.usermanager.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+import java.util.Date;
+
+/**
+ * Verifies jwt tokens signed with shared {@link Algorithm}.
+ * Subjects of verified tokens are cached, so signature of a token is checked only once.
+ * Cached token expires at its {@code exp} claim but no later than {@code maxTtl} after verification
+ */
+public class TokenVerifier {
+
+    private final JWTVerifier verifier;
+    private final Cache<String, VerifiedToken> verifiedTokens;
+
+    /**
+     * @param algorithm algorithm tokens are signed with
+     * @param maxSize   max number of cached tokens
+     * @param maxTtl    max time token is cached for
+     */
+    public TokenVerifier(Algorithm algorithm, long maxSize, Duration maxTtl) {
+        this.verifier = JWT.require(algorithm).build();
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String token, VerifiedToken verifiedToken, long currentTime) {
+                        long ttl = maxTtl.toNanos();
+                        if (verifiedToken.expiresAt != null) {
+                            long untilExpiration = Duration.ofMillis(
+                                    verifiedToken.expiresAt.getTime() - System.currentTimeMillis()).toNanos();
+                            ttl = Math.max(0, Math.min(ttl, untilExpiration));
+                        }
+                        return ttl;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, VerifiedToken verifiedToken,
+                                                  long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, VerifiedToken verifiedToken,
+                                                long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Verify token and get its subject
+     *
+     * @param token jwt token
+     * @return token subject
+     * @throws JWTVerificationException if token is not valid
+     */
+    public String verify(String token) {
+        return verifiedTokens.get(token, this::doVerify).subject;
+    }
+
+    private VerifiedToken doVerify(String token) {
+        DecodedJWT jwt = verifier.verify(token);
+        return new VerifiedToken(jwt.getSubject(), jwt.getExpiresAt());
+    }
+
+    private static class VerifiedToken {
+        private final String subject;
+        private final Date expiresAt;
+
+        private VerifiedToken(String subject, Date expiresAt) {
+            this.subject = subject;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
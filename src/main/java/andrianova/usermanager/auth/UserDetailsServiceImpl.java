@@ -10,7 +10,7 @@ import org.springframework.stereotype.Service;
 
 /**
  * Implementation of {@link UserDetailsService}.
- * Loads user by email from database
+ * Loads credentials of user by email from database with a single read
  */
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
@@ -19,9 +19,12 @@ public class UserDetailsServiceImpl implements UserDetailsService {
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userDao.findByEmail(username)
-                .flatMap(userDao::findById)
+        User user = userDao.findCredentialsByEmail(username)
                 .orElseThrow(() -> new UsernameNotFoundException(username));
-        return new UserDetailsImpl(user);
+        return new UserDetailsImpl(User.builder()
+                .withEmail(user.getEmail())
+                .withPassword(user.getPassword())
+                .withRole(user.getRole())
+                .build());
     }
 }
@@ -0,0 +1,33 @@
+package andrianova.usermanager.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+
+import java.util.function.Function;
+
+/**
+ * {@link PreparsedDocumentProvider} keeping parsed and validated documents
+ * in a bounded cache keyed by query text
+ */
+public class CachingPreparsedDocumentProvider implements PreparsedDocumentProvider {
+
+    private final Cache<String, PreparsedDocumentEntry> documents;
+
+    /**
+     * @param maxSize max number of cached documents
+     */
+    public CachingPreparsedDocumentProvider(long maxSize) {
+        this.documents = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    @Override
+    public PreparsedDocumentEntry getDocument(ExecutionInput executionInput,
+                                              Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        return documents.get(executionInput.getQuery(), query -> parseAndValidateFunction.apply(executionInput));
+    }
+}
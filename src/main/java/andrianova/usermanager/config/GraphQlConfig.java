@@ -2,17 +2,31 @@ package andrianova.usermanager.config;
 
 import andrianova.usermanager.service.UserService;
 import graphql.GraphQL;
+import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.execution.instrumentation.dataloader.DataLoaderDispatcherInstrumentation;
 import graphql.schema.GraphQLSchema;
 import io.leangen.graphql.GraphQLSchemaGenerator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
+
 /**
- * GraphQl configuration
+ * GraphQl configuration.
+ * Data loaders registered in execution input are dispatched by {@link DataLoaderDispatcherInstrumentation},
+ * execution phases are timed by {@link GraphQlMetricsInstrumentation}
  */
 @Configuration
 public class GraphQlConfig {
 
+    /**
+     * Max number of parsed and validated documents kept in memory
+     */
+    @Value("${graphql.document-cache.max-size:1000}")
+    private long documentCacheMaxSize;
+
     @Bean
     public GraphQLSchema graphQLSchema(UserService userService) {
         return new GraphQLSchemaGenerator()
@@ -22,8 +36,12 @@ public class GraphQlConfig {
     }
 
     @Bean
-    public GraphQL graphQL(GraphQLSchema graphQLSchema) {
+    public GraphQL graphQL(GraphQLSchema graphQLSchema, MeterRegistry meterRegistry) {
         return new GraphQL.Builder(graphQLSchema)
+                .preparsedDocumentProvider(new CachingPreparsedDocumentProvider(documentCacheMaxSize))
+                .instrumentation(new ChainedInstrumentation(List.of(
+                        new DataLoaderDispatcherInstrumentation(),
+                        new GraphQlMetricsInstrumentation(meterRegistry))))
                 .build();
     }
 
@@ -0,0 +1,74 @@
+package andrianova.usermanager.config;
+
+import andrianova.usermanager.domain.OperationTimer;
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.language.Document;
+import graphql.validation.ValidationError;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Times parsing, validation and execution of GraphQL operations as
+ * {@code graphql.parse}, {@code graphql.validate} and {@code graphql.execute} metrics
+ * tagged with operation name. Documents served from the document cache are not parsed and validated again
+ */
+public class GraphQlMetricsInstrumentation extends SimpleInstrumentation {
+
+    private static final String UNNAMED = "unnamed";
+
+    private final OperationTimer parseTimer;
+    private final OperationTimer validateTimer;
+    private final OperationTimer executeTimer;
+
+    public GraphQlMetricsInstrumentation(MeterRegistry meterRegistry) {
+        parseTimer = new OperationTimer(meterRegistry, "graphql.parse", "GraphQL document parsing");
+        validateTimer = new OperationTimer(meterRegistry, "graphql.validate", "GraphQL document validation");
+        executeTimer = new OperationTimer(meterRegistry, "graphql.execute", "GraphQL operation execution");
+    }
+
+    @Override
+    public InstrumentationContext<Document> beginParse(InstrumentationExecutionParameters parameters) {
+        return timed(parseTimer, nameOf(parameters.getOperation()), document -> OperationTimer.OK);
+    }
+
+    @Override
+    public InstrumentationContext<List<ValidationError>> beginValidation(
+            InstrumentationValidationParameters parameters) {
+        return timed(validateTimer, nameOf(parameters.getOperation()),
+                errors -> errors == null || errors.isEmpty() ? OperationTimer.OK : "invalid");
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+            InstrumentationExecuteOperationParameters parameters) {
+        return timed(executeTimer, nameOf(parameters.getExecutionContext().getOperationDefinition().getName()),
+                result -> result == null || result.getErrors().isEmpty() ? OperationTimer.OK : OperationTimer.ERROR);
+    }
+
+    private static <T> InstrumentationContext<T> timed(OperationTimer timer, String operation,
+                                                       Function<T, String> outcome) {
+        long start = System.nanoTime();
+        return new InstrumentationContext<>() {
+            @Override
+            public void onDispatched(CompletableFuture<T> result) {
+            }
+
+            @Override
+            public void onCompleted(T result, Throwable error) {
+                timer.record(operation, error == null ? outcome.apply(result) : OperationTimer.ERROR, start);
+            }
+        };
+    }
+
+    private static String nameOf(String operation) {
+        return operation == null ? UNNAMED : operation;
+    }
+}
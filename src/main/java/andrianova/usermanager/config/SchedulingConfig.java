@@ -0,0 +1,12 @@
+package andrianova.usermanager.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables background tasks, such as {@link andrianova.usermanager.domain.UserReconciler}
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
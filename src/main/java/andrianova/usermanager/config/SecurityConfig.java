@@ -2,29 +2,28 @@ package andrianova.usermanager.config;
 
 import andrianova.usermanager.auth.AuthService;
 import andrianova.usermanager.auth.JwtAuthFilter;
-import andrianova.usermanager.auth.UserDetailsServiceImpl;
-import andrianova.usermanager.domain.Password;
 import andrianova.usermanager.domain.Role;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
 
-import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
 
 /**
- * Spring security configuration
+ * Spring security configuration.
+ * Requests are authenticated with jwt tokens, passwords are checked only on login by {@link AuthService}.
+ * Actuator endpoints other than health require admin authority on the application port.
+ * If actuator is moved to its own {@code management.server.port}, requests on that port are permitted,
+ * it is expected to be reachable only from the monitoring network
  */
 @Configuration
 @EnableWebSecurity
@@ -33,11 +32,22 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
     @Autowired
     private AuthService authService;
 
+    @Value("${server.port:8080}")
+    private int serverPort;
+    /**
+     * Port of actuator endpoints, not set if they are served on the application port
+     */
+    @Value("${management.server.port:-1}")
+    private int managementPort;
+
     @Override
     protected void configure(HttpSecurity http) throws Exception {
         http.cors().and().csrf().disable()
                 .authorizeRequests()
                 .antMatchers("/", "/login").permitAll()
+                .requestMatchers(this::isManagementPort).permitAll()
+                .antMatchers("/actuator/health").permitAll()
+                .antMatchers("/actuator/**").hasAuthority(Role.ADMIN.getName())
                 .antMatchers("/user/**").hasAuthority(Role.ADMIN.getName())
                 .anyRequest().authenticated()
                 .and()
@@ -49,6 +59,10 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
     }
 
+    private boolean isManagementPort(HttpServletRequest request) {
+        return managementPort > 0 && managementPort != serverPort && request.getLocalPort() == managementPort;
+    }
+
     @Bean
     public CorsFilter corsFilter() {
         UrlBasedCorsConfigurationSource source =
@@ -62,32 +76,4 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
         return new CorsFilter(source);
     }
 
-    @Override
-    public void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(userDetailsService())
-                .passwordEncoder(new PasswordEncoder() {
-                    @Override
-                    public String encode(CharSequence rawPassword) {
-                        return Password.of(rawPassword.toString().getBytes(StandardCharsets.UTF_8)).getHash();
-                    }
-
-                    @Override
-                    public boolean matches(CharSequence rawPassword, String encodedPassword) {
-                        return encode(rawPassword).equals(encodedPassword);
-                    }
-                });
-    }
-
-    @Bean
-    @Override
-    public UserDetailsService userDetailsService() {
-        return new UserDetailsServiceImpl();
-    }
-
-    @Bean
-    @Override
-    public AuthenticationManager authenticationManagerBean() throws Exception {
-        return super.authenticationManagerBean();
-    }
-
 }
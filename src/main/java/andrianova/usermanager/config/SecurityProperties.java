@@ -15,6 +15,46 @@ public class SecurityProperties {
      */
     @Value("${security.signing-key}")
     private String signingKey;
+    /**
+     * Max number of authenticated principals kept in memory
+     */
+    @Value("${security.principal-cache.max-size}")
+    private long principalCacheMaxSize;
+    /**
+     * Time in seconds a principal is kept in memory after it was loaded
+     */
+    @Value("${security.principal-cache.ttl-seconds}")
+    private long principalCacheTtlSeconds;
+    /**
+     * Max number of verified tokens kept in memory
+     */
+    @Value("${security.token-cache.max-size}")
+    private long tokenCacheMaxSize;
+    /**
+     * Max time in seconds a verified token is kept in memory, tokens are never kept after their expiration
+     */
+    @Value("${security.token-cache.ttl-seconds}")
+    private long tokenCacheTtlSeconds;
+    /**
+     * Number of threads hashing and verifying passwords, number of processors if 0
+     */
+    @Value("${security.password-hashing.threads}")
+    private int passwordHashingThreads;
+    /**
+     * Max number of passwords waiting to be hashed or verified, further requests are rejected
+     */
+    @Value("${security.password-hashing.queue-size}")
+    private int passwordHashingQueueSize;
+    /**
+     * Time in milliseconds hashing a password should take, used to calibrate strength on startup
+     */
+    @Value("${security.password-hashing.target-millis}")
+    private long passwordHashingTargetMillis;
+    /**
+     * BCrypt strength of new hashes, calibrated to {@code target-millis} on startup if 0
+     */
+    @Value("${security.password-hashing.strength}")
+    private int passwordHashingStrength;
 
     public String getSigningKey() {
         return signingKey;
@@ -23,4 +63,68 @@ public class SecurityProperties {
     public void setSigningKey(String signingKey) {
         this.signingKey = signingKey;
     }
+
+    public long getPrincipalCacheMaxSize() {
+        return principalCacheMaxSize;
+    }
+
+    public void setPrincipalCacheMaxSize(long principalCacheMaxSize) {
+        this.principalCacheMaxSize = principalCacheMaxSize;
+    }
+
+    public long getPrincipalCacheTtlSeconds() {
+        return principalCacheTtlSeconds;
+    }
+
+    public void setPrincipalCacheTtlSeconds(long principalCacheTtlSeconds) {
+        this.principalCacheTtlSeconds = principalCacheTtlSeconds;
+    }
+
+    public long getTokenCacheMaxSize() {
+        return tokenCacheMaxSize;
+    }
+
+    public void setTokenCacheMaxSize(long tokenCacheMaxSize) {
+        this.tokenCacheMaxSize = tokenCacheMaxSize;
+    }
+
+    public long getTokenCacheTtlSeconds() {
+        return tokenCacheTtlSeconds;
+    }
+
+    public void setTokenCacheTtlSeconds(long tokenCacheTtlSeconds) {
+        this.tokenCacheTtlSeconds = tokenCacheTtlSeconds;
+    }
+
+    public int getPasswordHashingThreads() {
+        return passwordHashingThreads;
+    }
+
+    public void setPasswordHashingThreads(int passwordHashingThreads) {
+        this.passwordHashingThreads = passwordHashingThreads;
+    }
+
+    public int getPasswordHashingQueueSize() {
+        return passwordHashingQueueSize;
+    }
+
+    public void setPasswordHashingQueueSize(int passwordHashingQueueSize) {
+        this.passwordHashingQueueSize = passwordHashingQueueSize;
+    }
+
+    public long getPasswordHashingTargetMillis() {
+        return passwordHashingTargetMillis;
+    }
+
+    public void setPasswordHashingTargetMillis(long passwordHashingTargetMillis) {
+        this.passwordHashingTargetMillis = passwordHashingTargetMillis;
+    }
+
+    public int getPasswordHashingStrength() {
+        return passwordHashingStrength;
+    }
+
+    public void setPasswordHashingStrength(int passwordHashingStrength) {
+        this.passwordHashingStrength = passwordHashingStrength;
+    }
 }
@@ -0,0 +1,36 @@
+package andrianova.usermanager.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs request handling on virtual threads, enabled by {@code user-manager.virtual-threads.enabled=true}.
+ * Tomcat worker pool is replaced with an executor starting virtual thread per request,
+ * so requests blocked on database or authentication do not occupy platform threads.
+ * The same executor runs asynchronous MVC tasks, like streaming responses
+ */
+@Configuration
+@ConditionalOnProperty(name = "user-manager.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig implements WebMvcConfigurer {
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("request-", 0).factory());
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new ConcurrentTaskExecutor(executor));
+    }
+}
@@ -0,0 +1,46 @@
+package andrianova.usermanager.domain;
+
+/**
+ * Avatar stored in {@link AvatarDao}
+ */
+public class Avatar {
+    /**
+     * SHA-256 hash of avatar content
+     */
+    private final String id;
+    /**
+     * Content size in bytes
+     */
+    private final int size;
+    /**
+     * Number of chunks content is split into
+     */
+    private final int chunkCount;
+    /**
+     * Content media type
+     */
+    private final String contentType;
+
+    public Avatar(String id, int size, int chunkCount, String contentType) {
+        this.id = id;
+        this.size = size;
+        this.chunkCount = chunkCount;
+        this.contentType = contentType;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,88 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.shaded.guava.common.hash.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+import static andrianova.usermanager.domain.Futures.await;
+
+/**
+ * Content-addressed avatar storage.
+ * Avatar content is stored under its SHA-256 hash, so identical images are stored once.
+ * <p>
+ * {@link CassandraAvatarDao} is used by default, {@link InMemoryAvatarDao} with {@code in-memory} profile.
+ * Both are qualified with {@link #STORAGE} and are wrapped by {@link CachingAvatarDao} unless the cache is disabled
+ */
+public interface AvatarDao {
+
+    /**
+     * Qualifier of implementations which store avatars, as opposed to decorators
+     */
+    String STORAGE = "storage";
+
+    /**
+     * Stores avatar if the same content is not stored yet
+     *
+     * @param content avatar content
+     * @return avatar id
+     */
+    default String store(byte[] content) {
+        return await(storeAsync(content));
+    }
+
+    /**
+     * Stores avatar without blocking
+     *
+     * @see #store(byte[])
+     */
+    CompletionStage<String> storeAsync(byte[] content);
+
+    /**
+     * Find avatar by id
+     *
+     * @param id avatar id
+     * @return avatar, if present
+     */
+    default Optional<Avatar> find(String id) {
+        return await(findAsync(id));
+    }
+
+    /**
+     * Find avatar by id without blocking
+     *
+     * @see #find(String)
+     */
+    CompletionStage<Optional<Avatar>> findAsync(String id);
+
+    /**
+     * Writes avatar content to {@code out}
+     *
+     * @param avatar avatar
+     * @param out    output stream
+     */
+    void writeTo(Avatar avatar, OutputStream out) throws IOException;
+
+    /**
+     * @return id of avatar with {@code content}
+     */
+    static String idOf(byte[] content) {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    /**
+     * @return media type guessed from the first bytes of {@code content}
+     */
+    static String contentTypeOf(byte[] content) {
+        try {
+            return Optional.ofNullable(URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(content)))
+                    .orElse("application/octet-stream");
+        } catch (IOException e) {
+            return "application/octet-stream";
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-off job moving avatars stored inline in the legacy {@code user.avatar} blob column of older versions
+ * to {@link AvatarDao}, runs once on startup when {@code user-manager.avatar-migration.enabled} is set.
+ * Every blob is stored in {@code avatar}/{@code avatar_chunk} tables, then {@code avatar_id} is set and the blob
+ * is cleared with a conditional write comparing the blob, so users deleted or changed meanwhile are not touched.
+ * Users which got a new avatar since the upgrade keep it, only their legacy blob is cleared.
+ * The job can be run again after a failure, migrated users have no blob left
+ */
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "user-manager.avatar-migration.enabled", havingValue = "true")
+public class AvatarMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(AvatarMigration.class);
+
+    /**
+     * Number of users fetched per round trip, small as rows hold whole avatars
+     */
+    private static final int PAGE_SIZE = 50;
+
+    @Autowired
+    private CqlSession cqlSession;
+    @Autowired
+    @Qualifier(AvatarDao.STORAGE)
+    private AvatarDao avatarDao;
+    @Autowired
+    private CassandraUserDao userDao;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "avatar-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void start() {
+        executor.execute(() -> {
+            try {
+                migrate();
+            } catch (RuntimeException e) {
+                log.error("Failed to migrate avatars, restart with user-manager.avatar-migration.enabled to resume", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Moves all legacy avatar blobs.
+     * Statements are prepared on every run, as the legacy column doesn't exist in databases created by this version
+     *
+     * @return number of migrated users
+     */
+    public int migrate() {
+        long start = System.nanoTime();
+        PreparedStatement selectAvatars = cqlSession.prepare("select id, email, avatar from user");
+        PreparedStatement adoptAvatar = cqlSession.prepare("update user set avatar_id=?, avatar=null " +
+                "where id=? if avatar=? and avatar_id=null");
+        PreparedStatement clearAvatar = cqlSession.prepare("update user set avatar=null where id=? if avatar=?");
+        int migrated = 0;
+        for (Row row : cqlSession.execute(selectAvatars.bind().setPageSize(PAGE_SIZE))) {
+            ByteBuffer avatar = row.getByteBuffer("avatar");
+            if (avatar == null) {
+                continue;
+            }
+            UUID userId = row.getUuid("id");
+            byte[] content = new byte[avatar.remaining()];
+            avatar.duplicate().get(content);
+            String avatarId = avatarDao.store(content);
+            ResultSet adopted = cqlSession.execute(adoptAvatar.bind(avatarId, userId, avatar));
+            if (adopted.wasApplied()) {
+                migrated++;
+            } else if (cqlSession.execute(clearAvatar.bind(userId, avatar)).wasApplied()) {
+                log.debug("Cleared legacy avatar of {}, which has a newer avatar", userId);
+            } else {
+                continue;
+            }
+            userDao.notifyChanged(userId, row.getString("email"));
+        }
+        log.info("Migrated avatars of {} users in {} ms",
+                migrated, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return migrated;
+    }
+}
@@ -0,0 +1,102 @@
+package andrianova.usermanager.domain;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link AvatarDao} caching avatars read from the storage.
+ * Avatars are content-addressed and never change, so entries are only evicted, never invalidated.
+ * Avatar content is cached separately from user rows, bounded by its size in bytes;
+ * avatars larger than {@code max-avatar-bytes} are streamed from the storage.
+ * <p>
+ * Metrics are published as {@code cache.*} tagged with {@code cache=avatars} and {@code cache=avatar-contents}
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(name = "user-manager.avatar-cache.enabled", havingValue = "true", matchIfMissing = true)
+public class CachingAvatarDao implements AvatarDao {
+
+    /**
+     * Max number of cached avatar descriptions
+     */
+    private static final int MAX_AVATARS = 10_000;
+
+    @Autowired
+    @Qualifier(AvatarDao.STORAGE)
+    private AvatarDao avatarDao;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Max total size of cached avatar content in bytes
+     */
+    @Value("${user-manager.avatar-cache.max-bytes:33554432}")
+    private long maxBytes;
+    /**
+     * Max size of single avatar to cache its content
+     */
+    @Value("${user-manager.avatar-cache.max-avatar-bytes:262144}")
+    private int maxAvatarBytes;
+
+    private AsyncCache<String, Avatar> avatars;
+    private Cache<String, byte[]> contents;
+
+    @PostConstruct
+    public void init() {
+        avatars = Caffeine.newBuilder()
+                .maximumSize(MAX_AVATARS)
+                .recordStats()
+                .buildAsync();
+        contents = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String id, byte[] content) -> content.length)
+                .recordStats()
+                .build();
+        UserCache.monitor(meterRegistry, avatars.synchronous(), "avatars");
+        UserCache.monitor(meterRegistry, contents, "avatar-contents");
+    }
+
+    @Override
+    public CompletionStage<String> storeAsync(byte[] content) {
+        return avatarDao.storeAsync(content);
+    }
+
+    @Override
+    public CompletionStage<Optional<Avatar>> findAsync(String id) {
+        return avatars.get(id, (key, executor) -> avatarDao.findAsync(key)
+                        .thenApply(avatar -> avatar.orElse(null))
+                        .toCompletableFuture())
+                .thenApply(Optional::ofNullable);
+    }
+
+    @Override
+    public void writeTo(Avatar avatar, OutputStream out) throws IOException {
+        if (avatar.getSize() > maxAvatarBytes) {
+            avatarDao.writeTo(avatar, out);
+            return;
+        }
+        byte[] content = contents.getIfPresent(avatar.getId());
+        if (content == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(avatar.getSize());
+            avatarDao.writeTo(avatar, buffer);
+            content = buffer.toByteArray();
+            contents.put(avatar.getId(), content);
+        }
+        out.write(content);
+    }
+}
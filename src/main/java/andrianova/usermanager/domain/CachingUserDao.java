@@ -0,0 +1,111 @@
+package andrianova.usermanager.domain;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * {@link UserDao} reading users by id and email through {@link UserCache}.
+ * Users are cached with all fields and projected to requested fields, so any projection is served by one entry.
+ * Writes go to the storage, which invalidates the cache by notifying {@link UserChangeListener}s.
+ * Listings are not cached
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(name = "user-manager.user-cache.enabled", havingValue = "true", matchIfMissing = true)
+public class CachingUserDao implements UserDao {
+
+    @Autowired
+    @Qualifier(UserDao.STORAGE)
+    private UserDao userDao;
+    @Autowired
+    private UserCache userCache;
+
+    @Override
+    public CompletionStage<UserPage> getUsersAsync(int pageSize, String pageToken, Set<UserField> fields) {
+        return userDao.getUsersAsync(pageSize, pageToken, fields);
+    }
+
+    @Override
+    public CompletionStage<UserPage> getUsersByNameAsync(int pageSize, String cursor, PageDirection direction,
+                                                         Set<UserField> fields) {
+        return userDao.getUsersByNameAsync(pageSize, cursor, direction, fields);
+    }
+
+    @Override
+    public CompletionStage<UserPage> getUsersByRoleAsync(Role role, int pageSize, String pageToken,
+                                                         Set<UserField> fields) {
+        return userDao.getUsersByRoleAsync(role, pageSize, pageToken, fields);
+    }
+
+    @Override
+    public void forEachUser(int pageSize, Consumer<User> consumer) {
+        userDao.forEachUser(pageSize, consumer);
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(UUID userId, Set<UserField> fields) {
+        return userCache.getUser(userId, id -> userDao.findByIdAsync(id, UserField.ALL))
+                .thenApply(user -> Optional.ofNullable(user).map(found -> found.project(fields)));
+    }
+
+    @Override
+    public CompletionStage<Map<UUID, User>> findByIdsAsync(Collection<UUID> userIds, Set<UserField> fields) {
+        return userCache.getUsers(userIds, ids -> userDao.findByIdsAsync(ids, UserField.ALL))
+                .thenApply(users -> {
+                    Map<UUID, User> projected = new HashMap<>();
+                    users.forEach((id, user) -> projected.put(id, user.project(fields)));
+                    return projected;
+                });
+    }
+
+    @Override
+    public CompletionStage<Optional<UUID>> findByEmailAsync(String email) {
+        return userCache.getUserId(email, userDao::findByEmailAsync)
+                .thenApply(Optional::ofNullable);
+    }
+
+    /**
+     * Read from the storage, a single read of credentials costs less than two cache lookups which may both miss
+     */
+    @Override
+    public CompletionStage<Optional<User>> findCredentialsByEmailAsync(String email) {
+        return userDao.findCredentialsByEmailAsync(email);
+    }
+
+    @Override
+    public CompletionStage<UserWriteResult> createAsync(User user) {
+        return userDao.createAsync(user);
+    }
+
+    @Override
+    public CompletionStage<UserWriteResult> updateAsync(UUID userId, User user) {
+        return userDao.updateAsync(userId, user);
+    }
+
+    @Override
+    public CompletionStage<UserWriteResult> patchAsync(UUID userId, User patch) {
+        return userDao.patchAsync(userId, patch);
+    }
+
+    @Override
+    public CompletionStage<Boolean> replacePasswordAsync(User user, Password password) {
+        return userDao.replacePasswordAsync(user, password);
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(UUID userId) {
+        return userDao.deleteAsync(userId);
+    }
+}
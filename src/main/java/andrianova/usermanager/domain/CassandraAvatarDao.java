@@ -0,0 +1,116 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link AvatarDao} storing avatars in Cassandra.
+ * Avatar content is split into fixed-size chunks
+ */
+@Repository
+@Qualifier(AvatarDao.STORAGE)
+@Profile("!in-memory")
+public class CassandraAvatarDao implements AvatarDao {
+
+    /**
+     * Max size of a single chunk in bytes
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    @Autowired
+    private CqlSession cqlSession;
+
+    private PreparedStatement selectAvatar;
+    private PreparedStatement insertAvatar;
+    private PreparedStatement selectChunks;
+    private PreparedStatement insertChunk;
+
+    @PostConstruct
+    public void prepare() {
+        selectAvatar = cqlSession.prepare("select id, size, chunk_count, content_type from avatar where id=?");
+        insertAvatar = cqlSession.prepare("insert into avatar (id, size, chunk_count, content_type) " +
+                "values (?, ?, ?, ?)");
+        selectChunks = cqlSession.prepare("select data from avatar_chunk where avatar_id=?");
+        insertChunk = cqlSession.prepare("insert into avatar_chunk (avatar_id, chunk, data) values (?, ?, ?)");
+    }
+
+    /**
+     * Chunks are written concurrently, avatar row is written after all chunks,
+     * so only complete avatars can be found
+     */
+    @Override
+    public CompletionStage<String> storeAsync(byte[] content) {
+        String id = AvatarDao.idOf(content);
+        String contentType = AvatarDao.contentTypeOf(content);
+        return findAsync(id).thenCompose(existing -> {
+            if (existing.isPresent()) {
+                return CompletableFuture.completedFuture(id);
+            }
+            int chunkCount = (content.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            CompletableFuture<?>[] chunks = new CompletableFuture<?>[chunkCount];
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int offset = chunk * CHUNK_SIZE;
+                chunks[chunk] = cqlSession.executeAsync(insertChunk.bind(id, chunk,
+                                ByteBuffer.wrap(content, offset, Math.min(CHUNK_SIZE, content.length - offset))))
+                        .toCompletableFuture();
+            }
+            return CompletableFuture.allOf(chunks)
+                    .thenCompose(ignored -> cqlSession.executeAsync(
+                            insertAvatar.bind(id, content.length, chunkCount, contentType)))
+                    .thenApply(resultSet -> id);
+        });
+    }
+
+    @Override
+    public CompletionStage<Optional<Avatar>> findAsync(String id) {
+        return cqlSession.executeAsync(selectAvatar.bind(id))
+                .thenApply(resultSet -> Optional.ofNullable(resultSet.one())
+                        .map(row -> new Avatar(row.getString("id"), row.getInt("size"),
+                                row.getInt("chunk_count"), row.getString("content_type"))));
+    }
+
+    /**
+     * Content is written chunk by chunk, so that only one chunk is held in memory at a time
+     */
+    @Override
+    public void writeTo(Avatar avatar, OutputStream out) throws IOException {
+        try {
+            cqlSession.execute(selectChunks.bind(avatar.getId()).setPageSize(1))
+                    .forEach(row -> write(row, out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void write(Row row, OutputStream out) {
+        ByteBuffer data = row.getByteBuffer("data");
+        if (data == null) {
+            return;
+        }
+        try {
+            if (data.hasArray()) {
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
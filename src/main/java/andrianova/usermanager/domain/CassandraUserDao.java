@@ -0,0 +1,864 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.uuid.Uuids;
+import com.datastax.oss.protocol.internal.util.Bytes;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static andrianova.usermanager.domain.Futures.await;
+
+/**
+ * {@link UserDao} storing users in Cassandra, operations are built on the driver's async execution.
+ * Email uniqueness is enforced by lightweight transactions on {@code user_email} table.
+ * Writes which don't depend on each other are issued as configured by {@link WriteMode},
+ * failed repair writes are recorded to {@link UserWriteJournal}.
+ * Users are listed by name from {@code user_by_name} table and by role from {@code user_by_role} table,
+ * which are written after {@code user} rows, rows which failed to be written or removed
+ * are fixed by {@link UserReconciler}.
+ * Operations and their database steps are timed as {@code user.dao} metric
+ */
+@Repository
+@Qualifier(UserDao.STORAGE)
+@Profile("!in-memory")
+public class CassandraUserDao implements UserDao {
+
+    /**
+     * Maps row to user, columns missing in the row are left null
+     */
+    private static final Function<Row, User> ROW_MAPPER = row -> {
+        ColumnDefinitions columns = row.getColumnDefinitions();
+        User.Builder builder = User.builder()
+                .withId(row.getUuid("id"));
+        if (columns.contains("email")) {
+            builder.withEmail(row.getString("email"));
+        }
+        if (columns.contains("password")) {
+            builder.withPassword(Optional.ofNullable(row.getString("password"))
+                    .map(Password::ofHash).orElse(null));
+        }
+        if (columns.contains("first_name")) {
+            builder.withFirstName(row.getString("first_name"));
+        }
+        if (columns.contains("last_name")) {
+            builder.withLastName(row.getString("last_name"));
+        }
+        if (columns.contains("avatar_id")) {
+            builder.withAvatarId(row.getString("avatar_id"));
+        }
+        if (columns.contains("role")) {
+            builder.withRole(Role.findByCode(row.getInt("role")).orElse(null));
+        }
+        return builder.build();
+    };
+
+    private static final Logger log = LoggerFactory.getLogger(CassandraUserDao.class);
+
+    /**
+     * Fields read before user is deleted: email to release, names and role to delete index rows
+     */
+    private static final Set<UserField> DELETED_FIELDS = UserField.SUMMARY;
+    /**
+     * Fields read before user is patched: email, names and role the patch is written over,
+     * password to store with the email reservation
+     */
+    private static final Set<UserField> PATCHED_FIELDS = Collections.unmodifiableSet(EnumSet.of(
+            UserField.ID, UserField.EMAIL, UserField.PASSWORD, UserField.FIRST_NAME, UserField.LAST_NAME,
+            UserField.ROLE));
+
+    @Autowired
+    private CqlSession cqlSession;
+    @Autowired
+    private UserStatements statements;
+    @Autowired
+    private UserWriteJournal journal;
+    @Autowired(required = false)
+    private List<UserChangeListener> changeListeners = Collections.emptyList();
+    @Autowired
+    private MeterRegistry meterRegistry;
+    /**
+     * How independent writes are issued
+     */
+    @Value("${user-manager.write-mode:sequential}")
+    private WriteMode writeMode;
+
+    private OperationTimer timer;
+
+    @PostConstruct
+    public void init() {
+        timer = new OperationTimer(meterRegistry, "user.dao", "Cassandra user operations");
+    }
+
+    @Override
+    public CompletionStage<UserPage> getUsersAsync(int pageSize, String pageToken, Set<UserField> fields) {
+        return timer.timeAsync("getUsers", () -> {
+            ByteBuffer pagingState = pageToken == null ? null
+                    : ByteBuffer.wrap(Base64.getUrlDecoder().decode(pageToken));
+            return statements.selectAll(fields)
+                    .thenCompose(statement -> cqlSession.executeAsync(statement.bind()
+                            .setPageSize(pageSize)
+                            .setPagingState(pagingState)))
+                    .thenApply(resultSet -> {
+                        List<User> users = new ArrayList<>(resultSet.remaining());
+                        for (Row row : resultSet.currentPage()) {
+                            users.add(ROW_MAPPER.apply(row));
+                        }
+                        String nextPageToken = Optional.ofNullable(resultSet.getExecutionInfo().getPagingState())
+                                .map(state -> Base64.getUrlEncoder().withoutPadding()
+                                        .encodeToString(Bytes.getArray(state)))
+                                .orElse(null);
+                        return new UserPage(users, nextPageToken);
+                    });
+        });
+    }
+
+    /**
+     * Users are read from {@code user_by_name} with one range query of the bucket of the cursor,
+     * limited to the page; only if the bucket ends before the page is filled, the next buckets are read the same way.
+     * Rows store the {@link UserNameKey#LISTED} fields, users are read by id only if other fields are requested;
+     * then stale keys are left out and rows following them are read until the page is filled
+     */
+    @Override
+    public CompletionStage<UserPage> getUsersByNameAsync(int pageSize, String cursor, PageDirection direction,
+                                                         Set<UserField> fields) {
+        return timer.timeAsync("getUsersByName", () -> {
+            UserNameKey from = cursor == null ? null : UserNameKey.fromCursor(cursor);
+            int bucket = from != null ? from.bucket()
+                    : direction == PageDirection.FORWARD ? 0 : UserNameKey.BUCKETS - 1;
+            List<UserNameKey> keys = new ArrayList<>(pageSize + 1);
+            Map<UUID, User> users = new HashMap<>();
+            return fillPage(bucket, from, direction, pageSize, fields, keys, users)
+                    .thenApply(ignored ->
+                            UserNameKey.toPage(keys, pageSize, cursor != null, direction, users, fields));
+        });
+    }
+
+    /**
+     * Reads rows following {@code from} until one more than {@code pageSize} live users are read
+     * or all buckets are read
+     *
+     * @param keys  keys of live users are added to the list
+     * @param users live users are added to the map
+     */
+    private CompletionStage<Void> fillPage(int bucket, UserNameKey from, PageDirection direction, int pageSize,
+                                           Set<UserField> fields, List<UserNameKey> keys, Map<UUID, User> users) {
+        int limit = pageSize + 1 - keys.size();
+        List<UserNameKey> read = new ArrayList<>(limit);
+        Map<UUID, User> listed = new HashMap<>();
+        return readNames(bucket, from, direction, limit, read, listed)
+                .thenCompose(ignored -> UserNameKey.LISTED.containsAll(fields)
+                        ? CompletableFuture.completedFuture(listed)
+                        : findByIdsAsync(read.stream().map(UserNameKey::getId).collect(Collectors.toList()),
+                        UserNameKey.fields(fields)))
+                .thenCompose(found -> {
+                    for (UserNameKey key : read) {
+                        if (key.matches(found)) {
+                            keys.add(key);
+                            users.put(key.getId(), found.get(key.getId()));
+                        }
+                    }
+                    if (keys.size() > pageSize || read.size() < limit) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    UserNameKey last = read.get(read.size() - 1);
+                    return fillPage(last.bucket(), last, direction, pageSize, fields, keys, users);
+                });
+    }
+
+    /**
+     * Reads rows of {@code bucket} following {@code from} in {@code direction}, continuing with the next buckets
+     * until {@code limit} rows are read or all buckets are read
+     *
+     * @param from   key to start after, null to read the bucket from its start
+     * @param keys   keys of read rows are added to the list
+     * @param listed users of read rows are added to the map
+     */
+    private CompletionStage<Void> readNames(int bucket, UserNameKey from, PageDirection direction, int limit,
+                                            List<UserNameKey> keys, Map<UUID, User> listed) {
+        int remaining = limit - keys.size();
+        BoundStatement statement = from == null
+                ? statements.selectNamesPage(direction).bind(bucket, remaining)
+                : statements.selectNamesPageFrom(direction).bind(bucket,
+                from.getLastName(), from.getFirstName(), from.getId(), remaining);
+        return timer.timeAsync("readNames", () -> cqlSession.executeAsync(statement))
+                .thenCompose(resultSet -> {
+                    for (Row row : resultSet.currentPage()) {
+                        keys.add(new UserNameKey(row.getString("sort_last_name"), row.getString("sort_first_name"),
+                                row.getUuid("id")));
+                        listed.put(row.getUuid("id"), ROW_MAPPER.apply(row));
+                    }
+                    int next = direction == PageDirection.FORWARD ? bucket + 1 : bucket - 1;
+                    if (keys.size() >= limit || next < 0 || next >= UserNameKey.BUCKETS) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return readNames(next, null, direction, limit, keys, listed);
+                });
+    }
+
+    /**
+     * Keys are read from {@code user_by_role} buckets of the role in order, starting with the bucket of the cursor,
+     * until the page is filled. Every bucket is read with one query limited to the rest of the page,
+     * then users are read by id. Stale keys, whose users don't exist or have another role, are left out of the page
+     * and left to {@link UserReconciler} to delete, as a key may be stale only until a write in flight completes
+     */
+    @Override
+    public CompletionStage<UserPage> getUsersByRoleAsync(Role role, int pageSize, String pageToken,
+                                                         Set<UserField> fields) {
+        return timer.timeAsync("getUsersByRole", () -> {
+            UserRoleKey from = pageToken == null ? null : UserRoleKey.fromCursor(role, pageToken);
+            List<UserRoleKey> keys = new ArrayList<>(pageSize + 1);
+            return readRoles(role, from == null ? 0 : from.getBucket(), from, pageSize + 1, keys)
+                    .thenCompose(ignored -> findByIdsAsync(
+                            keys.stream().limit(pageSize).map(UserRoleKey::getId).collect(Collectors.toList()),
+                            UserRoleKey.fields(fields)))
+                    .thenApply(users -> UserRoleKey.toPage(keys, pageSize, users, fields));
+        });
+    }
+
+    /**
+     * Reads keys of {@code bucket} of the role following {@code from}, continuing with the next buckets
+     * until {@code limit} keys are read or all buckets are read
+     *
+     * @param from key to start after, null to read the bucket from its start
+     * @param keys read keys are added to the list
+     */
+    private CompletionStage<Void> readRoles(Role role, int bucket, UserRoleKey from, int limit,
+                                            List<UserRoleKey> keys) {
+        BoundStatement statement = from == null
+                ? statements.selectRolesPage().bind(role.getCode(), bucket, limit - keys.size())
+                : statements.selectRolesPageFrom().bind(role.getCode(), bucket, from.getId(), limit - keys.size());
+        return timer.timeAsync("readRoles", () -> cqlSession.executeAsync(statement))
+                .thenCompose(resultSet -> {
+                    for (Row row : resultSet.currentPage()) {
+                        keys.add(new UserRoleKey(role, bucket, row.getUuid("id")));
+                    }
+                    if (keys.size() >= limit || bucket + 1 >= UserRoleKey.BUCKETS) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return readRoles(role, bucket + 1, null, limit, keys);
+                });
+    }
+
+    @Override
+    public void forEachUser(int pageSize, Consumer<User> consumer) {
+        long start = System.nanoTime();
+        BoundStatement statement = await(statements.selectAll(UserField.SUMMARY)).bind().setPageSize(pageSize);
+        for (Row row : cqlSession.execute(statement)) {
+            consumer.accept(ROW_MAPPER.apply(row));
+        }
+        timer.record("forEachUser", OperationTimer.OK, start);
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(UUID userId, Set<UserField> fields) {
+        return timer.timeAsync("findById", () -> statements.selectById(fields)
+                .thenCompose(statement -> cqlSession.executeAsync(statement.bind(userId)))
+                .thenApply(resultSet -> Optional.ofNullable(resultSet.one()).map(ROW_MAPPER)));
+    }
+
+    /**
+     * Every user is read by its own single-partition query, queries are executed concurrently
+     */
+    @Override
+    public CompletionStage<Map<UUID, User>> findByIdsAsync(Collection<UUID> userIds, Set<UserField> fields) {
+        return timer.timeAsync("findByIds", () -> {
+            List<CompletableFuture<Optional<User>>> reads = new ArrayList<>(userIds.size());
+            for (UUID userId : new LinkedHashSet<>(userIds)) {
+                reads.add(findByIdAsync(userId, fields).toCompletableFuture());
+            }
+            return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignored -> {
+                        Map<UUID, User> users = new HashMap<>();
+                        for (CompletableFuture<Optional<User>> read : reads) {
+                            read.join().ifPresent(user -> users.put(user.getId(), user));
+                        }
+                        return users;
+                    });
+        });
+    }
+
+    /**
+     * Stores user in the database.
+     * Email is reserved with conditional insert, so concurrent creates with the same email
+     * can't both succeed. In {@link WriteMode#SEQUENTIAL} mode user row is written after the reservation,
+     * in {@link WriteMode#PARALLEL} mode together with it and deleted if the email is taken.
+     * Reservation and user row are removed if any of the writes fails
+     */
+    @Override
+    public CompletionStage<UserWriteResult> createAsync(User user) {
+        return timer.timeAsync("create", () -> {
+            UUID userId = Uuids.timeBased();
+            UserWriteJournal.Entry[] undo = {
+                    UserWriteJournal.Entry.releaseEmail(user.getEmail(), userId),
+                    UserWriteJournal.Entry.deleteUser(userId)
+            };
+            if (writeMode == WriteMode.PARALLEL) {
+                CompletableFuture<Boolean> reserved = reserveEmail(user.getEmail(), userId, user).toCompletableFuture();
+                CompletableFuture<AsyncResultSet> inserted = insert(userId, user).toCompletableFuture();
+                return repairOnFailure(CompletableFuture.allOf(reserved, inserted), undo)
+                        .thenCompose(ignored -> reserved.join()
+                                ? writeIndexes(userId, null, user).thenApply(written -> UserWriteResult.ok(userId))
+                                : repair(UserWriteJournal.Entry.deleteUser(userId))
+                                .thenApply(deleted -> UserWriteResult.of(WriteStatus.EMAIL_CONFLICT)));
+            }
+            return reserveEmail(user.getEmail(), userId, user).thenCompose(reserved -> {
+                if (!reserved) {
+                    return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.EMAIL_CONFLICT));
+                }
+                return repairOnFailure(insert(userId, user), undo)
+                        .thenCompose(resultSet -> writeIndexes(userId, null, user))
+                        .thenApply(written -> UserWriteResult.ok(userId));
+            });
+        });
+    }
+
+    private CompletionStage<AsyncResultSet> insert(UUID userId, User user) {
+        return timer.timeAsync("insert", () -> cqlSession.executeAsync(statements.insert().bind(
+                userId, user.getEmail(), user.getPassword().getHash(),
+                user.getFirstName(), user.getLastName(),
+                user.getAvatarId(),
+                user.getRole().getCode())));
+    }
+
+    @Override
+    public CompletionStage<Optional<UUID>> findByEmailAsync(String email) {
+        return timer.timeAsync("findByEmail", () -> cqlSession.executeAsync(statements.selectIdByEmail().bind(email))
+                .thenApply(resultSet -> Optional.ofNullable(resultSet.one()).map(row -> row.getUuid("id"))));
+    }
+
+    /**
+     * Reads credentials denormalized to {@code user_email} with a single read.
+     * Reservations written before credentials were stored there are completed from {@code user} row
+     * until {@link UserReconciler} backfills them
+     */
+    @Override
+    public CompletionStage<Optional<User>> findCredentialsByEmailAsync(String email) {
+        return timer.timeAsync("findCredentialsByEmail", () -> cqlSession.executeAsync(
+                        statements.selectCredentialsByEmail().bind(email))
+                .thenCompose(resultSet -> {
+                    Row row = resultSet.one();
+                    if (row == null) {
+                        return CompletableFuture.completedFuture(Optional.<User>empty());
+                    }
+                    User credentials = ROW_MAPPER.apply(row);
+                    if (credentials.getPassword() == null || credentials.getRole() == null) {
+                        return findByIdAsync(credentials.getId(), UserField.CREDENTIALS)
+                                .thenApply(user -> user.filter(found -> email.equals(found.getEmail())));
+                    }
+                    return CompletableFuture.completedFuture(Optional.of(credentials));
+                }));
+    }
+
+    /**
+     * Updates user information in the database without reading it first.
+     * User row is written with a conditional update expecting email, names and role of {@code user}:
+     * if they are not changed, the write is applied in a single round trip. Otherwise it returns the current ones,
+     * and the write is repeated expecting them, so that {@code user_by_name} and {@code user_by_role} rows
+     * are moved from them. If email is changed, new email is reserved with conditional insert
+     * before user row is updated, old email is released after the update is applied
+     */
+    @Override
+    public CompletionStage<UserWriteResult> updateAsync(UUID userId, User user) {
+        return timer.timeAsync("update", () -> update(userId, user, user));
+    }
+
+    /**
+     * Writes {@code user} over the row expected to have email, names and role of {@code expected}
+     */
+    private CompletionStage<UserWriteResult> update(UUID userId, User user, User expected) {
+        Map<String, Object> values = getColumns(user);
+        return updateIfListed(userId, values, expected).thenCompose(current -> {
+            if (current.isEmpty()) {
+                return updateCredentials(user.getEmail(), userId, user)
+                        .thenCompose(ignored -> writeIndexes(userId, expected, user))
+                        .thenApply(ignored -> {
+                            notifyChanged(userId, user.getEmail());
+                            return UserWriteResult.ok(userId);
+                        });
+            }
+            User oldUser = current.get();
+            if (oldUser.getEmail() == null) {
+                return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.NOT_FOUND));
+            }
+            if (oldUser.getEmail().equals(user.getEmail())) {
+                return update(userId, user, oldUser);
+            }
+            return changeEmail(userId, oldUser.getEmail(), user.getEmail(), user,
+                    () -> writeListed(userId, values, oldUser, current -> user));
+        });
+    }
+
+    /**
+     * Writes {@code values} over the user row with email of {@code expected} and moves its index rows,
+     * names and role changed concurrently are read back and the write is repeated over them
+     *
+     * @param written user after the write, given email, names and role it is written over
+     * @return true if written, false if user doesn't exist or its email is changed
+     */
+    private CompletionStage<Boolean> writeListed(UUID userId, Map<String, Object> values, User expected,
+                                                 UnaryOperator<User> written) {
+        return updateIfListed(userId, values, expected).thenCompose(current -> {
+            if (current.isEmpty()) {
+                return writeIndexes(userId, expected, written.apply(expected)).thenApply(ignored -> true);
+            }
+            if (!expected.getEmail().equals(current.get().getEmail())) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return writeListed(userId, values, current.get(), written);
+        });
+    }
+
+    /**
+     * Writes {@code values} if email, names and role of the user row are the ones of {@code expected},
+     * so that rows of {@code user_by_name} and {@code user_by_role} are moved from the values they replace
+     *
+     * @return empty if written, otherwise email, names and role of the user row, email is null if user doesn't exist
+     */
+    private CompletionStage<Optional<User>> updateIfListed(UUID userId, Map<String, Object> values, User expected) {
+        return timer.timeAsync("updateIfListed", () -> {
+            List<Object> boundValues = new ArrayList<>(values.values());
+            boundValues.add(userId);
+            boundValues.add(expected.getEmail());
+            boundValues.add(expected.getFirstName());
+            boundValues.add(expected.getLastName());
+            boundValues.add(expected.getRole() == null ? null : expected.getRole().getCode());
+            return statements.updateIfListed(values.keySet())
+                    .thenCompose(statement -> cqlSession.executeAsync(statement.bind(boundValues.toArray())))
+                    .thenApply(resultSet -> {
+                        if (resultSet.wasApplied()) {
+                            return Optional.empty();
+                        }
+                        Row row = resultSet.one();
+                        ColumnDefinitions columns = row.getColumnDefinitions();
+                        return Optional.of(User.builder()
+                                .withId(userId)
+                                .withEmail(columns.contains("email") ? row.getString("email") : null)
+                                .withFirstName(columns.contains("first_name") ? row.getString("first_name") : null)
+                                .withLastName(columns.contains("last_name") ? row.getString("last_name") : null)
+                                .withRole(columns.contains("role") && !row.isNull("role")
+                                        ? Role.findByCode(row.getInt("role")).orElse(null) : null)
+                                .build());
+                    });
+        });
+    }
+
+    /**
+     * Writes non-null fields of {@code patch}, other fields are not changed.
+     * If only avatar is changed, user is updated with a single conditional write without reading it first.
+     * Otherwise the user is read, and the patch is written conditionally on email, names and role being
+     * the ones read, so that the email reservation, credentials stored with it and rows of {@code user_by_name}
+     * and {@code user_by_role} are moved from them; if they were changed concurrently, the user is read again
+     */
+    @Override
+    public CompletionStage<UserWriteResult> patchAsync(UUID userId, User patch) {
+        return timer.timeAsync("patch", () -> {
+            Map<String, Object> values = getPatchedColumns(patch);
+            if (values.isEmpty()) {
+                return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.NOT_MODIFIED));
+            }
+            if (values.keySet().equals(Set.of("avatar_id"))) {
+                return updateColumns(userId, values).thenApply(applied -> {
+                    if (!applied) {
+                        return UserWriteResult.of(WriteStatus.NOT_FOUND);
+                    }
+                    notifyChanged(userId, null);
+                    return UserWriteResult.ok(userId);
+                });
+            }
+            return patchCurrent(userId, patch);
+        });
+    }
+
+    /**
+     * Reads the user and writes {@code patch} over it
+     */
+    private CompletionStage<UserWriteResult> patchCurrent(UUID userId, User patch) {
+        return findByIdAsync(userId, PATCHED_FIELDS).thenCompose(read -> {
+            if (read.isEmpty()) {
+                return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.NOT_FOUND));
+            }
+            User current = read.get();
+            String email = current.getEmail();
+            User patched = applyPatch(current, patch);
+            Map<String, Object> values = getPatchedColumns(patch);
+            if (!patched.getEmail().equals(email)) {
+                return changeEmail(userId, email, patched.getEmail(), patched,
+                        () -> writeListed(userId, values, current, user -> applyPatch(user, patch)));
+            }
+            values.remove("email");
+            if (values.isEmpty()) {
+                return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.NOT_MODIFIED));
+            }
+            return updateIfListed(userId, values, current).thenCompose(changed -> {
+                if (changed.isPresent()) {
+                    return changed.get().getEmail() == null
+                            ? CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.NOT_FOUND))
+                            : patchCurrent(userId, patch);
+                }
+                CompletionStage<Boolean> credentialsUpdated = patch.getPassword() != null || patch.getRole() != null
+                        ? updateCredentials(email, userId, patched)
+                        : CompletableFuture.completedFuture(true);
+                return credentialsUpdated
+                        .thenCompose(ignored -> writeIndexes(userId, current, patched))
+                        .thenApply(ignored -> {
+                            notifyChanged(userId, email);
+                            return UserWriteResult.ok(userId);
+                        });
+            });
+        });
+    }
+
+    /**
+     * Reserves {@code newEmail} for the user, runs {@code write} and releases {@code oldEmail}.
+     * Old email is released only after the write is applied in both {@link WriteMode}s:
+     * released together with a write which then fails, it would leave the user without a reservation,
+     * free to be taken by another user.
+     * New email is released if the write fails or is not applied
+     *
+     * @param credentials password and role of the user after the write, stored with the new reservation
+     * @param write       user row write, completed with false if user doesn't exist
+     */
+    private CompletionStage<UserWriteResult> changeEmail(UUID userId, String oldEmail, String newEmail,
+                                                         User credentials,
+                                                         Supplier<CompletionStage<Boolean>> write) {
+        return reserveEmail(newEmail, userId, credentials).thenCompose(reserved -> {
+            if (!reserved) {
+                return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.EMAIL_CONFLICT));
+            }
+            UserWriteJournal.Entry releaseNewEmail = UserWriteJournal.Entry.releaseEmail(newEmail, userId);
+            UserWriteJournal.Entry releaseOldEmail = UserWriteJournal.Entry.releaseEmail(oldEmail, userId);
+            CompletionStage<Boolean> written = repairOnFailure(write.get(), releaseNewEmail);
+            CompletionStage<Boolean> released = written.thenCompose(applied -> applied
+                    ? repair(releaseOldEmail).thenApply(ignored -> true)
+                    : CompletableFuture.completedFuture(false));
+            return released.thenCompose(applied -> {
+                if (!applied) {
+                    return repair(releaseNewEmail).thenApply(ignored -> UserWriteResult.of(WriteStatus.NOT_FOUND));
+                }
+                notifyChanged(userId, oldEmail);
+                return CompletableFuture.completedFuture(UserWriteResult.ok(userId));
+            });
+        });
+    }
+
+    /**
+     * Updates columns if user exists, used by both full and partial updates
+     *
+     * @return true if user was updated, false if it doesn't exist
+     */
+    private CompletionStage<Boolean> updateColumns(UUID userId, Map<String, Object> values) {
+        return timer.timeAsync("updateColumns", () -> {
+            List<Object> boundValues = new ArrayList<>(values.values());
+            boundValues.add(userId);
+            return statements.updateIfExists(values.keySet())
+                    .thenCompose(statement -> cqlSession.executeAsync(statement.bind(boundValues.toArray())))
+                    .thenApply(AsyncResultSet::wasApplied);
+        });
+    }
+
+    /**
+     * Reserves email for the user, storing password and role of {@code credentials} with the reservation
+     *
+     * @return true if email is reserved for the user, false if it belongs to another user
+     */
+    private CompletionStage<Boolean> reserveEmail(String email, UUID userId, User credentials) {
+        return timer.timeAsync("reserveEmail",
+                () -> cqlSession.executeAsync(statements.reserveEmail().bind(email, userId,
+                                credentials.getPassword().getHash(), credentials.getRole().getCode()))
+                        .thenApply(resultSet -> resultSet.wasApplied()
+                                || userId.equals(resultSet.one().getUuid("id"))),
+                reserved -> reserved ? OperationTimer.OK : "email_conflict");
+    }
+
+    /**
+     * Writes password and role of {@code credentials} to the email reservation of the user.
+     * Concurrent writes may leave them different from the user row,
+     * such reservations are fixed by {@link UserReconciler}
+     *
+     * @return true if written, false if email is not reserved for the user
+     */
+    private CompletionStage<Boolean> updateCredentials(String email, UUID userId, User credentials) {
+        return timer.timeAsync("updateCredentials",
+                () -> cqlSession.executeAsync(statements.updateCredentials().bind(
+                                credentials.getPassword().getHash(), credentials.getRole().getCode(), email, userId))
+                        .thenApply(AsyncResultSet::wasApplied));
+    }
+
+    /**
+     * Runs {@code repairs} if {@code write} fails, the failure is propagated
+     */
+    private <T> CompletionStage<T> repairOnFailure(CompletionStage<T> write, UserWriteJournal.Entry... repairs) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        write.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            CompletableFuture.allOf(Arrays.stream(repairs)
+                            .map(repair -> repair(repair).toCompletableFuture())
+                            .toArray(CompletableFuture<?>[]::new))
+                    .whenComplete((ignored, repairError) -> result.completeExceptionally(error));
+        });
+        return result;
+    }
+
+    /**
+     * Executes repair write, recording it to the journal if it fails
+     *
+     * @return completed when repair is written or recorded
+     */
+    private CompletionStage<Void> repair(UserWriteJournal.Entry entry) {
+        return timer.timeAsync("repair", () -> replay(entry)).handle((resultSet, error) -> error)
+                .thenCompose(error -> error == null
+                        ? CompletableFuture.<Void>completedFuture(null)
+                        : journal.record(entry));
+    }
+
+    /**
+     * Executes journal entry
+     *
+     * @param entry repair write
+     * @return result of the write
+     */
+    CompletionStage<AsyncResultSet> replay(UserWriteJournal.Entry entry) {
+        CompletionStage<AsyncResultSet> write;
+        switch (entry.getOperation()) {
+            case RELEASE_EMAIL:
+                write = cqlSession.executeAsync(statements.releaseEmail().bind(entry.getEmail(), entry.getUserId()));
+                break;
+            case DELETE_USER:
+                write = cqlSession.executeAsync(statements.delete().bind(entry.getUserId()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + entry.getOperation());
+        }
+        return write.whenComplete((resultSet, error) -> {
+            if (error == null) {
+                notifyChanged(entry.getUserId(), entry.getEmail());
+            }
+        });
+    }
+
+    /**
+     * @return {@code user} with non-null fields of {@code patch} written over it
+     */
+    private static User applyPatch(User user, User patch) {
+        return User.builder()
+                .withId(user.getId())
+                .withEmail(Optional.ofNullable(patch.getEmail()).orElse(user.getEmail()))
+                .withPassword(Optional.ofNullable(patch.getPassword()).orElse(user.getPassword()))
+                .withFirstName(Optional.ofNullable(patch.getFirstName()).orElse(user.getFirstName()))
+                .withLastName(Optional.ofNullable(patch.getLastName()).orElse(user.getLastName()))
+                .withRole(Optional.ofNullable(patch.getRole()).orElse(user.getRole()))
+                .build();
+    }
+
+    private static Map<String, Object> getColumns(User user) {
+        Map<String, Object> values = new TreeMap<>();
+        values.put("email", user.getEmail());
+        values.put("password", user.getPassword().getHash());
+        values.put("first_name", user.getFirstName());
+        values.put("last_name", user.getLastName());
+        values.put("avatar_id", user.getAvatarId());
+        values.put("role", user.getRole().getCode());
+        return values;
+    }
+
+    private static Map<String, Object> getPatchedColumns(User patch) {
+        Map<String, Object> values = new TreeMap<>();
+        if (patch.getEmail() != null) {
+            values.put("email", patch.getEmail());
+        }
+        if (patch.getPassword() != null) {
+            values.put("password", patch.getPassword().getHash());
+        }
+        if (patch.getFirstName() != null) {
+            values.put("first_name", patch.getFirstName());
+        }
+        if (patch.getLastName() != null) {
+            values.put("last_name", patch.getLastName());
+        }
+        if (patch.getAvatarId() != null) {
+            values.put("avatar_id", patch.getAvatarId());
+        }
+        if (patch.getRole() != null) {
+            values.put("role", patch.getRole().getCode());
+        }
+        return values;
+    }
+
+    /**
+     * Replaces password with a conditional write, so that a password changed concurrently is not overwritten.
+     * Password stored with the email reservation is replaced only if it is the expected one too
+     */
+    @Override
+    public CompletionStage<Boolean> replacePasswordAsync(User user, Password password) {
+        return timer.timeAsync("replacePassword", () -> cqlSession.executeAsync(statements.replacePassword()
+                        .bind(password.getHash(), user.getId(), user.getPassword().getHash()))
+                .thenCompose(resultSet -> {
+                    if (!resultSet.wasApplied()) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    return cqlSession.executeAsync(statements.replaceReservedPassword().bind(password.getHash(),
+                                    user.getEmail(), user.getId(), user.getPassword().getHash()))
+                            .thenApply(ignored -> {
+                                notifyChanged(user.getId(), user.getEmail());
+                                return true;
+                            });
+                }));
+    }
+
+    /**
+     * Delete user.
+     * User is read to find its email and index rows, then its row is deleted with a plain write.
+     * Email is released after user row is deleted in both {@link WriteMode}s, so that a failed delete
+     * doesn't leave the user without a reservation, {@code user_by_name} and {@code user_by_role} rows
+     * are deleted last
+     */
+    @Override
+    public CompletionStage<Boolean> deleteAsync(UUID userId) {
+        return timer.timeAsync("delete", () -> findByIdAsync(userId, DELETED_FIELDS).thenCompose(user -> {
+            if (user.isEmpty()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            String email = user.get().getEmail();
+            UserWriteJournal.Entry releaseEmail = UserWriteJournal.Entry.releaseEmail(email, userId);
+            return cqlSession.executeAsync(statements.delete().bind(userId))
+                    .thenCompose(resultSet -> repair(releaseEmail))
+                    .thenCompose(ignored -> writeIndexes(userId, user.get(), null))
+                    .thenApply(ignored -> {
+                        notifyChanged(userId, email);
+                        return true;
+                    });
+        }));
+    }
+
+    /**
+     * Moves user in {@code user_by_name} and {@code user_by_role} tables, see {@link #writeName} and {@link #writeRole}
+     *
+     * @param oldUser email, names and role of the user before the write, null if user is created
+     * @param newUser email, names and role of the user after the write, null if user is deleted
+     * @return completed when rows are written or failed
+     */
+    private CompletionStage<Void> writeIndexes(UUID userId, User oldUser, User newUser) {
+        CompletionStage<Void> names = writeName(userId, oldUser, newUser);
+        CompletionStage<Void> roles = writeRole(oldUser == null ? null : UserRoleKey.of(userId, oldUser.getRole()),
+                newUser == null ? null : UserRoleKey.of(userId, newUser.getRole()));
+        return names.thenCombine(roles, (name, role) -> null);
+    }
+
+    /**
+     * Moves user in {@code user_by_name} from the row of {@code oldUser} to the row of {@code newUser}:
+     * the new row with the listed fields is written before the old one is deleted, so that the user is listed
+     * while it is moved. Row is written again if listed fields are changed while the key is not.
+     * Failures are logged and not propagated, as the user is already written;
+     * missing and stale rows are fixed by {@link UserReconciler}
+     *
+     * @param oldUser email, names and role of the user before the write, null if user is created
+     * @param newUser email, names and role of the user after the write, null if user is deleted
+     * @return completed when rows are written or failed
+     */
+    private CompletionStage<Void> writeName(UUID userId, User oldUser, User newUser) {
+        UserNameKey oldName = oldUser == null ? null : UserNameKey.of(userId, oldUser);
+        UserNameKey newName = newUser == null ? null : UserNameKey.of(userId, newUser);
+        if (oldUser != null && newUser != null && sameListed(oldUser, newUser)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletionStage<Void> written = CompletableFuture.completedFuture(null);
+        if (newName != null) {
+            written = written.thenCompose(ignored -> timer.timeAsync("insertName",
+                    () -> cqlSession.executeAsync(statements.insertName().bind(
+                            newName.bucket(), newName.getLastName(), newName.getFirstName(), userId,
+                            newUser.getEmail(), newUser.getFirstName(), newUser.getLastName(),
+                            newUser.getRole() == null ? null : newUser.getRole().getCode()))))
+                    .thenApply(resultSet -> null);
+        }
+        if (oldName != null && !oldName.equals(newName)) {
+            written = written.thenCompose(ignored -> timer.timeAsync("deleteName",
+                    () -> cqlSession.executeAsync(statements.deleteName().bind(
+                            oldName.bucket(), oldName.getLastName(), oldName.getFirstName(), userId))))
+                    .thenApply(resultSet -> null);
+        }
+        return written.handle((ignored, error) -> {
+            if (error != null) {
+                log.warn("Failed to move user in name index from {} to {}", oldName, newName, error);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return true if {@code user_by_name} row of {@code oldUser} lists {@code newUser} as well
+     */
+    private static boolean sameListed(User oldUser, User newUser) {
+        return Objects.equals(oldUser.getEmail(), newUser.getEmail())
+                && Objects.equals(oldUser.getFirstName(), newUser.getFirstName())
+                && Objects.equals(oldUser.getLastName(), newUser.getLastName())
+                && Objects.equals(oldUser.getRole(), newUser.getRole());
+    }
+
+    /**
+     * Moves user in {@code user_by_role} from {@code oldRole} to {@code newRole} the same way as {@link #writeName}
+     *
+     * @param oldRole key of the user before the write, null if user is created
+     * @param newRole key of the user after the write, null if user is deleted
+     * @return completed when rows are written or failed
+     */
+    private CompletionStage<Void> writeRole(UserRoleKey oldRole, UserRoleKey newRole) {
+        if (Objects.equals(oldRole, newRole)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletionStage<Void> written = CompletableFuture.completedFuture(null);
+        if (newRole != null) {
+            written = written.thenCompose(ignored -> executeRole("insertRole", statements.insertRole(), newRole));
+        }
+        if (oldRole != null) {
+            written = written.thenCompose(ignored -> executeRole("deleteRole", statements.deleteRole(), oldRole));
+        }
+        return written.handle((ignored, error) -> {
+            if (error != null) {
+                log.warn("Failed to move user in role index from {} to {}", oldRole, newRole, error);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Executes {@code user_by_role} statement bound to role code, bucket and id of the key
+     */
+    private CompletionStage<Void> executeRole(String operation, PreparedStatement statement, UserRoleKey key) {
+        return timer.timeAsync(operation, () -> cqlSession.executeAsync(statement.bind(
+                        key.getRole().getCode(), key.getBucket(), key.getId())))
+                .thenApply(resultSet -> null);
+    }
+
+    /**
+     * Notifies listeners that user or its email reservation was changed
+     */
+    void notifyChanged(UUID userId, String email) {
+        changeListeners.forEach(listener -> listener.userChanged(userId, email));
+    }
+
+}
@@ -0,0 +1,31 @@
+package andrianova.usermanager.domain;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Helpers for blocking variants of asynchronous data access operations
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Waits for {@code stage} to complete
+     *
+     * @param stage asynchronous operation
+     * @return operation result
+     * @throws RuntimeException the operation failed with, unwrapped from {@link CompletionException}
+     */
+    public static <T> T await(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package andrianova.usermanager.domain;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link AvatarDao} keeping avatars in memory, used with {@code in-memory} profile.
+ * Content is kept as a single chunk
+ */
+@Repository
+@Qualifier(AvatarDao.STORAGE)
+@Profile("in-memory")
+public class InMemoryAvatarDao implements AvatarDao {
+
+    private final ConcurrentMap<String, Avatar> avatars = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    @Override
+    public CompletionStage<String> storeAsync(byte[] content) {
+        String id = AvatarDao.idOf(content);
+        contents.putIfAbsent(id, content.clone());
+        avatars.putIfAbsent(id, new Avatar(id, content.length, 1, AvatarDao.contentTypeOf(content)));
+        return CompletableFuture.completedFuture(id);
+    }
+
+    @Override
+    public CompletionStage<Optional<Avatar>> findAsync(String id) {
+        return CompletableFuture.completedFuture(Optional.ofNullable(avatars.get(id)));
+    }
+
+    @Override
+    public void writeTo(Avatar avatar, OutputStream out) throws IOException {
+        byte[] content = contents.get(avatar.getId());
+        if (content != null) {
+            out.write(content);
+        }
+    }
+}
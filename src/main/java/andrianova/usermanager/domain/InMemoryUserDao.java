@@ -0,0 +1,325 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.api.core.uuid.Uuids;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * {@link UserDao} keeping users in memory, used with {@code in-memory} profile
+ * to test and benchmark the application without a database.
+ * Users are kept in a map sorted by id, with a secondary index from email to user id
+ * and sorted sets of {@link UserNameKey}s and of {@link UserRoleKey}s of every role,
+ * which are updated after users are written.
+ * Email is reserved in the index before user gets it and released after user no longer has it,
+ * user is replaced only if it was not changed since it was read.
+ * Operations complete on the calling thread
+ */
+@Repository
+@Qualifier(UserDao.STORAGE)
+@Profile("in-memory")
+public class InMemoryUserDao implements UserDao {
+
+    private final ConcurrentNavigableMap<UUID, User> users = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, UUID> emails = new ConcurrentHashMap<>();
+    private final NavigableSet<UserNameKey> names = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<Role, NavigableSet<UserRoleKey>> roles = new ConcurrentHashMap<>();
+
+    @Autowired(required = false)
+    private List<UserChangeListener> changeListeners = Collections.emptyList();
+
+    /**
+     * Email of admin created on startup, admin is not created if empty
+     */
+    @Value("${user-manager.in-memory.admin-email:}")
+    private String adminEmail;
+    /**
+     * Password of admin created on startup
+     */
+    @Value("${user-manager.in-memory.admin-password:}")
+    private String adminPassword;
+
+    @PostConstruct
+    public void createAdmin() {
+        if (!adminEmail.isEmpty()) {
+            create(User.builder()
+                    .withEmail(adminEmail)
+                    .withPassword(Password.of(adminPassword.getBytes(StandardCharsets.UTF_8)))
+                    .withRole(Role.ADMIN)
+                    .build());
+        }
+    }
+
+    /**
+     * Page token is the id of the last user on the previous page
+     */
+    @Override
+    public CompletionStage<UserPage> getUsersAsync(int pageSize, String pageToken, Set<UserField> fields) {
+        NavigableMap<UUID, User> tail = pageToken == null ? users
+                : users.tailMap(UUID.fromString(new String(Base64.getUrlDecoder().decode(pageToken),
+                StandardCharsets.UTF_8)), false);
+        List<User> page = new ArrayList<>(pageSize);
+        Iterator<User> iterator = tail.values().iterator();
+        while (page.size() < pageSize && iterator.hasNext()) {
+            page.add(iterator.next().project(fields));
+        }
+        String nextPageToken = iterator.hasNext()
+                ? Base64.getUrlEncoder().withoutPadding().encodeToString(
+                page.get(page.size() - 1).getId().toString().getBytes(StandardCharsets.UTF_8))
+                : null;
+        return CompletableFuture.completedFuture(new UserPage(page, nextPageToken));
+    }
+
+    /**
+     * Keys of users changed concurrently may be stale for a moment, users which don't match them are left out
+     */
+    @Override
+    public CompletionStage<UserPage> getUsersByNameAsync(int pageSize, String cursor, PageDirection direction,
+                                                         Set<UserField> fields) {
+        NavigableSet<UserNameKey> keys = names;
+        if (cursor != null) {
+            UserNameKey from = UserNameKey.fromCursor(cursor);
+            keys = direction == PageDirection.FORWARD ? names.tailSet(from, false) : names.headSet(from, false);
+        }
+        if (direction == PageDirection.BACKWARD) {
+            keys = keys.descendingSet();
+        }
+        List<UserNameKey> page = keys.stream()
+                .limit(pageSize + 1)
+                .collect(Collectors.toList());
+        Map<UUID, User> found = new HashMap<>();
+        for (UserNameKey key : page) {
+            Optional.ofNullable(users.get(key.getId())).ifPresent(user -> found.put(user.getId(), user));
+        }
+        return CompletableFuture.completedFuture(
+                UserNameKey.toPage(page, pageSize, cursor != null, direction, found, fields));
+    }
+
+    @Override
+    public CompletionStage<UserPage> getUsersByRoleAsync(Role role, int pageSize, String pageToken,
+                                                         Set<UserField> fields) {
+        NavigableSet<UserRoleKey> keys = pageToken == null ? roleKeys(role)
+                : roleKeys(role).tailSet(UserRoleKey.fromCursor(role, pageToken), false);
+        List<UserRoleKey> page = keys.stream()
+                .limit(pageSize + 1)
+                .collect(Collectors.toList());
+        Map<UUID, User> found = new HashMap<>();
+        for (UserRoleKey key : page) {
+            Optional.ofNullable(users.get(key.getId())).ifPresent(user -> found.put(user.getId(), user));
+        }
+        return CompletableFuture.completedFuture(UserRoleKey.toPage(page, pageSize, found, fields));
+    }
+
+    @Override
+    public void forEachUser(int pageSize, Consumer<User> consumer) {
+        users.values().forEach(user -> consumer.accept(user.project(UserField.SUMMARY)));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(UUID userId, Set<UserField> fields) {
+        return CompletableFuture.completedFuture(Optional.ofNullable(users.get(userId))
+                .map(user -> user.project(fields)));
+    }
+
+    @Override
+    public CompletionStage<Map<UUID, User>> findByIdsAsync(Collection<UUID> userIds, Set<UserField> fields) {
+        Map<UUID, User> found = new HashMap<>();
+        for (UUID userId : userIds) {
+            User user = users.get(userId);
+            if (user != null) {
+                found.put(userId, user.project(fields));
+            }
+        }
+        return CompletableFuture.completedFuture(found);
+    }
+
+    @Override
+    public CompletionStage<Optional<UUID>> findByEmailAsync(String email) {
+        return CompletableFuture.completedFuture(Optional.ofNullable(emails.get(email)));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findCredentialsByEmailAsync(String email) {
+        return CompletableFuture.completedFuture(Optional.ofNullable(emails.get(email))
+                .map(users::get)
+                .filter(user -> email.equals(user.getEmail()))
+                .map(user -> user.project(UserField.CREDENTIALS)));
+    }
+
+    @Override
+    public CompletionStage<UserWriteResult> createAsync(User user) {
+        UUID userId = Uuids.timeBased();
+        if (emails.putIfAbsent(user.getEmail(), userId) != null) {
+            return CompletableFuture.completedFuture(UserWriteResult.of(WriteStatus.EMAIL_CONFLICT));
+        }
+        User created = withId(user, userId);
+        users.put(userId, created);
+        names.add(UserNameKey.of(created));
+        addRole(created);
+        return CompletableFuture.completedFuture(UserWriteResult.ok(userId));
+    }
+
+    @Override
+    public CompletionStage<UserWriteResult> updateAsync(UUID userId, User user) {
+        return CompletableFuture.completedFuture(write(userId, old -> withId(user, userId)));
+    }
+
+    @Override
+    public CompletionStage<UserWriteResult> patchAsync(UUID userId, User patch) {
+        return CompletableFuture.completedFuture(write(userId, old -> User.builder()
+                .withId(userId)
+                .withEmail(Optional.ofNullable(patch.getEmail()).orElse(old.getEmail()))
+                .withPassword(Optional.ofNullable(patch.getPassword()).orElse(old.getPassword()))
+                .withFirstName(Optional.ofNullable(patch.getFirstName()).orElse(old.getFirstName()))
+                .withLastName(Optional.ofNullable(patch.getLastName()).orElse(old.getLastName()))
+                .withAvatarId(Optional.ofNullable(patch.getAvatarId()).orElse(old.getAvatarId()))
+                .withRole(Optional.ofNullable(patch.getRole()).orElse(old.getRole()))
+                .build()));
+    }
+
+    @Override
+    public CompletionStage<Boolean> replacePasswordAsync(User user, Password password) {
+        User old = users.get(user.getId());
+        if (old == null || !user.getPassword().equals(old.getPassword())) {
+            return CompletableFuture.completedFuture(false);
+        }
+        User updated = User.builder()
+                .withId(old.getId())
+                .withEmail(old.getEmail())
+                .withPassword(password)
+                .withFirstName(old.getFirstName())
+                .withLastName(old.getLastName())
+                .withAvatarId(old.getAvatarId())
+                .withRole(old.getRole())
+                .build();
+        if (!users.replace(old.getId(), old, updated)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        notifyChanged(old.getId(), old.getEmail());
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(UUID userId) {
+        User removed = users.remove(userId);
+        if (removed == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        emails.remove(removed.getEmail(), userId);
+        names.remove(UserNameKey.of(removed));
+        removeRole(removed);
+        notifyChanged(userId, removed.getEmail());
+        return CompletableFuture.completedFuture(true);
+    }
+
+    /**
+     * Replaces user with the result of {@code change}, retrying if user was changed concurrently
+     */
+    private UserWriteResult write(UUID userId, UnaryOperator<User> change) {
+        while (true) {
+            User old = users.get(userId);
+            if (old == null) {
+                return UserWriteResult.of(WriteStatus.NOT_FOUND);
+            }
+            User updated = change.apply(old);
+            if (sameFields(old, updated)) {
+                return UserWriteResult.of(WriteStatus.NOT_MODIFIED);
+            }
+            boolean emailChanged = !Objects.equals(old.getEmail(), updated.getEmail());
+            boolean reserved = false;
+            if (emailChanged) {
+                UUID owner = emails.putIfAbsent(updated.getEmail(), userId);
+                if (owner != null && !owner.equals(userId)) {
+                    return UserWriteResult.of(WriteStatus.EMAIL_CONFLICT);
+                }
+                reserved = owner == null;
+            }
+            if (users.replace(userId, old, updated)) {
+                if (emailChanged) {
+                    emails.remove(old.getEmail(), userId);
+                }
+                UserNameKey oldName = UserNameKey.of(old);
+                UserNameKey newName = UserNameKey.of(updated);
+                if (!oldName.equals(newName)) {
+                    names.add(newName);
+                    names.remove(oldName);
+                }
+                if (old.getRole() != updated.getRole()) {
+                    addRole(updated);
+                    removeRole(old);
+                }
+                notifyChanged(userId, old.getEmail());
+                return UserWriteResult.ok(userId);
+            }
+            if (reserved) {
+                emails.remove(updated.getEmail(), userId);
+            }
+        }
+    }
+
+    private NavigableSet<UserRoleKey> roleKeys(Role role) {
+        return roles.computeIfAbsent(role, key -> new ConcurrentSkipListSet<>());
+    }
+
+    private void addRole(User user) {
+        Optional.ofNullable(UserRoleKey.of(user)).ifPresent(key -> roleKeys(key.getRole()).add(key));
+    }
+
+    private void removeRole(User user) {
+        Optional.ofNullable(UserRoleKey.of(user)).ifPresent(key -> roleKeys(key.getRole()).remove(key));
+    }
+
+    private void notifyChanged(UUID userId, String email) {
+        changeListeners.forEach(listener -> listener.userChanged(userId, email));
+    }
+
+    private static User withId(User user, UUID userId) {
+        return User.builder()
+                .withId(userId)
+                .withEmail(user.getEmail())
+                .withPassword(user.getPassword())
+                .withFirstName(user.getFirstName())
+                .withLastName(user.getLastName())
+                .withAvatarId(user.getAvatarId())
+                .withRole(user.getRole())
+                .build();
+    }
+
+    private static boolean sameFields(User user, User other) {
+        return Objects.equals(user.getEmail(), other.getEmail())
+                && Objects.equals(user.getPassword(), other.getPassword())
+                && Objects.equals(user.getFirstName(), other.getFirstName())
+                && Objects.equals(user.getLastName(), other.getLastName())
+                && Objects.equals(user.getAvatarId(), other.getAvatarId())
+                && Objects.equals(user.getRole(), other.getRole());
+    }
+}
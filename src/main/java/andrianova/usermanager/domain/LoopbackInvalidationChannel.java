@@ -0,0 +1,29 @@
+package andrianova.usermanager.domain;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link UserInvalidationChannel} delivering messages to subscribers of this instance on the publishing thread.
+ * Used in tests, which simulate other instances by publishing their messages
+ */
+@Component
+@ConditionalOnProperty(name = "user-manager.invalidation.channel", havingValue = "loopback")
+public class LoopbackInvalidationChannel implements UserInvalidationChannel {
+
+    private final List<Consumer<Message>> consumers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(Message message) {
+        consumers.forEach(consumer -> consumer.accept(message));
+    }
+
+    @Override
+    public void subscribe(Consumer<Message> consumer) {
+        consumers.add(consumer);
+    }
+}
@@ -0,0 +1,91 @@
+package andrianova.usermanager.domain;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Authenticates messages of {@link MulticastInvalidationChannel} with a key shared by all instances:
+ * a sealed message is prefixed with its send time and followed by HMAC-SHA256 of the time and the message.
+ * Send time bounds replays of captured messages to {@code maxAgeMillis}
+ */
+class MessageAuthenticator {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    /**
+     * Size of HMAC-SHA256 at the end of a sealed message
+     */
+    private static final int MAC_SIZE = 32;
+    /**
+     * Min size of the key, as HMAC-SHA256 is only as strong as its key
+     */
+    static final int MIN_KEY_SIZE = 32;
+
+    private final SecretKeySpec key;
+    private final long maxAgeMillis;
+
+    /**
+     * @param key          shared key, at least {@link #MIN_KEY_SIZE} bytes
+     * @param maxAgeMillis max difference between send time and receive time, bounds clock skew of instances
+     * @throws IllegalStateException if key is too short
+     */
+    MessageAuthenticator(byte[] key, long maxAgeMillis) {
+        if (key.length < MIN_KEY_SIZE) {
+            throw new IllegalStateException("user-manager.invalidation.multicast.key of at least " + MIN_KEY_SIZE +
+                    " bytes is required to authenticate invalidation messages");
+        }
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @param message message
+     * @param sentAt  send time in millis
+     * @return send time, message and HMAC of both
+     */
+    byte[] seal(byte[] message, long sentAt) {
+        ByteBuffer sealed = ByteBuffer.allocate(Long.BYTES + message.length + MAC_SIZE);
+        sealed.putLong(sentAt).put(message);
+        Mac mac = mac();
+        mac.update(sealed.array(), 0, Long.BYTES + message.length);
+        sealed.put(mac.doFinal());
+        return sealed.array();
+    }
+
+    /**
+     * @param bytes      buffer
+     * @param offset     offset of sealed message in the buffer
+     * @param length     length of sealed message
+     * @param receivedAt receive time in millis
+     * @return message, null if HMAC is wrong or send time differs from {@code receivedAt} by more than max age
+     */
+    ByteBuffer open(byte[] bytes, int offset, int length, long receivedAt) {
+        if (length < Long.BYTES + MAC_SIZE) {
+            return null;
+        }
+        Mac mac = mac();
+        mac.update(bytes, offset, length - MAC_SIZE);
+        byte[] actual = Arrays.copyOfRange(bytes, offset + length - MAC_SIZE, offset + length);
+        if (!MessageDigest.isEqual(mac.doFinal(), actual)) {
+            return null;
+        }
+        long sentAt = ByteBuffer.wrap(bytes, offset, Long.BYTES).getLong();
+        if (Math.abs(receivedAt - sentAt) > maxAgeMillis) {
+            return null;
+        }
+        return ByteBuffer.wrap(bytes, offset + Long.BYTES, length - Long.BYTES - MAC_SIZE);
+    }
+
+    private Mac mac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
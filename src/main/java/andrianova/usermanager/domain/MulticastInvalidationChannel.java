@@ -0,0 +1,151 @@
+package andrianova.usermanager.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link UserInvalidationChannel} sending messages as UDP multicast datagrams,
+ * so all instances in the same network segment receive them without knowing each other.
+ * Datagrams are received on a dedicated thread.
+ * <p>
+ * Any host of the segment can send to the group, so every datagram carries its send time and an HMAC-SHA256
+ * of the time and the message keyed by {@code user-manager.invalidation.multicast.key}, shared by all instances.
+ * Datagrams with a wrong HMAC, or sent more than {@code max-age-ms} before or after they are received,
+ * which are replays of captured ones, are dropped. Messages are not encrypted, user ids and emails they carry
+ * are visible on the segment, so the channel is meant for trusted networks only
+ */
+@Component
+@ConditionalOnProperty(name = "user-manager.invalidation.channel", havingValue = "multicast")
+public class MulticastInvalidationChannel implements UserInvalidationChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(MulticastInvalidationChannel.class);
+
+    /**
+     * Max size of a datagram
+     */
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    /**
+     * Multicast group address
+     */
+    @Value("${user-manager.invalidation.multicast.group:239.255.42.99}")
+    private String group;
+    /**
+     * Port of the group
+     */
+    @Value("${user-manager.invalidation.multicast.port:45678}")
+    private int port;
+    /**
+     * Name of network interface to use, default interface if empty
+     */
+    @Value("${user-manager.invalidation.multicast.interface:}")
+    private String interfaceName;
+    /**
+     * Max number of routers a datagram passes, 1 keeps it within the local network
+     */
+    @Value("${user-manager.invalidation.multicast.ttl:1}")
+    private int ttl;
+    /**
+     * Secret shared by all instances, authenticating their datagrams
+     */
+    @Value("${user-manager.invalidation.multicast.key:}")
+    private String key;
+    /**
+     * Max difference between send time of a datagram and its receive time, bounds clock skew of instances
+     */
+    @Value("${user-manager.invalidation.multicast.max-age-ms:30000}")
+    private long maxAgeMillis;
+
+    private final List<Consumer<Message>> consumers = new CopyOnWriteArrayList<>();
+    private InetSocketAddress groupAddress;
+    private MulticastSocket socket;
+    private Thread receiver;
+
+    private MessageAuthenticator authenticator;
+
+    @PostConstruct
+    public void open() throws IOException {
+        authenticator = new MessageAuthenticator(key.getBytes(StandardCharsets.UTF_8), maxAgeMillis);
+        groupAddress = new InetSocketAddress(InetAddress.getByName(group), port);
+        NetworkInterface networkInterface = interfaceName.isEmpty() ? null : NetworkInterface.getByName(interfaceName);
+        socket = new MulticastSocket(port);
+        socket.setTimeToLive(ttl);
+        if (networkInterface != null) {
+            socket.setNetworkInterface(networkInterface);
+        }
+        socket.joinGroup(groupAddress, networkInterface);
+        receiver = new Thread(this::receive, "user-invalidation-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        socket.close();
+    }
+
+    /**
+     * Sends message, failures are logged, as receivers detect lost messages
+     */
+    @Override
+    public void publish(Message message) {
+        byte[] bytes = authenticator.seal(message.toBytes(), System.currentTimeMillis());
+        try {
+            socket.send(new DatagramPacket(bytes, bytes.length, groupAddress));
+        } catch (IOException e) {
+            log.warn("Failed to send {}", message, e);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<Message> consumer) {
+        consumers.add(consumer);
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Failed to receive invalidation message", e);
+                }
+                continue;
+            }
+            try {
+                ByteBuffer datagram = authenticator.open(packet.getData(), packet.getOffset(), packet.getLength(),
+                        System.currentTimeMillis());
+                if (datagram == null) {
+                    log.warn("Ignoring unauthenticated or expired invalidation message from {}",
+                            packet.getSocketAddress());
+                    continue;
+                }
+                Message message = Message.fromBytes(datagram.array(), datagram.position(), datagram.remaining());
+                consumers.forEach(consumer -> consumer.accept(message));
+            } catch (IOException e) {
+                log.warn("Ignoring malformed invalidation message from {}", packet.getSocketAddress(), e);
+            } catch (RuntimeException e) {
+                log.error("Failed to apply invalidation message", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package andrianova.usermanager.domain;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Records duration of operations to timer {@code name} tagged with {@code operation} and {@code outcome}.
+ * Timers are looked up without allocation, so it can time every call on hot paths.
+ * Percentile histograms are enabled per timer name with
+ * {@code management.metrics.distribution.percentiles-histogram.<name>} property
+ */
+public class OperationTimer {
+
+    public static final String OK = "ok";
+    public static final String NOT_FOUND = "not_found";
+    public static final String ERROR = "error";
+
+    private static final Map<WriteStatus, String> STATUS_OUTCOMES = new EnumMap<>(WriteStatus.class);
+
+    static {
+        for (WriteStatus status : WriteStatus.values()) {
+            STATUS_OUTCOMES.put(status, status.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final String name;
+    private final String description;
+    private final ConcurrentMap<String, ConcurrentMap<String, Timer>> timers = new ConcurrentHashMap<>();
+
+    /**
+     * @param meterRegistry registry of timers
+     * @param name          timer name
+     * @param description   timer description
+     */
+    public OperationTimer(MeterRegistry meterRegistry, String name, String description) {
+        this.meterRegistry = meterRegistry;
+        this.name = name;
+        this.description = description;
+    }
+
+    /**
+     * Times asynchronous operation until returned stage completes, outcome is derived from the result
+     *
+     * @see #outcomeOf(Object)
+     */
+    public <T> CompletionStage<T> timeAsync(String operation, Supplier<? extends CompletionStage<T>> call) {
+        return timeAsync(operation, call, OperationTimer::outcomeOf);
+    }
+
+    /**
+     * Times asynchronous operation until returned stage completes
+     *
+     * @param operation operation name
+     * @param call      starts the operation
+     * @param outcome   outcome of successful result
+     * @return result of the operation
+     */
+    public <T> CompletionStage<T> timeAsync(String operation, Supplier<? extends CompletionStage<T>> call,
+                                            Function<? super T, String> outcome) {
+        long start = System.nanoTime();
+        CompletionStage<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            record(operation, ERROR, start);
+            throw e;
+        }
+        return result.whenComplete((value, error) ->
+                record(operation, error == null ? outcome.apply(value) : ERROR, start));
+    }
+
+    /**
+     * Times blocking operation, outcome is derived from the result
+     *
+     * @see #outcomeOf(Object)
+     */
+    public <T> T time(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            record(operation, ERROR, start);
+            throw e;
+        }
+        record(operation, outcomeOf(result), start);
+        return result;
+    }
+
+    /**
+     * Records operation which started at {@code startNanos} and completed now
+     *
+     * @param operation  operation name
+     * @param outcome    operation outcome
+     * @param startNanos {@link System#nanoTime()} at the start of the operation
+     */
+    public void record(String operation, String outcome, long startNanos) {
+        timer(operation, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String operation, String outcome) {
+        ConcurrentMap<String, Timer> outcomes = timers.get(operation);
+        if (outcomes == null) {
+            outcomes = timers.computeIfAbsent(operation, key -> new ConcurrentHashMap<>());
+        }
+        Timer timer = outcomes.get(outcome);
+        if (timer == null) {
+            timer = outcomes.computeIfAbsent(outcome, key -> Timer.builder(name)
+                    .description(description)
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+        return timer;
+    }
+
+    /**
+     * Outcome of operation result:
+     * status of {@link UserWriteResult}, {@link #NOT_FOUND} for empty optional or false, {@link #OK} otherwise
+     */
+    public static String outcomeOf(Object result) {
+        if (result instanceof UserWriteResult) {
+            return STATUS_OUTCOMES.get(((UserWriteResult) result).getStatus());
+        }
+        if (result instanceof Optional && ((Optional<?>) result).isEmpty() || Boolean.FALSE.equals(result)) {
+            return NOT_FOUND;
+        }
+        return OK;
+    }
+}
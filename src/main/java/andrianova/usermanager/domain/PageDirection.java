@@ -0,0 +1,15 @@
+package andrianova.usermanager.domain;
+
+/**
+ * Direction in which a page of users is read from its cursor
+ */
+public enum PageDirection {
+    /**
+     * Users following the cursor, the first page if there is no cursor
+     */
+    FORWARD,
+    /**
+     * Users preceding the cursor, the last page if there is no cursor
+     */
+    BACKWARD
+}
@@ -1,17 +1,32 @@
 package andrianova.usermanager.domain;
 
 import com.datastax.oss.driver.shaded.guava.common.hash.Hashing;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.leangen.graphql.annotations.GraphQLIgnore;
 import io.leangen.graphql.annotations.GraphQLQuery;
 import org.springframework.lang.NonNull;
+import org.springframework.security.crypto.bcrypt.BCrypt;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Objects;
 
 /**
- * Password representation
+ * Password representation.
+ * Passwords are hashed with salted BCrypt, hashes of older versions are unsalted SHA-256
+ * and are still accepted until they are upgraded, see {@link #isLegacy()}
  */
 public class Password {
+
+    /**
+     * BCrypt cost used when it is not specified, each increment doubles hashing time
+     */
+    public static final int DEFAULT_STRENGTH = 10;
+    public static final int MIN_STRENGTH = 4;
+    public static final int MAX_STRENGTH = 31;
+
     /**
-     * Password SHA-256 hash
+     * Password hash
      */
     @GraphQLQuery(name = "hash")
     private final String hash;
@@ -21,13 +36,24 @@ public class Password {
     }
 
     /**
-     * Create {@link Password}
+     * Create {@link Password} with {@link #DEFAULT_STRENGTH}
      *
      * @param password plain-text password
      * @return new Password entity with hashed password
      */
     public static Password of(byte[] password) {
-        return new Password(Hashing.sha256().hashBytes(password).toString());
+        return of(password, DEFAULT_STRENGTH);
+    }
+
+    /**
+     * Create {@link Password}
+     *
+     * @param password plain-text password
+     * @param strength BCrypt cost, from {@link #MIN_STRENGTH} to {@link #MAX_STRENGTH}
+     * @return new Password entity with hashed password
+     */
+    public static Password of(byte[] password, int strength) {
+        return new Password(BCrypt.hashpw(password, BCrypt.gensalt(strength)));
     }
 
     /**
@@ -44,6 +70,49 @@ public class Password {
         return hash;
     }
 
+    /**
+     * Checks plain-text password against the hash, taking time of hashing it
+     *
+     * @param password plain-text password
+     * @return true if password matches
+     */
+    public boolean matches(byte[] password) {
+        if (isLegacy()) {
+            byte[] legacyHash = Hashing.sha256().hashBytes(password).toString().getBytes(StandardCharsets.US_ASCII);
+            return MessageDigest.isEqual(legacyHash, hash.getBytes(StandardCharsets.US_ASCII));
+        }
+        try {
+            return BCrypt.checkpw(password, hash);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if hash is unsalted SHA-256 and should be replaced with BCrypt hash
+     */
+    @JsonIgnore
+    @GraphQLIgnore
+    public boolean isLegacy() {
+        return !hash.startsWith("$2");
+    }
+
+    /**
+     * @return BCrypt cost of the hash, 0 for legacy hash
+     */
+    @JsonIgnore
+    @GraphQLIgnore
+    public int getStrength() {
+        if (isLegacy() || hash.length() < 7) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -2,6 +2,7 @@ package andrianova.usermanager.domain;
 
 import io.leangen.graphql.annotations.GraphQLQuery;
 
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -29,9 +30,9 @@ public class User {
      */
     private final String lastName;
     /**
-     * Avatar
+     * Avatar id, see {@link AvatarDao}
      */
-    private final byte[] avatar;
+    private final String avatarId;
     /**
      * Role
      */
@@ -42,14 +43,14 @@ public class User {
                  Password password,
                  String firstName,
                  String lastName,
-                 byte[] avatar,
+                 String avatarId,
                  Role role) {
         this.id = id;
         this.email = email;
         this.password = password;
         this.firstName = firstName;
         this.lastName = lastName;
-        this.avatar = avatar;
+        this.avatarId = avatarId;
         this.role = role;
     }
 
@@ -78,15 +79,33 @@ public class User {
         return lastName;
     }
 
-    @GraphQLQuery(name = "avatar")
-    public byte[] getAvatar() {
-        return avatar;
+    @GraphQLQuery(name = "avatarId")
+    public String getAvatarId() {
+        return avatarId;
     }
 
     @GraphQLQuery(name = "role")
     public Role getRole() {
         return role;
     }
+
+    /**
+     * Copy of user with only requested fields, like a row read from the database
+     *
+     * @param fields fields to keep, other fields are null
+     * @return user copy
+     */
+    User project(Set<UserField> fields) {
+        return builder()
+                .withId(id)
+                .withEmail(fields.contains(UserField.EMAIL) ? email : null)
+                .withPassword(fields.contains(UserField.PASSWORD) ? password : null)
+                .withFirstName(fields.contains(UserField.FIRST_NAME) ? firstName : null)
+                .withLastName(fields.contains(UserField.LAST_NAME) ? lastName : null)
+                .withAvatarId(fields.contains(UserField.AVATAR_ID) ? avatarId : null)
+                .withRole(fields.contains(UserField.ROLE) ? role : null)
+                .build();
+    }
     
     public static Builder builder() {
         return new Builder();
@@ -100,7 +119,7 @@ public class User {
         private Password password;
         private String firstName;
         private String lastName;
-        private byte[] avatar;
+        private String avatarId;
         private Role role;
 
         public Builder withId(UUID id) {
@@ -128,8 +147,8 @@ public class User {
             return this;
         }
 
-         public Builder withAvatar(byte[] avatar) {
-            this.avatar = avatar;
+         public Builder withAvatarId(String avatarId) {
+            this.avatarId = avatarId;
             return this;
          }
 
@@ -139,7 +158,7 @@ public class User {
          }
 
         public User build() {
-            return new User(id, email, password, firstName, lastName, avatar, role);
+            return new User(id, email, password, firstName, lastName, avatarId, role);
         }
     }
 }
@@ -0,0 +1,37 @@
+package andrianova.usermanager.domain;
+
+import io.leangen.graphql.annotations.GraphQLQuery;
+import io.leangen.graphql.annotations.types.GraphQLType;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Users fetched by list of ids
+ */
+@GraphQLType(name = "UserBatch")
+public class UserBatch {
+    /**
+     * Found users in the order of requested ids
+     */
+    private final List<User> users;
+    /**
+     * Requested ids of users which don't exist
+     */
+    private final List<UUID> missingIds;
+
+    public UserBatch(List<User> users, List<UUID> missingIds) {
+        this.users = users;
+        this.missingIds = missingIds;
+    }
+
+    @GraphQLQuery(name = "users")
+    public List<User> getUsers() {
+        return users;
+    }
+
+    @GraphQLQuery(name = "missingIds")
+    public List<UUID> getMissingIds() {
+        return missingIds;
+    }
+}
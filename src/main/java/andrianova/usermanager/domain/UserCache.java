@@ -0,0 +1,173 @@
+package andrianova.usermanager.domain;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Caches of user rows by id and user ids by email, used by {@link CachingUserDao}.
+ * Caches are bounded by estimated size of entries in bytes and evict with W-TinyLFU policy.
+ * Only found users are cached. Entries are invalidated when user is changed or deleted,
+ * a load in flight during invalidation is discarded, so a stale row is never cached.
+ * Changes made by other application instances are received through {@link UserInvalidationBus}.
+ * <p>
+ * Hit ratio, evictions and load latency are published as {@code cache.*} metrics
+ * tagged with {@code cache=users} and {@code cache=user-emails}
+ */
+@Component
+@ConditionalOnProperty(name = "user-manager.user-cache.enabled", havingValue = "true", matchIfMissing = true)
+public class UserCache implements UserChangeListener {
+
+    /**
+     * Estimated size of cache entry with user object, id and password objects, without strings
+     */
+    private static final int USER_OVERHEAD = 200;
+    /**
+     * Estimated size of cache entry with email index entry, without email string
+     */
+    private static final int EMAIL_OVERHEAD = 100;
+    /**
+     * Estimated size of string object without its characters
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Max estimated size of cached users in bytes, email index gets a quarter of it
+     */
+    @Value("${user-manager.user-cache.max-bytes:67108864}")
+    private long maxBytes;
+    /**
+     * Time in seconds an entry is kept after it was loaded, 0 to keep until evicted or invalidated
+     */
+    @Value("${user-manager.user-cache.ttl-seconds:0}")
+    private long ttlSeconds;
+
+    private AsyncCache<UUID, User> users;
+    private AsyncCache<String, UUID> emails;
+
+    @PostConstruct
+    public void init() {
+        users = builder()
+                .maximumWeight(maxBytes)
+                .weigher((UUID userId, User user) -> sizeOf(user))
+                .buildAsync();
+        emails = builder()
+                .maximumWeight(maxBytes / 4)
+                .weigher((String email, UUID userId) -> EMAIL_OVERHEAD + sizeOf(email))
+                .buildAsync();
+        monitor(meterRegistry, users.synchronous(), "users");
+        monitor(meterRegistry, emails.synchronous(), "user-emails");
+    }
+
+    /**
+     * Get user from cache or load it
+     *
+     * @param userId user id
+     * @param loader loads user with all fields
+     * @return user, null if not found
+     */
+    public CompletableFuture<User> getUser(UUID userId,
+                                           Function<UUID, CompletionStage<Optional<User>>> loader) {
+        return users.get(userId, (id, executor) -> loader.apply(id)
+                .thenApply(user -> user.orElse(null))
+                .toCompletableFuture());
+    }
+
+    /**
+     * Get users from cache loading missing ones with a single call
+     *
+     * @param userIds user ids
+     * @param loader  loads users with all fields
+     * @return found users by id
+     */
+    public CompletableFuture<Map<UUID, User>> getUsers(Collection<UUID> userIds,
+                                                       Function<Collection<UUID>, CompletionStage<Map<UUID, User>>> loader) {
+        return users.getAll(userIds, (ids, executor) -> {
+            List<UUID> missing = new ArrayList<>();
+            ids.forEach(missing::add);
+            return loader.apply(missing).toCompletableFuture();
+        });
+    }
+
+    /**
+     * Get user id by email from cache or load it
+     *
+     * @param email  user email
+     * @param loader loads user id
+     * @return user id, null if not found
+     */
+    public CompletableFuture<UUID> getUserId(String email,
+                                             Function<String, CompletionStage<Optional<UUID>>> loader) {
+        return emails.get(email, (key, executor) -> loader.apply(key)
+                .thenApply(userId -> userId.orElse(null))
+                .toCompletableFuture());
+    }
+
+    @Override
+    public void userChanged(UUID userId, String email) {
+        users.synchronous().invalidate(userId);
+        if (email != null) {
+            emails.synchronous().invalidate(email);
+        }
+    }
+
+    @Override
+    public void allUsersChanged() {
+        users.synchronous().invalidateAll();
+        emails.synchronous().invalidateAll();
+    }
+
+    private Caffeine<Object, Object> builder() {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(Duration.ofSeconds(ttlSeconds));
+        }
+        return builder;
+    }
+
+    /**
+     * Publishes cache statistics and hit ratio as {@code cache.*} metrics tagged with cache name
+     */
+    static void monitor(MeterRegistry meterRegistry, Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .tag("cache", name)
+                .description("Ratio of cache requests which were hits")
+                .register(meterRegistry);
+    }
+
+    private static int sizeOf(User user) {
+        return USER_OVERHEAD
+                + sizeOf(user.getEmail())
+                + sizeOf(user.getFirstName())
+                + sizeOf(user.getLastName())
+                + sizeOf(user.getAvatarId())
+                + (user.getPassword() == null ? 0 : sizeOf(user.getPassword().getHash()));
+    }
+
+    private static int sizeOf(String value) {
+        return value == null ? 0 : STRING_OVERHEAD + value.length();
+    }
+}
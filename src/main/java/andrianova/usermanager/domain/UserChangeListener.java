@@ -0,0 +1,25 @@
+package andrianova.usermanager.domain;
+
+import java.util.UUID;
+
+/**
+ * Listener notified by {@link UserDao} after a user was changed or deleted,
+ * used to invalidate data cached outside the database.
+ * Listeners may be called on the driver's I/O threads, so they must not block
+ */
+public interface UserChangeListener {
+
+    /**
+     * Called after user was updated or deleted
+     *
+     * @param userId user id
+     * @param email  email the user was known by before the change,
+     *               null if the change didn't touch email, password or role and email was not read
+     */
+    void userChanged(UUID userId, String email);
+
+    /**
+     * Called when changes of some users may have been missed, e.g. invalidations from another node were lost
+     */
+    void allUsersChanged();
+}
@@ -0,0 +1,34 @@
+package andrianova.usermanager.domain;
+
+import io.leangen.graphql.annotations.GraphQLQuery;
+import io.leangen.graphql.annotations.types.GraphQLType;
+
+/**
+ * Result of creating user
+ */
+@GraphQLType(name = "CreateUserPayload")
+public class UserCreateResult {
+    /**
+     * Write outcome
+     */
+    private final WriteStatus status;
+    /**
+     * Created user, null if user was not created
+     */
+    private final User user;
+
+    public UserCreateResult(WriteStatus status, User user) {
+        this.status = status;
+        this.user = user;
+    }
+
+    @GraphQLQuery(name = "status")
+    public WriteStatus getStatus() {
+        return status;
+    }
+
+    @GraphQLQuery(name = "user")
+    public User getUser() {
+        return user;
+    }
+}
@@ -1,200 +1,261 @@
 package andrianova.usermanager.domain;
 
-import com.datastax.oss.driver.api.core.CqlSession;
-import com.datastax.oss.driver.api.core.cql.ResultSet;
-import com.datastax.oss.driver.api.core.cql.Row;
-import com.datastax.oss.driver.api.core.uuid.Uuids;
-import com.datastax.oss.protocol.internal.util.Bytes;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
-
-import java.nio.ByteBuffer;
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+import static andrianova.usermanager.domain.Futures.await;
 
 /**
- * Data access layer for {@link User}
+ * Data access layer for {@link User}.
+ * Every operation has a non-blocking {@code ...Async} variant, blocking variants wait for it to complete.
+ * Email is unique: writes which would give a user the email of another user fail with
+ * {@link WriteStatus#EMAIL_CONFLICT}.
+ * Implementations notify {@link UserChangeListener}s after a user was changed or deleted.
+ * <p>
+ * {@link CassandraUserDao} is used by default, {@link InMemoryUserDao} with {@code in-memory} profile.
+ * Both are qualified with {@link #STORAGE} and are wrapped by {@link CachingUserDao} unless the cache is disabled
  */
-@Repository
-public class UserDao {
-
-    private static final String COLUMNS = "id, email, password, first_name, last_name, avatar, role";
-
-    private static final Function<Row, User> ROW_MAPPER = row -> User.builder()
-            .withId(row.getUuid("id"))
-            .withEmail(row.getString("email"))
-            .withPassword(Password.ofHash(row.getString("password")))
-            .withFirstName(row.getString("first_name"))
-            .withLastName(row.getString("last_name"))
-            .withAvatar(Optional.ofNullable(row.getByteBuffer("avatar"))
-                    .map(Bytes::getArray).orElse(null))
-            .withRole(Role.findByCode(row.getInt("role")).orElse(null))
-            .build();
-
-    @Autowired
-    private CqlSession cqlSession;
-
-    /**
-     * Get all users
-     *
-     * @return users
-     */
-    public List<User> getUsers() {
-        return cqlSession.execute("select id, email, password, first_name, last_name, role from user")
-                .map(row -> User.builder()
-                        .withId(row.getUuid("id"))
-                        .withEmail(row.getString("email"))
-                        .withPassword(Password.ofHash(row.getString("password")))
-                        .withFirstName(row.getString("first_name"))
-                        .withLastName(row.getString("last_name"))
-                        .withRole(Role.findByCode(row.getInt("role")).orElse(null))
-                        .build()).all();
+public interface UserDao {
+
+    /**
+     * Qualifier of implementations which store users, as opposed to decorators
+     */
+    String STORAGE = "storage";
+
+    /**
+     * Get single page of users
+     *
+     * @param pageSize  max number of users on the page
+     * @param pageToken token of the page returned by previous call, null for the first page
+     * @param fields    fields to read
+     * @return users page
+     * @throws IllegalArgumentException if page token is malformed
+     */
+    default UserPage getUsers(int pageSize, String pageToken, Set<UserField> fields) {
+        return await(getUsersAsync(pageSize, pageToken, fields));
+    }
+
+    /**
+     * Get single page of users without blocking
+     *
+     * @see #getUsers(int, String, Set)
+     */
+    CompletionStage<UserPage> getUsersAsync(int pageSize, String pageToken, Set<UserField> fields);
+
+    /**
+     * Get single page of users ordered by last name, first name and id, see {@link UserNameKey}
+     *
+     * @param pageSize  max number of users on the page
+     * @param cursor    {@link UserPage#getNextPageToken()} or {@link UserPage#getPreviousPageToken()}
+     *                  of another page, null for the first or the last page
+     * @param direction whether users following or preceding the cursor are read
+     * @param fields    fields to read
+     * @return users page
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    default UserPage getUsersByName(int pageSize, String cursor, PageDirection direction, Set<UserField> fields) {
+        return await(getUsersByNameAsync(pageSize, cursor, direction, fields));
     }
 
+    /**
+     * Get single page of users ordered by name without blocking
+     *
+     * @see #getUsersByName(int, String, PageDirection, Set)
+     */
+    CompletionStage<UserPage> getUsersByNameAsync(int pageSize, String cursor, PageDirection direction,
+                                                  Set<UserField> fields);
+
+    /**
+     * Get single page of users having {@code role}, see {@link UserRoleKey}
+     *
+     * @param role      role of users
+     * @param pageSize  max number of users on the page
+     * @param pageToken token of the page returned by previous call, null for the first page
+     * @param fields    fields to read
+     * @return users page
+     * @throws IllegalArgumentException if page token is malformed
+     */
+    default UserPage getUsersByRole(Role role, int pageSize, String pageToken, Set<UserField> fields) {
+        return await(getUsersByRoleAsync(role, pageSize, pageToken, fields));
+    }
+
+    /**
+     * Get single page of users having {@code role} without blocking
+     *
+     * @see #getUsersByRole(Role, int, String, Set)
+     */
+    CompletionStage<UserPage> getUsersByRoleAsync(Role role, int pageSize, String pageToken, Set<UserField> fields);
+
+    /**
+     * Iterates over all users with {@link UserField#SUMMARY} fields fetching them page by page,
+     * so that only one page is held in memory at a time
+     *
+     * @param pageSize number of users fetched at a time
+     * @param consumer user consumer
+     */
+    void forEachUser(int pageSize, Consumer<User> consumer);
+
     /**
      * Find user by id
      *
      * @param userId user id
      * @return user
      */
-    public Optional<User> findById(UUID userId) {
-        return Optional.ofNullable(
-                cqlSession.execute("select * from user where id=?", userId)
-                        .map(ROW_MAPPER).one());
+    default Optional<User> findById(UUID userId) {
+        return await(findByIdAsync(userId));
     }
 
     /**
-     * Stores user in the database
+     * Find user by id without blocking
      *
-     * @param user user to store
+     * @see #findById(UUID)
      */
-    public Optional<UUID> create(User user) {
-        UUID uuid = Uuids.timeBased();
-        ResultSet resultSet = cqlSession.execute("begin batch " +
-                        "insert into user (" +
-                        COLUMNS +
-                        ") values (?, ?, ?, ?, ?, ?, ?); " +
-                        "insert into user_email (id, email) " +
-                        "values (?, ?); " +
-                        "apply batch;",
-                uuid, user.getEmail(), user.getPassword().getHash(),
-                user.getFirstName(), user.getLastName(),
-                Optional.ofNullable(user.getAvatar()).map(ByteBuffer::wrap).orElse(null),
-                user.getRole().getCode(),
-                uuid, user.getEmail());
-        if (resultSet.wasApplied()) {
-            return Optional.of(uuid);
-        }
-        return Optional.empty();
+    default CompletionStage<Optional<User>> findByIdAsync(UUID userId) {
+        return findByIdAsync(userId, UserField.ALL);
     }
 
+    /**
+     * Find user by id reading only requested fields
+     *
+     * @param userId user id
+     * @param fields fields to read, fields not requested are null in returned user
+     * @return user
+     */
+    default Optional<User> findById(UUID userId, Set<UserField> fields) {
+        return await(findByIdAsync(userId, fields));
+    }
+
+    /**
+     * Find user by id reading only requested fields without blocking
+     *
+     * @see #findById(UUID, Set)
+     */
+    CompletionStage<Optional<User>> findByIdAsync(UUID userId, Set<UserField> fields);
+
+    /**
+     * Find users by ids without blocking
+     *
+     * @param userIds user ids
+     * @param fields  fields to read
+     * @return found users by id, ids of missing users are absent
+     */
+    CompletionStage<Map<UUID, User>> findByIdsAsync(Collection<UUID> userIds, Set<UserField> fields);
+
     /**
      * Finds user id by {@code email}
      *
      * @param email user email
      * @return user id, if present
      */
-    public Optional<UUID> findByEmail(String email) {
-        return Optional.ofNullable(
-                cqlSession.execute("select id from user_email where email=?", email)
-                        .one()).map(row -> row.getUuid("id"));
+    default Optional<UUID> findByEmail(String email) {
+        return await(findByEmailAsync(email));
     }
 
     /**
-     * Updates user information in the database
+     * Finds user id by {@code email} without blocking
      *
-     * @param userId
-     * @param user   user to update
+     * @see #findByEmail(String)
+     */
+    CompletionStage<Optional<UUID>> findByEmailAsync(String email);
+
+    /**
+     * Finds {@link UserField#CREDENTIALS} of user by {@code email} with a single read
+     *
+     * @param email user email
+     * @return id, email, password and role of the user, if present
      */
-    @Transactional
-    public boolean update(UUID userId, User user) {
-        Optional<User> oldUserOpt = findById(userId);
-        if (oldUserOpt.isEmpty()) {
-            return false;
-        }
-        User oldUser = oldUserOpt.get();
-        Map<String, Object> updatedValues = getUpdatedColumns(user, oldUser);
-
-        if (!Objects.equals(oldUser.getEmail(), user.getEmail())) {
-            if (!updateEmail(userId, oldUser.getEmail(), user.getEmail())) {
-                return false;
-            }
-        } else if (updatedValues.isEmpty()) {
-            return false;
-        }
-
-        String columns = updatedValues.keySet()
-                .stream()
-                .map(s -> s + "=?")
-                .collect(Collectors.joining(", "));
-        updatedValues.put("id", userId);
-
-        cqlSession.execute("update user set " +
-                columns +
-                " where id=?", updatedValues);
-        return true;
+    default Optional<User> findCredentialsByEmail(String email) {
+        return await(findCredentialsByEmailAsync(email));
     }
 
-    private boolean updateEmail(UUID userId, String oldEmail, String newEmail) {
-        if (findByEmail(newEmail).isPresent()) {
-            return false;
-        }
-        cqlSession.execute("begin batch " +
-                        "update user set email=? where id=?; " +
-                        "delete from user_email where id=? and email=?; " +
-                        "insert into user_email(id, email) values(?, ?); " +
-                        "apply batch;",
-                newEmail, userId, userId, oldEmail, userId, newEmail);
-        return true;
+    /**
+     * Finds {@link UserField#CREDENTIALS} of user by {@code email} without blocking
+     *
+     * @see #findCredentialsByEmail(String)
+     */
+    CompletionStage<Optional<User>> findCredentialsByEmailAsync(String email);
+
+    /**
+     * Stores new user
+     *
+     * @param user user to store
+     * @return id of created user or {@link WriteStatus#EMAIL_CONFLICT}
+     */
+    default UserWriteResult create(User user) {
+        return await(createAsync(user));
     }
 
-    private Map<String, Object> getUpdatedColumns(User user, User oldUser) {
-        Map<String, Object> values = new HashMap<>();
-        if (!Objects.equals(user.getEmail(), oldUser.getEmail())) {
-            values.put("email", user.getEmail());
-        }
-        if (!Objects.equals(user.getPassword(), oldUser.getPassword())) {
-            values.put("password", user.getPassword().getHash());
-        }
-        if (!Objects.equals(user.getFirstName(), oldUser.getFirstName())) {
-            values.put("first_name", user.getFirstName());
-        }
-        if (!Objects.equals(user.getLastName(), oldUser.getLastName())) {
-            values.put("last_name", user.getLastName());
-        }
-        if (!Arrays.equals(user.getAvatar(), oldUser.getAvatar())) {
-            values.put("avatar", Optional.ofNullable(user.getAvatar()).map(ByteBuffer::wrap).orElse(null));
-        }
-        if (!Objects.equals(user.getRole(), oldUser.getRole())) {
-            values.put("role", user.getRole().getCode());
-        }
-        return values;
+    /**
+     * Stores new user without blocking
+     *
+     * @see #create(User)
+     */
+    CompletionStage<UserWriteResult> createAsync(User user);
+
+    /**
+     * Updates user information
+     *
+     * @param userId user id
+     * @param user   user to update
+     * @return update outcome
+     */
+    default UserWriteResult update(UUID userId, User user) {
+        return await(updateAsync(userId, user));
     }
 
     /**
-     * Delete user
+     * Updates user information without blocking
+     *
+     * @see #update(UUID, User)
+     */
+    CompletionStage<UserWriteResult> updateAsync(UUID userId, User user);
+
+    /**
+     * Writes non-null fields of {@code patch}, other fields are not changed
      *
      * @param userId user id
+     * @param patch  fields to write
+     * @return update outcome
      */
-    public boolean delete(UUID userId) {
-        Optional<String> email = findEmail(userId);
-        if (email.isEmpty()) {
-            return false;
-        }
-        cqlSession.execute("begin batch " +
-                        "delete from user where id=?; " +
-                        "delete from user_email where id=? and email=?; " +
-                        "apply batch;",
-                userId, userId, email.get());
-        return true;
+    default UserWriteResult patch(UUID userId, User patch) {
+        return await(patchAsync(userId, patch));
     }
 
-    private Optional<String> findEmail(UUID userId) {
-        return Optional.ofNullable(
-                cqlSession.execute("select email from user where id=?", userId)
-                        .map(row -> row.getString("email")).one());
+    /**
+     * Writes non-null fields of {@code patch} without blocking
+     *
+     * @see #patch(UUID, User)
+     */
+    CompletionStage<UserWriteResult> patchAsync(UUID userId, User patch);
+
+    /**
+     * Replaces password hash of the user if it was not changed since it was read, used to rehash passwords on login
+     *
+     * @param user     user with {@link UserField#CREDENTIALS} as it was read
+     * @param password new password hash
+     * @return true if password was replaced, false if user doesn't exist or its password was changed
+     */
+    CompletionStage<Boolean> replacePasswordAsync(User user, Password password);
+
+    /**
+     * Delete user
+     *
+     * @param userId user id
+     * @return true if user was deleted
+     */
+    default boolean delete(UUID userId) {
+        return await(deleteAsync(userId));
     }
 
+    /**
+     * Delete user without blocking
+     *
+     * @see #delete(UUID)
+     */
+    CompletionStage<Boolean> deleteAsync(UUID userId);
 }
@@ -0,0 +1,60 @@
+package andrianova.usermanager.domain;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Fields of {@link User} that can be read from the database
+ */
+public enum UserField {
+    ID("id", "id"),
+    EMAIL("email", "email"),
+    PASSWORD("password", "password"),
+    FIRST_NAME("first_name", "firstName"),
+    LAST_NAME("last_name", "lastName"),
+    AVATAR_ID("avatar_id", "avatarId"),
+    ROLE("role", "role");
+
+    /**
+     * All user fields
+     */
+    public static final Set<UserField> ALL = Collections.unmodifiableSet(EnumSet.allOf(UserField.class));
+    /**
+     * Fields shown in user lists
+     */
+    public static final Set<UserField> SUMMARY = Collections.unmodifiableSet(
+            EnumSet.of(ID, EMAIL, FIRST_NAME, LAST_NAME, ROLE));
+    /**
+     * Fields users are sorted by in listings ordered by name
+     */
+    public static final Set<UserField> NAME = Collections.unmodifiableSet(
+            EnumSet.of(ID, FIRST_NAME, LAST_NAME));
+    /**
+     * Fields needed to authenticate user
+     */
+    public static final Set<UserField> CREDENTIALS = Collections.unmodifiableSet(
+            EnumSet.of(ID, EMAIL, PASSWORD, ROLE));
+
+    private final String column;
+    private final String graphQlName;
+
+    UserField(String column, String graphQlName) {
+        this.column = column;
+        this.graphQlName = graphQlName;
+    }
+
+    /**
+     * @return column name in {@code user} table
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * @return field name in GraphQL schema
+     */
+    public String getGraphQlName() {
+        return graphQlName;
+    }
+}
@@ -0,0 +1,185 @@
+package andrianova.usermanager.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcasts user changes made on this instance to other instances and applies changes received from them
+ * to local {@link UserChangeListener}s, such as {@link UserCache}.
+ * <p>
+ * Changes are collected and sent every {@code flush-interval-ms}, repeated changes of a user are sent once.
+ * Messages of every instance are numbered, a gap in numbers means a message was lost
+ * and all local caches are cleared. Instance sends a heartbeat with its current number
+ * if it had nothing to send for {@code heartbeat-interval-ms}, so a lost message is detected within that interval,
+ * and caches are cleared if an instance which was heard before is silent for {@value #MISSED_HEARTBEATS} intervals.
+ * So a cached user is stale for at most about {@code flush-interval-ms + heartbeat-interval-ms}
+ * after it was changed on another instance.
+ */
+@Component
+@ConditionalOnExpression("'${user-manager.invalidation.channel:none}' != 'none'")
+public class UserInvalidationBus implements UserChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(UserInvalidationBus.class);
+
+    /**
+     * Max number of invalidations in one message
+     */
+    private static final int MAX_BATCH = 50;
+    /**
+     * Number of heartbeat intervals after which silent instance is considered lost
+     */
+    private static final int MISSED_HEARTBEATS = 3;
+
+    @Autowired
+    private UserInvalidationChannel channel;
+    @Autowired(required = false)
+    private List<UserChangeListener> changeListeners = Collections.emptyList();
+
+    /**
+     * Interval of sending collected changes
+     */
+    @Value("${user-manager.invalidation.flush-interval-ms:20}")
+    private long flushIntervalMs;
+    /**
+     * Max interval between messages sent by this instance
+     */
+    @Value("${user-manager.invalidation.heartbeat-interval-ms:1000}")
+    private long heartbeatIntervalMs;
+
+    private final UUID nodeId = UUID.randomUUID();
+    private final Set<UserInvalidationChannel.Invalidation> pending = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Peer> peers = new HashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "user-invalidation-bus");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long sequence;
+    private long lastPublishedNanos = System.nanoTime();
+
+    @PostConstruct
+    public void start() {
+        channel.subscribe(this::receive);
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void userChanged(UUID userId, String email) {
+        pending.add(new UserInvalidationChannel.Invalidation(userId, email));
+    }
+
+    /**
+     * Only invalidations of single users are broadcast
+     */
+    @Override
+    public void allUsersChanged() {
+    }
+
+    /**
+     * Sends collected invalidations or a heartbeat, and clears caches if another instance went silent
+     */
+    void flush() {
+        try {
+            List<UserInvalidationChannel.Invalidation> batch = new ArrayList<>();
+            for (UserInvalidationChannel.Invalidation invalidation : pending) {
+                if (pending.remove(invalidation)) {
+                    batch.add(invalidation);
+                }
+                if (batch.size() == MAX_BATCH) {
+                    publish(batch);
+                    batch.clear();
+                }
+            }
+            long now = System.nanoTime();
+            if (!batch.isEmpty() || now - lastPublishedNanos >= TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMs)) {
+                publish(batch);
+            }
+            checkPeers(now);
+        } catch (RuntimeException e) {
+            log.error("Failed to flush user invalidations", e);
+        }
+    }
+
+    private void publish(List<UserInvalidationChannel.Invalidation> batch) {
+        lastPublishedNanos = System.nanoTime();
+        channel.publish(new UserInvalidationChannel.Message(nodeId, ++sequence, batch));
+    }
+
+    /**
+     * Applies invalidations received from another instance
+     */
+    synchronized void receive(UserInvalidationChannel.Message message) {
+        if (message.getNodeId().equals(nodeId)) {
+            return;
+        }
+        Peer peer = peers.get(message.getNodeId());
+        if (peer != null && message.getSequence() > peer.sequence + 1) {
+            log.warn("Lost {} invalidation messages from {}, clearing caches",
+                    message.getSequence() - peer.sequence - 1, message.getNodeId());
+            notifyAllChanged();
+        } else {
+            for (UserInvalidationChannel.Invalidation invalidation : message.getInvalidations()) {
+                changeListeners.stream()
+                        .filter(listener -> listener != this)
+                        .forEach(listener -> listener.userChanged(invalidation.getUserId(), invalidation.getEmail()));
+            }
+        }
+        if (peer == null) {
+            peer = new Peer();
+            peers.put(message.getNodeId(), peer);
+        }
+        peer.sequence = Math.max(peer.sequence, message.getSequence());
+        peer.lastReceivedNanos = System.nanoTime();
+    }
+
+    private synchronized void checkPeers(long now) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMs * MISSED_HEARTBEATS);
+        for (Iterator<Map.Entry<UUID, Peer>> iterator = peers.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<UUID, Peer> peer = iterator.next();
+            if (now - peer.getValue().lastReceivedNanos > timeout) {
+                log.warn("No invalidation messages from {}, clearing caches", peer.getKey());
+                iterator.remove();
+                notifyAllChanged();
+            }
+        }
+    }
+
+    private void notifyAllChanged() {
+        changeListeners.stream()
+                .filter(listener -> listener != this)
+                .forEach(UserChangeListener::allUsersChanged);
+    }
+
+    /**
+     * Last message received from another instance
+     */
+    private static class Peer {
+        private long sequence;
+        private long lastReceivedNanos;
+    }
+}
@@ -0,0 +1,177 @@
+package andrianova.usermanager.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Channel broadcasting user invalidations between application instances, used by {@link UserInvalidationBus}.
+ * Delivery is not guaranteed, messages may be lost, duplicated or reordered.
+ * Implementation is selected by {@code user-manager.invalidation.channel} property
+ */
+public interface UserInvalidationChannel {
+
+    /**
+     * Sends message to all instances, possibly including this one
+     *
+     * @param message message
+     */
+    void publish(Message message);
+
+    /**
+     * Registers consumer of received messages
+     *
+     * @param consumer message consumer, called on the channel thread
+     */
+    void subscribe(Consumer<Message> consumer);
+
+    /**
+     * Batch of invalidations sent by one instance
+     */
+    class Message {
+
+        /**
+         * Format version, first byte of encoded message
+         */
+        private static final byte VERSION = 1;
+
+        /**
+         * Random id of the sending instance, chosen on startup
+         */
+        private final UUID nodeId;
+        /**
+         * Number of the message sent by the instance, starting from 1 without gaps
+         */
+        private final long sequence;
+        /**
+         * Changed users, empty for heartbeat
+         */
+        private final List<Invalidation> invalidations;
+
+        public Message(UUID nodeId, long sequence, List<Invalidation> invalidations) {
+            this.nodeId = Objects.requireNonNull(nodeId);
+            this.sequence = sequence;
+            this.invalidations = Collections.unmodifiableList(new ArrayList<>(invalidations));
+        }
+
+        public UUID getNodeId() {
+            return nodeId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public List<Invalidation> getInvalidations() {
+            return invalidations;
+        }
+
+        /**
+         * @return binary representation of the message
+         */
+        public byte[] toBytes() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeByte(VERSION);
+                writeUuid(out, nodeId);
+                out.writeLong(sequence);
+                out.writeInt(invalidations.size());
+                for (Invalidation invalidation : invalidations) {
+                    writeUuid(out, invalidation.getUserId());
+                    out.writeBoolean(invalidation.getEmail() != null);
+                    if (invalidation.getEmail() != null) {
+                        out.writeUTF(invalidation.getEmail());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Parses message
+         *
+         * @param bytes  buffer
+         * @param offset offset of the message in the buffer
+         * @param length length of the message
+         * @return message
+         * @throws IOException if message is malformed
+         */
+        public static Message fromBytes(byte[] bytes, int offset, int length) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported message version " + version);
+            }
+            UUID nodeId = readUuid(in);
+            long sequence = in.readLong();
+            int count = in.readInt();
+            List<Invalidation> invalidations = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                UUID userId = readUuid(in);
+                String email = in.readBoolean() ? in.readUTF() : null;
+                invalidations.add(new Invalidation(userId, email));
+            }
+            return new Message(nodeId, sequence, invalidations);
+        }
+
+        private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private static UUID readUuid(DataInputStream in) throws IOException {
+            return new UUID(in.readLong(), in.readLong());
+        }
+
+        @Override
+        public String toString() {
+            return "Message{nodeId=" + nodeId + ", sequence=" + sequence +
+                    ", invalidations=" + invalidations.size() + '}';
+        }
+    }
+
+    /**
+     * Changed user, see {@link UserChangeListener#userChanged(UUID, String)}
+     */
+    class Invalidation {
+        private final UUID userId;
+        private final String email;
+
+        public Invalidation(UUID userId, String email) {
+            this.userId = Objects.requireNonNull(userId);
+            this.email = email;
+        }
+
+        public UUID getUserId() {
+            return userId;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Invalidation that = (Invalidation) o;
+            return userId.equals(that.userId) && Objects.equals(email, that.email);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, email);
+        }
+    }
+}
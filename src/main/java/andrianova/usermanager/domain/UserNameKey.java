@@ -0,0 +1,258 @@
+package andrianova.usermanager.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Sort key of a user in listings ordered by name: last name, first name, then id.
+ * Names are compared case-insensitively, missing names sort as empty ones.
+ * Keys are split into {@link #BUCKETS} buckets by the first character of the last name,
+ * so that buckets themselves are ordered: every key of a bucket precedes every key of the next bucket,
+ * and a page is read from a bucket with one range query in its clustering order, continuing with
+ * the next bucket only if the bucket ends before the page is filled.
+ * Keys of the users at the edges of a page are its opaque cursors
+ */
+final class UserNameKey implements Comparable<UserNameKey> {
+
+    /**
+     * Number of buckets: one for last names before {@code a}, one per letter {@code a-z},
+     * one for last names after {@code z}
+     */
+    static final int BUCKETS = 28;
+
+    /**
+     * Fields stored in {@code user_by_name} rows, pages with other fields read users by id
+     */
+    static final Set<UserField> LISTED = UserField.SUMMARY;
+
+    private final String lastName;
+    private final String firstName;
+    private final UUID id;
+
+    UserNameKey(String lastName, String firstName, UUID id) {
+        this.lastName = lastName;
+        this.firstName = firstName;
+        this.id = id;
+    }
+
+    /**
+     * @param user user with {@link UserField#NAME} fields
+     * @return sort key of the user
+     */
+    static UserNameKey of(User user) {
+        return of(user.getId(), user);
+    }
+
+    /**
+     * @param userId id of the user
+     * @param user   user with first and last name, which may have no id yet
+     * @return sort key of the user
+     */
+    static UserNameKey of(UUID userId, User user) {
+        return new UserNameKey(normalize(user.getLastName()), normalize(user.getFirstName()), userId);
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return normalized last name
+     */
+    String getLastName() {
+        return lastName;
+    }
+
+    /**
+     * @return normalized first name
+     */
+    String getFirstName() {
+        return firstName;
+    }
+
+    UUID getId() {
+        return id;
+    }
+
+    /**
+     * @return bucket of the key, between 0 and {@link #BUCKETS} - 1
+     */
+    int bucket() {
+        if (lastName.isEmpty() || lastName.charAt(0) < 'a') {
+            return 0;
+        }
+        char first = lastName.charAt(0);
+        return first <= 'z' ? first - 'a' + 1 : BUCKETS - 1;
+    }
+
+    /**
+     * @return opaque cursor pointing at this key
+     */
+    String toCursor() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(lastName);
+            out.writeUTF(firstName);
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @param cursor cursor returned by {@link #toCursor()}
+     * @return key the cursor points at
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    static UserNameKey fromCursor(String cursor) {
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            UserNameKey key = new UserNameKey(in.readUTF(), in.readUTF(), new UUID(in.readLong(), in.readLong()));
+            if (in.read() != -1) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor);
+            }
+            return key;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+    }
+
+    /**
+     * Builds a page of users from keys read in {@code direction} of the listing
+     *
+     * @param keys       keys read from the cursor, one more than page size if there are more users
+     * @param pageSize   max number of users on the page
+     * @param fromCursor true if keys were read from a cursor, false if from the start or the end of the listing
+     * @param direction  direction keys were read in
+     * @param users      users of the keys read with {@link #fields(Set)}, users which are missing or whose name
+     *                   doesn't match the key are left out, as their keys are stale
+     * @param fields     fields of users on the page
+     * @return page of users in the order of the listing
+     */
+    static UserPage toPage(List<UserNameKey> keys, int pageSize, boolean fromCursor, PageDirection direction,
+                           Map<UUID, User> users, Set<UserField> fields) {
+        boolean hasMore = keys.size() > pageSize;
+        List<UserNameKey> pageKeys = new ArrayList<>(keys.subList(0, Math.min(pageSize, keys.size())));
+        if (direction == PageDirection.BACKWARD) {
+            Collections.reverse(pageKeys);
+        }
+        List<User> page = new ArrayList<>(pageKeys.size());
+        for (UserNameKey key : pageKeys) {
+            if (key.matches(users)) {
+                page.add(users.get(key.getId()).project(fields));
+            }
+        }
+        if (pageKeys.isEmpty()) {
+            return new UserPage(page, null, null);
+        }
+        String startCursor = pageKeys.get(0).toCursor();
+        String endCursor = pageKeys.get(pageKeys.size() - 1).toCursor();
+        boolean hasNext = direction == PageDirection.FORWARD ? hasMore : fromCursor;
+        boolean hasPrevious = direction == PageDirection.FORWARD ? fromCursor : hasMore;
+        return new UserPage(page, hasNext ? endCursor : null, hasPrevious ? startCursor : null);
+    }
+
+    /**
+     * @param users users read by id with {@link UserField#NAME} fields
+     * @return true if the user of this key exists and has the names of the key, false if the key is stale
+     */
+    boolean matches(Map<UUID, User> users) {
+        User user = users.get(id);
+        return user != null && equals(of(user));
+    }
+
+    /**
+     * @param fields fields of users on the page
+     * @return fields to read so that users can be checked against their keys
+     */
+    static Set<UserField> fields(Set<UserField> fields) {
+        EnumSet<UserField> read = EnumSet.copyOf(UserField.NAME);
+        read.addAll(fields);
+        return read;
+    }
+
+    /**
+     * Orders keys for in-memory storage the way {@code user_by_name} clustering columns order them:
+     * names by code points, ids by version, timestamp, then bits.
+     * Cassandra listings don't depend on it, pages are read in clustering order
+     */
+    @Override
+    public int compareTo(UserNameKey other) {
+        int compared = compareNames(lastName, other.lastName);
+        if (compared == 0) {
+            compared = compareNames(firstName, other.firstName);
+        }
+        return compared != 0 ? compared : compareIds(id, other.id);
+    }
+
+    private static int compareNames(String name, String other) {
+        int length = Math.min(name.length(), other.length());
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            char o = other.charAt(i);
+            if (c != o) {
+                // surrogates encode code points above any other char
+                boolean surrogate = Character.isSurrogate(c);
+                return surrogate == Character.isSurrogate(o) ? Character.compare(c, o) : surrogate ? 1 : -1;
+            }
+        }
+        return Integer.compare(name.length(), other.length());
+    }
+
+    /**
+     * Compares ids by version, then time-based ids by timestamp, then by unsigned bits
+     */
+    private static int compareIds(UUID id, UUID other) {
+        int compared = Integer.compare(id.version(), other.version());
+        if (compared == 0 && id.version() == 1) {
+            compared = Long.compare(id.timestamp(), other.timestamp());
+        }
+        if (compared == 0) {
+            compared = Long.compareUnsigned(id.getMostSignificantBits(), other.getMostSignificantBits());
+        }
+        return compared != 0 ? compared : Long.compareUnsigned(id.getLeastSignificantBits(),
+                other.getLeastSignificantBits());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        UserNameKey that = (UserNameKey) o;
+        return lastName.equals(that.lastName) && firstName.equals(that.firstName) && id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lastName, firstName, id);
+    }
+
+    @Override
+    public String toString() {
+        return "UserNameKey{" +
+                "lastName='" + lastName + '\'' +
+                ", firstName='" + firstName + '\'' +
+                ", id=" + id +
+                '}';
+    }
+}
@@ -0,0 +1,93 @@
+package andrianova.usermanager.domain;
+
+import io.leangen.graphql.annotations.GraphQLQuery;
+import io.leangen.graphql.annotations.types.GraphQLType;
+
+import java.util.List;
+
+/**
+ * Single page of users
+ */
+@GraphQLType(name = "UserConnection")
+public class UserPage {
+    /**
+     * Users on the page
+     */
+    private final List<User> users;
+    /**
+     * Opaque token of the next page, null if this page is the last one
+     */
+    private final String nextPageToken;
+    /**
+     * Opaque token of the previous page, null if this page is the first one or listing can't go back
+     */
+    private final String previousPageToken;
+
+    public UserPage(List<User> users, String nextPageToken) {
+        this(users, nextPageToken, null);
+    }
+
+    public UserPage(List<User> users, String nextPageToken, String previousPageToken) {
+        this.users = users;
+        this.nextPageToken = nextPageToken;
+        this.previousPageToken = previousPageToken;
+    }
+
+    @GraphQLQuery(name = "nodes")
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public String getPreviousPageToken() {
+        return previousPageToken;
+    }
+
+    @GraphQLQuery(name = "pageInfo")
+    public PageInfo getPageInfo() {
+        return new PageInfo(nextPageToken, previousPageToken);
+    }
+
+    /**
+     * Cursor information of the page
+     */
+    @GraphQLType(name = "PageInfo")
+    public static class PageInfo {
+        /**
+         * Cursor to pass as {@code after} to get the next page
+         */
+        private final String endCursor;
+        /**
+         * Cursor to pass as {@code before} to get the previous page
+         */
+        private final String startCursor;
+
+        private PageInfo(String endCursor, String startCursor) {
+            this.endCursor = endCursor;
+            this.startCursor = startCursor;
+        }
+
+        @GraphQLQuery(name = "endCursor")
+        public String getEndCursor() {
+            return endCursor;
+        }
+
+        @GraphQLQuery(name = "hasNextPage")
+        public boolean hasNextPage() {
+            return endCursor != null;
+        }
+
+        @GraphQLQuery(name = "startCursor")
+        public String getStartCursor() {
+            return startCursor;
+        }
+
+        @GraphQLQuery(name = "hasPreviousPage")
+        public boolean hasPreviousPage() {
+            return startCursor != null;
+        }
+    }
+}
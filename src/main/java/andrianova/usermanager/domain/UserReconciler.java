@@ -0,0 +1,494 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static andrianova.usermanager.domain.Futures.await;
+
+/**
+ * Repairs inconsistencies between {@code user} and {@code user_email} tables left by partially failed writes:
+ * <ul>
+ *     <li>replays {@link UserWriteJournal}</li>
+ *     <li>releases emails reserved for users which don't exist or have another email</li>
+ *     <li>reserves emails of users which have no reservation</li>
+ *     <li>copies password and role of users to their reservations, which backfills reservations written
+ *     before credentials were denormalized and fixes ones left stale by concurrent writes</li>
+ *     <li>deletes users whose email was already reserved for another user when they got it,
+ *     which are leftovers of writes which failed to be undone; users which had the email first
+ *     are logged for an operator, as they lost their reservation to a failed write</li>
+ *     <li>inserts {@code user_by_name} rows of users which have none and deletes rows of users
+ *     which don't exist or have another name</li>
+ *     <li>inserts {@code user_by_role} rows of users which have none and deletes rows of users
+ *     which don't exist or have another role</li>
+ * </ul>
+ * Every instance replays its own journal. Scans of the tables are disabled by default, when enabled
+ * they are run by one instance at a time: a run takes the lease in {@code reconciler_lease} table
+ * with a conditional write, skips the scan if another instance holds it, and scans the next
+ * {@code segments-per-run} of {@code segments} token ranges, so that the tables are scanned a slice per run.
+ * Rows of a slice are checked asynchronously, at most {@code concurrency} at a time.
+ * Rows written less than grace period ago are skipped, as writes of requests in flight may be incomplete.
+ * Index rows have no write time, they are deleted only if they don't match the user,
+ * which can't happen to a row of a write in flight, as it is written after the user
+ */
+@Component
+@Profile("!in-memory")
+public class UserReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(UserReconciler.class);
+
+    /**
+     * Number of rows fetched per round trip while scanning tables
+     */
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Name of the lease row
+     */
+    private static final String LEASE = "user";
+
+    @Autowired
+    private CqlSession cqlSession;
+    @Autowired
+    private UserStatements statements;
+    @Autowired
+    private CassandraUserDao userDao;
+    @Autowired
+    private UserWriteJournal journal;
+
+    /**
+     * Whether tables are scanned
+     */
+    @Value("${user-manager.reconciler.enabled:false}")
+    private boolean enabled;
+    /**
+     * Min age of rows to check
+     */
+    @Value("${user-manager.reconciler.grace-period-seconds:60}")
+    private long gracePeriodSeconds;
+    /**
+     * Number of token ranges the tables are split into
+     */
+    @Value("${user-manager.reconciler.segments:64}")
+    private int segments;
+    /**
+     * Number of token ranges scanned by a run
+     */
+    @Value("${user-manager.reconciler.segments-per-run:4}")
+    private int segmentsPerRun;
+    /**
+     * Max number of rows checked concurrently
+     */
+    @Value("${user-manager.reconciler.concurrency:16}")
+    private int concurrency;
+    /**
+     * Time the lease is held if the instance fails to release it
+     */
+    @Value("${user-manager.reconciler.lease-seconds:600}")
+    private int leaseSeconds;
+
+    private final UUID instanceId = UUID.randomUUID();
+
+    private PreparedStatement createLease;
+    private PreparedStatement acquireLease;
+    private PreparedStatement selectLease;
+    private PreparedStatement releaseLease;
+
+    @PostConstruct
+    public void prepare() {
+        if (!enabled) {
+            return;
+        }
+        createLease = cqlSession.prepare("insert into reconciler_lease (name, next_segment) values (?, 0) " +
+                "if not exists");
+        acquireLease = cqlSession.prepare("update reconciler_lease using ttl ? set owner=? where name=? " +
+                "if owner=null");
+        selectLease = cqlSession.prepare("select next_segment from reconciler_lease where name=?");
+        releaseLease = cqlSession.prepare("update reconciler_lease set owner=null, next_segment=? where name=? " +
+                "if owner=?");
+        cqlSession.execute(createLease.bind(LEASE));
+    }
+
+    /**
+     * Replays the journal and, if scans are enabled and the lease is taken,
+     * runs all repairs over the next token ranges
+     *
+     * @return number of repaired rows
+     */
+    @Scheduled(initialDelayString = "${user-manager.reconciler.interval-ms:300000}",
+            fixedDelayString = "${user-manager.reconciler.interval-ms:300000}")
+    public int reconcile() {
+        int replayed = replayJournal();
+        if (!enabled) {
+            return replayed;
+        }
+        if (!cqlSession.execute(acquireLease.bind(leaseSeconds, instanceId, LEASE)).wasApplied()) {
+            log.debug("Reconciler lease is held by another instance, skipped the scan");
+            return replayed;
+        }
+        int firstSegment = 0;
+        int scanned = 0;
+        try {
+            Row lease = cqlSession.execute(selectLease.bind(LEASE)
+                    .setConsistencyLevel(DefaultConsistencyLevel.SERIAL)).one();
+            firstSegment = lease == null || lease.isNull("next_segment") ? 0 : lease.getInt("next_segment") % segments;
+            long writtenBefore = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis())
+                    - TimeUnit.SECONDS.toMicros(gracePeriodSeconds);
+            int releasedEmails = 0;
+            int repairedUsers = 0;
+            int removedNames = 0;
+            int removedRoles = 0;
+            for (; scanned < Math.min(segmentsPerRun, segments); scanned++) {
+                int segment = (firstSegment + scanned) % segments;
+                releasedEmails += forEachRow(statements.selectEmailReservations(), segment,
+                        row -> releaseOrphanedEmail(row, writtenBefore));
+                repairedUsers += forEachRow(statements.selectUserCredentials(), segment,
+                        row -> repairUser(row, writtenBefore));
+                removedNames += forEachRow(statements.selectNames(), segment, this::removeStaleName);
+                removedRoles += forEachRow(statements.selectRoles(), segment, this::removeStaleRole);
+            }
+            int total = replayed + releasedEmails + repairedUsers + removedNames + removedRoles;
+            if (total > 0) {
+                log.info("Replayed {} journal entries, released {} orphaned emails, " +
+                                "repaired {} users and reservations, " +
+                                "removed {} stale name and {} stale role index rows",
+                        replayed, releasedEmails, repairedUsers, removedNames, removedRoles);
+            }
+            return total;
+        } finally {
+            cqlSession.execute(releaseLease.bind((firstSegment + scanned) % segments, LEASE, instanceId));
+        }
+    }
+
+    private int replayJournal() {
+        int replayed = 0;
+        for (UserWriteJournal.Entry entry : journal.drain()) {
+            try {
+                await(userDao.replay(entry));
+                replayed++;
+            } catch (RuntimeException e) {
+                log.warn("Failed to replay {}", entry, e);
+                journal.record(entry);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Runs {@code check} for every row of {@code statement} bound to the first and the last token of {@code segment},
+     * keeping at most {@link #concurrency} checks in flight. Failed checks are logged and retried by later scans
+     *
+     * @return number of rows whose check completed with true
+     */
+    private int forEachRow(PreparedStatement statement, int segment, Function<Row, CompletionStage<Boolean>> check) {
+        long width = Long.divideUnsigned(-1L, segments);
+        long first = Long.MIN_VALUE + width * segment;
+        long last = segment == segments - 1 ? Long.MAX_VALUE : first + width - 1;
+        BoundStatement range = statement.bind(first, last).setPageSize(PAGE_SIZE);
+        Semaphore permits = new Semaphore(concurrency);
+        AtomicInteger repaired = new AtomicInteger();
+        for (Row row : cqlSession.execute(range)) {
+            permits.acquireUninterruptibly();
+            CompletableFuture.completedFuture(row).thenCompose(check).whenComplete((result, error) -> {
+                if (error != null) {
+                    log.warn("Failed to check {}", row.getFormattedContents(), error);
+                } else if (result) {
+                    repaired.incrementAndGet();
+                }
+                permits.release();
+            });
+        }
+        permits.acquireUninterruptibly(concurrency);
+        return repaired.get();
+    }
+
+    /**
+     * Releases the reservation if its user doesn't exist or has another email
+     *
+     * @param reservation row of {@link UserStatements#selectEmailReservations()}
+     * @return true if email was released
+     */
+    private CompletionStage<Boolean> releaseOrphanedEmail(Row reservation, long writtenBefore) {
+        if (reservation.getLong("written") > writtenBefore) {
+            return CompletableFuture.completedFuture(false);
+        }
+        String email = reservation.getString("email");
+        UUID userId = reservation.getUuid("id");
+        return cqlSession.executeAsync(statements.selectEmailById().bind(userId)).thenCompose(user -> {
+            Row row = user.one();
+            if (row != null && email.equals(row.getString("email"))) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return cqlSession.executeAsync(statements.releaseEmail().bind(email, userId)).thenApply(released -> {
+                if (!released.wasApplied()) {
+                    return false;
+                }
+                log.warn("Released email {} reserved for {}", email, userId);
+                userDao.notifyChanged(userId, email);
+                return true;
+            });
+        });
+    }
+
+    /**
+     * Repairs email reservation and index rows of the user
+     *
+     * @param user row of {@link UserStatements#selectUserCredentials()}
+     * @return true if anything was repaired
+     */
+    private CompletionStage<Boolean> repairUser(Row user, long writtenBefore) {
+        if (user.isNull("written") || user.getLong("written") > writtenBefore) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return repairReservation(user, writtenBefore)
+                .thenCombine(repairName(user), Boolean::logicalOr)
+                .thenCombine(repairRole(user), Boolean::logicalOr);
+    }
+
+    /**
+     * Repairs email reservation of the user, or resolves the conflict if its email is reserved for another user
+     *
+     * @param user row of {@link UserStatements#selectUserCredentials()}
+     * @return true if anything was repaired
+     */
+    private CompletionStage<Boolean> repairReservation(Row user, long writtenBefore) {
+        String email = user.getString("email");
+        UUID userId = user.getUuid("id");
+        String password = user.getString("password");
+        Integer role = user.isNull("role") ? null : user.getInt("role");
+        return cqlSession.executeAsync(statements.selectCredentialsByEmail().bind(email)).thenCompose(read -> {
+            Row reservation = read.one();
+            if (reservation != null) {
+                return CompletableFuture.completedFuture(reservation);
+            }
+            return cqlSession.executeAsync(statements.reserveEmail().bind(email, userId, password, role))
+                    .thenApply(reserved -> {
+                        if (!reserved.wasApplied()) {
+                            return reserved.one();
+                        }
+                        log.warn("Reserved email {} for {}", email, userId);
+                        userDao.notifyChanged(userId, email);
+                        return null;
+                    });
+        }).thenCompose(reservation -> {
+            if (reservation == null) {
+                return CompletableFuture.completedFuture(true);
+            }
+            if (!reservation.getUuid("id").equals(userId)) {
+                return resolveEmailConflict(userId, email, writtenBefore);
+            }
+            boolean credentialsChanged = !Objects.equals(password, reservation.getString("password"))
+                    || !Objects.equals(role, reservation.isNull("role") ? null : reservation.getInt("role"));
+            if (!credentialsChanged || !writtenBefore(user, "password_written", writtenBefore)
+                    || !writtenBefore(user, "role_written", writtenBefore)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return cqlSession.executeAsync(statements.updateCredentials().bind(password, role, email, userId))
+                    .thenApply(updated -> {
+                        if (!updated.wasApplied()) {
+                            return false;
+                        }
+                        log.debug("Copied credentials of {} to reservation of {}", userId, email);
+                        userDao.notifyChanged(userId, email);
+                        return true;
+                    });
+        });
+    }
+
+    /**
+     * Resolves a user whose email is reserved for another user.
+     * User and reservation are read again at serial consistency, as the scanned row may be minutes old.
+     * The user is deleted, conditionally on still having the email, only if the reservation is older than its email:
+     * then the row is a leftover of a create or an email change which lost the reservation and failed to be undone.
+     * A user which got the email first lost its reservation to a failed write, it is logged for an operator
+     * to change the email of one of the users, as either may be a real account
+     *
+     * @return true if the user was deleted
+     */
+    private CompletionStage<Boolean> resolveEmailConflict(UUID userId, String email, long writtenBefore) {
+        CompletionStage<AsyncResultSet> userRead = cqlSession.executeAsync(statements.selectEmailById().bind(userId)
+                .setConsistencyLevel(DefaultConsistencyLevel.SERIAL));
+        CompletionStage<AsyncResultSet> reservationRead = cqlSession.executeAsync(statements.selectReservationByEmail()
+                .bind(email)
+                .setConsistencyLevel(DefaultConsistencyLevel.SERIAL));
+        return userRead.thenCombine(reservationRead, (userRows, reservationRows) -> {
+            Row user = userRows.one();
+            Row reservation = reservationRows.one();
+            if (user == null || !email.equals(user.getString("email")) || user.getLong("written") > writtenBefore
+                    || reservation == null || reservation.getUuid("id").equals(userId)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            UUID owner = reservation.getUuid("id");
+            if (reservation.getLong("written") > user.getLong("written")) {
+                log.error("User {} has email {} which was reserved later for {}, change the email of one of them",
+                        userId, email, owner);
+                return CompletableFuture.completedFuture(false);
+            }
+            return cqlSession.executeAsync(statements.deleteIfEmail().bind(userId, email)).thenApply(deleted -> {
+                if (!deleted.wasApplied()) {
+                    return false;
+                }
+                log.warn("Deleted user {} as email {} was reserved for {} before the user got it",
+                        userId, email, owner);
+                userDao.notifyChanged(userId, email);
+                return true;
+            });
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Inserts {@code user_by_name} row of the user if it has none or if its listed fields don't match the user
+     *
+     * @param user row of {@link UserStatements#selectUserCredentials()}
+     * @return true if row was inserted
+     */
+    private CompletionStage<Boolean> repairName(Row user) {
+        String email = user.getString("email");
+        String firstName = user.getString("first_name");
+        String lastName = user.getString("last_name");
+        Integer role = user.isNull("role") ? null : user.getInt("role");
+        UserNameKey name = UserNameKey.of(User.builder()
+                .withId(user.getUuid("id"))
+                .withFirstName(firstName)
+                .withLastName(lastName)
+                .build());
+        Object[] key = {name.bucket(), name.getLastName(), name.getFirstName(), name.getId()};
+        return insertStale(statements.selectName().bind(key),
+                statements.insertName().bind(name.bucket(), name.getLastName(), name.getFirstName(), name.getId(),
+                        email, firstName, lastName, role),
+                name.getId(),
+                row -> Objects.equals(row.getString("email"), email)
+                        && Objects.equals(row.getString("first_name"), firstName)
+                        && Objects.equals(row.getString("last_name"), lastName)
+                        && Objects.equals(row.isNull("role") ? null : row.getInt("role"), role))
+                .thenApply(inserted -> {
+                    if (inserted) {
+                        log.debug("Inserted name index row {}", name);
+                    }
+                    return inserted;
+                });
+    }
+
+    /**
+     * Deletes {@code user_by_name} row if its user doesn't exist or its name doesn't match the row,
+     * which renames leave behind, or if the row is out of the bucket of its key
+     *
+     * @param row row of {@link UserStatements#selectNames()}
+     * @return true if row was deleted
+     */
+    private CompletionStage<Boolean> removeStaleName(Row row) {
+        UserNameKey name = new UserNameKey(row.getString("sort_last_name"), row.getString("sort_first_name"),
+                row.getUuid("id"));
+        return userDao.findByIdAsync(name.getId(), UserField.NAME).thenCompose(user -> {
+            if (user.map(UserNameKey::of).filter(name::equals).isPresent() && row.getInt("bucket") == name.bucket()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return cqlSession.executeAsync(statements.deleteName().bind(
+                            row.getInt("bucket"), name.getLastName(), name.getFirstName(), name.getId()))
+                    .thenApply(deleted -> {
+                        log.debug("Deleted stale name index row {}", name);
+                        return true;
+                    });
+        });
+    }
+
+    /**
+     * Inserts {@code user_by_role} row of the user if it has none
+     *
+     * @param user row of {@link UserStatements#selectUserCredentials()}
+     * @return true if row was inserted
+     */
+    private CompletionStage<Boolean> repairRole(Row user) {
+        UserRoleKey role = user.isNull("role") ? null
+                : UserRoleKey.of(user.getUuid("id"), Role.findByCode(user.getInt("role")).orElse(null));
+        if (role == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Object[] key = {role.getRole().getCode(), role.getBucket(), role.getId()};
+        return insertMissing(statements.selectRole().bind(key), statements.insertRole().bind(key), role.getId())
+                .thenApply(inserted -> {
+                    if (inserted) {
+                        log.debug("Inserted role index row {}", role);
+                    }
+                    return inserted;
+                });
+    }
+
+    /**
+     * Deletes {@code user_by_role} row if its user doesn't exist or its role doesn't match the row
+     *
+     * @param row row of {@link UserStatements#selectRoles()}
+     * @return true if row was deleted
+     */
+    private CompletionStage<Boolean> removeStaleRole(Row row) {
+        int code = row.getInt("role");
+        UUID userId = row.getUuid("id");
+        Optional<Role> role = Role.findByCode(code);
+        return userDao.findByIdAsync(userId, EnumSet.of(UserField.ID, UserField.ROLE)).thenCompose(user -> {
+            if (role.isPresent() && user.map(User::getRole).filter(role.get()::equals).isPresent()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return cqlSession.executeAsync(statements.deleteRole().bind(code, row.getInt("bucket"), userId))
+                    .thenApply(deleted -> {
+                        log.debug("Deleted stale role index row of {} with role {}", userId, code);
+                        return true;
+                    });
+        });
+    }
+
+    /**
+     * Executes {@code insert} if {@code select} finds no index row and the user still exists
+     *
+     * @return true if row was inserted
+     */
+    private CompletionStage<Boolean> insertMissing(BoundStatement select, BoundStatement insert, UUID userId) {
+        return insertStale(select, insert, userId, row -> true);
+    }
+
+    /**
+     * Executes {@code insert} if {@code select} finds no index row or a row which is not {@code current},
+     * and the user still exists
+     *
+     * @return true if row was inserted
+     */
+    private CompletionStage<Boolean> insertStale(BoundStatement select, BoundStatement insert, UUID userId,
+                                                 Predicate<Row> current) {
+        return cqlSession.executeAsync(select).thenCompose(index -> {
+            Row row = index.one();
+            if (row != null && current.test(row)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return cqlSession.executeAsync(statements.selectEmailById().bind(userId))
+                    .thenCompose(user -> user.one() == null
+                            ? CompletableFuture.completedFuture(false)
+                            : cqlSession.executeAsync(insert).thenApply(inserted -> true));
+        });
+    }
+
+    private static boolean writtenBefore(Row row, String column, long writtenBefore) {
+        return row.isNull(column) || row.getLong(column) <= writtenBefore;
+    }
+}
@@ -0,0 +1,166 @@
+package andrianova.usermanager.domain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Position of a user in listings of users by role.
+ * Users of a role are spread over {@link #BUCKETS} buckets by id, so that no partition holds all users of a role.
+ * Buckets are listed one after another, users of a bucket are ordered by id.
+ * Key of the last user on a page is the opaque cursor of the next page
+ */
+final class UserRoleKey implements Comparable<UserRoleKey> {
+
+    /**
+     * Number of buckets of every role
+     */
+    static final int BUCKETS = 16;
+
+    private final Role role;
+    private final int bucket;
+    private final UUID id;
+
+    UserRoleKey(Role role, int bucket, UUID id) {
+        this.role = role;
+        this.bucket = bucket;
+        this.id = id;
+    }
+
+    /**
+     * @param userId user id
+     * @param role   role of the user
+     * @return key of the user, null if role is null
+     */
+    static UserRoleKey of(UUID userId, Role role) {
+        return role == null ? null : new UserRoleKey(role, Math.floorMod(userId.hashCode(), BUCKETS), userId);
+    }
+
+    /**
+     * @param user user with id and role
+     * @return key of the user, null if it has no role
+     */
+    static UserRoleKey of(User user) {
+        return of(user.getId(), user.getRole());
+    }
+
+    Role getRole() {
+        return role;
+    }
+
+    int getBucket() {
+        return bucket;
+    }
+
+    UUID getId() {
+        return id;
+    }
+
+    /**
+     * @return opaque cursor pointing at this key
+     */
+    String toCursor() {
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES)
+                .putInt(bucket)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    }
+
+    /**
+     * @param role   listed role
+     * @param cursor cursor returned by {@link #toCursor()}
+     * @return key the cursor points at
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    static UserRoleKey fromCursor(Role role, String cursor) {
+        ByteBuffer bytes = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+        if (bytes.remaining() != Integer.BYTES + 2 * Long.BYTES) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        int bucket = bytes.getInt();
+        if (bucket < 0 || bucket >= BUCKETS) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        return new UserRoleKey(role, bucket, new UUID(bytes.getLong(), bytes.getLong()));
+    }
+
+    /**
+     * @param users users read by id with {@link UserField#ROLE}
+     * @return true if the user of this key exists and has the role of the key, false if the key is stale
+     */
+    boolean matches(Map<UUID, User> users) {
+        User user = users.get(id);
+        return user != null && user.getRole() == role;
+    }
+
+    /**
+     * Builds a page of users from keys read in listing order
+     *
+     * @param keys     keys following the cursor, one more than page size if there are more users
+     * @param pageSize max number of users on the page
+     * @param users    users of the keys read with {@link #fields(Set)}, users which are missing
+     *                 or don't have the role are left out, as their keys are stale
+     * @param fields   fields of users on the page
+     * @return page of users
+     */
+    static UserPage toPage(List<UserRoleKey> keys, int pageSize, Map<UUID, User> users, Set<UserField> fields) {
+        List<UserRoleKey> pageKeys = keys.subList(0, Math.min(pageSize, keys.size()));
+        List<User> page = new ArrayList<>(pageKeys.size());
+        for (UserRoleKey key : pageKeys) {
+            if (key.matches(users)) {
+                page.add(users.get(key.getId()).project(fields));
+            }
+        }
+        String nextPageToken = keys.size() > pageSize ? pageKeys.get(pageKeys.size() - 1).toCursor() : null;
+        return new UserPage(page, nextPageToken);
+    }
+
+    /**
+     * @param fields fields of users on the page
+     * @return fields to read so that users can be checked against their keys
+     */
+    static Set<UserField> fields(Set<UserField> fields) {
+        EnumSet<UserField> read = EnumSet.of(UserField.ID, UserField.ROLE);
+        read.addAll(fields);
+        return read;
+    }
+
+    @Override
+    public int compareTo(UserRoleKey other) {
+        int compared = Integer.compare(bucket, other.bucket);
+        return compared != 0 ? compared : id.compareTo(other.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        UserRoleKey that = (UserRoleKey) o;
+        return role == that.role && bucket == that.bucket && id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(role, bucket, id);
+    }
+
+    @Override
+    public String toString() {
+        return "UserRoleKey{" +
+                "role=" + role +
+                ", bucket=" + bucket +
+                ", id=" + id +
+                '}';
+    }
+}
@@ -0,0 +1,277 @@
+package andrianova.usermanager.domain;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory prefix index of users by email and words of first and last name.
+ * A user matches a query if every query term is a prefix of one of its words.
+ * All matches are ranked by how much of the words terms cover, whole words first, then by email,
+ * and the best ones are kept while ranking, so the result doesn't depend on the order matches are found in.
+ * <p>
+ * Index is filled and kept current by {@link UserSearchIndexer}, which is the only writer:
+ * users reported to this {@link UserChangeListener} are read and indexed again shortly after they change.
+ * Cache invalidations of all users don't rebuild the index, it is rebuilt on startup
+ * and, if configured, periodically
+ */
+@Component
+public class UserSearchIndex implements UserChangeListener {
+
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("\\s+");
+    /**
+     * Score of a term equal to a word, terms which are prefixes score between 1 and 2
+     */
+    private static final double WHOLE_WORD_SCORE = 2;
+
+    /**
+     * Best match first
+     */
+    private static final Comparator<Ranked> RANKING = Comparator.comparingDouble((Ranked match) -> match.score)
+            .reversed()
+            .thenComparing(match -> match.email);
+
+    private final ConcurrentNavigableMap<String, Set<UUID>> words = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<UUID> changed = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebuildRequested = true;
+
+    /**
+     * Find users whose words start with all terms of the query
+     *
+     * @param query terms separated by whitespace, case insensitive
+     * @param limit max number of users to return
+     * @return ids of the best matching users, best first
+     */
+    public List<UUID> search(String query, int limit) {
+        List<String> terms = Arrays.stream(WORD_SEPARATOR.split(query.trim().toLowerCase(Locale.ROOT)))
+                .filter(term -> !term.isEmpty())
+                .distinct()
+                .sorted(Comparator.comparingInt(String::length).reversed())
+                .collect(Collectors.toList());
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        Set<UUID> candidates = null;
+        for (String term : terms) {
+            candidates = match(term, candidates);
+            if (candidates.isEmpty()) {
+                return List.of();
+            }
+        }
+        PriorityQueue<Ranked> best = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        for (UUID userId : candidates) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                best.add(new Ranked(userId, entry.email, entry.score(terms)));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        List<Ranked> ranked = new ArrayList<>(best);
+        ranked.sort(RANKING);
+        return ranked.stream()
+                .map(match -> match.userId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Users having a word which starts with {@code term}, limited to {@code candidates} if not null
+     */
+    private Set<UUID> match(String term, Set<UUID> candidates) {
+        Set<UUID> matches = new HashSet<>();
+        for (Set<UUID> userIds : words.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+            for (UUID userId : userIds) {
+                if (candidates == null || candidates.contains(userId)) {
+                    matches.add(userId);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Adds user to the index or replaces its words
+     *
+     * @param user user with {@link UserField#SUMMARY} fields
+     */
+    void index(User user) {
+        Entry entry = new Entry(user);
+        Entry old = entries.put(user.getId(), entry);
+        if (old != null) {
+            for (String word : old.words) {
+                if (!entry.hasWord(word)) {
+                    removeWord(word, user.getId());
+                }
+            }
+        }
+        for (String word : entry.words) {
+            words.computeIfAbsent(word, key -> ConcurrentHashMap.newKeySet()).add(user.getId());
+        }
+    }
+
+    /**
+     * Removes user from the index
+     */
+    void remove(UUID userId) {
+        Entry old = entries.remove(userId);
+        if (old != null) {
+            for (String word : old.words) {
+                removeWord(word, userId);
+            }
+        }
+    }
+
+    /**
+     * Removes users other than {@code userIds} from the index
+     */
+    void retainAll(Set<UUID> userIds) {
+        for (UUID userId : List.copyOf(entries.keySet())) {
+            if (!userIds.contains(userId)) {
+                remove(userId);
+            }
+        }
+    }
+
+    private void removeWord(String word, UUID userId) {
+        words.computeIfPresent(word, (key, userIds) -> {
+            userIds.remove(userId);
+            return userIds.isEmpty() ? null : userIds;
+        });
+    }
+
+    /**
+     * @return ids of users changed since the previous call
+     */
+    Set<UUID> drainChanged() {
+        Set<UUID> drained = new HashSet<>();
+        for (UUID userId : changed) {
+            if (changed.remove(userId)) {
+                drained.add(userId);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Requests the whole index to be rebuilt on the next refresh
+     */
+    void requestRebuild() {
+        rebuildRequested = true;
+    }
+
+    /**
+     * @return true if the whole index should be rebuilt, the request is cleared
+     */
+    boolean takeRebuildRequest() {
+        boolean requested = rebuildRequested;
+        rebuildRequested = false;
+        return requested;
+    }
+
+    /**
+     * @return number of indexed users
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void userChanged(UUID userId, String email) {
+        changed.add(userId);
+    }
+
+    /**
+     * Index is not rebuilt when changes may have been missed: invalidations of other instances are lost
+     * for reasons unrelated to the index, and a rebuild on every instance would scan all users each time.
+     * Missed changes are indexed when the user changes again or by the periodic rebuild
+     */
+    @Override
+    public void allUsersChanged() {
+    }
+
+    /**
+     * Indexed words of a user
+     */
+    private static class Entry {
+        private final String email;
+        private final String[] words;
+
+        Entry(User user) {
+            Set<String> userWords = new LinkedHashSet<>();
+            if (user.getEmail() != null) {
+                userWords.add(user.getEmail().toLowerCase(Locale.ROOT));
+            }
+            addWords(userWords, user.getFirstName());
+            addWords(userWords, user.getLastName());
+            this.email = user.getEmail() == null ? "" : user.getEmail();
+            this.words = userWords.toArray(new String[0]);
+        }
+
+        private static void addWords(Set<String> words, String text) {
+            if (text != null) {
+                for (String word : WORD_SEPARATOR.split(text.trim().toLowerCase(Locale.ROOT))) {
+                    if (!word.isEmpty()) {
+                        words.add(word);
+                    }
+                }
+            }
+        }
+
+        boolean hasWord(String word) {
+            for (String own : words) {
+                if (own.equals(word)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Sum of scores of terms, each scored by its best matching word
+         */
+        double score(List<String> terms) {
+            double score = 0;
+            for (String term : terms) {
+                double best = 0;
+                for (String word : words) {
+                    if (word.startsWith(term)) {
+                        best = Math.max(best, word.length() == term.length()
+                                ? WHOLE_WORD_SCORE
+                                : 1 + (double) term.length() / word.length());
+                    }
+                }
+                score += best;
+            }
+            return score;
+        }
+    }
+
+    private static class Ranked {
+        private final UUID userId;
+        private final String email;
+        private final double score;
+
+        Ranked(UUID userId, String email, double score) {
+            this.userId = userId;
+            this.email = email;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package andrianova.usermanager.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static andrianova.usermanager.domain.Futures.await;
+
+/**
+ * Keeps {@link UserSearchIndex} current on its own thread, so that long scans don't delay other background tasks.
+ * Every {@code refresh-interval-ms} users changed since the previous refresh are read from the storage
+ * and indexed again, deleted users are removed. The index is built on startup; if {@code rebuild-interval-ms}
+ * is positive it is also rebuilt at that interval, which fixes changes missed when invalidations of other instances
+ * are not received, at the cost of a scan of all users on every instance
+ */
+@Component
+public class UserSearchIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(UserSearchIndexer.class);
+
+    /**
+     * Number of users read at a time
+     */
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Storage is read, as cached users may be invalidated after the index is notified
+     */
+    @Autowired
+    @Qualifier(UserDao.STORAGE)
+    private UserDao userDao;
+    @Autowired
+    private UserSearchIndex index;
+
+    /**
+     * Interval of indexing changed users
+     */
+    @Value("${user-manager.user-search.refresh-interval-ms:100}")
+    private long refreshIntervalMs;
+    /**
+     * Interval of rebuilding the whole index, 0 to build it on startup only
+     */
+    @Value("${user-manager.user-search.rebuild-interval-ms:0}")
+    private long rebuildIntervalMs;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "user-search-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void start() {
+        executor.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        if (rebuildIntervalMs > 0) {
+            executor.scheduleWithFixedDelay(index::requestRebuild, rebuildIntervalMs, rebuildIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Rebuilds the index if requested, otherwise indexes changed users
+     */
+    void refresh() {
+        try {
+            if (index.takeRebuildRequest()) {
+                rebuild();
+            } else {
+                reindex(index.drainChanged());
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to refresh user search index", e);
+        }
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        index.drainChanged();
+        Set<UUID> userIds = new HashSet<>();
+        try {
+            userDao.forEachUser(PAGE_SIZE, user -> {
+                index.index(user);
+                userIds.add(user.getId());
+            });
+        } catch (RuntimeException e) {
+            index.requestRebuild();
+            throw e;
+        }
+        index.retainAll(userIds);
+        log.info("Indexed {} users for search in {} ms",
+                userIds.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void reindex(Set<UUID> changed) {
+        List<UUID> batch = new ArrayList<>(PAGE_SIZE);
+        for (UUID userId : changed) {
+            batch.add(userId);
+            if (batch.size() == PAGE_SIZE) {
+                reindexBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            reindexBatch(batch);
+        }
+    }
+
+    private void reindexBatch(List<UUID> userIds) {
+        Map<UUID, User> users;
+        try {
+            users = await(userDao.findByIdsAsync(userIds, UserField.SUMMARY));
+        } catch (RuntimeException e) {
+            log.warn("Failed to read {} changed users, retrying on next refresh", userIds.size(), e);
+            userIds.forEach(userId -> index.userChanged(userId, null));
+            return;
+        }
+        for (UUID userId : userIds) {
+            User user = users.get(userId);
+            if (user != null) {
+                index.index(user);
+            } else {
+                index.remove(userId);
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package andrianova.usermanager.domain;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.metadata.schema.KeyspaceMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * Registry of prepared CQL statements used by {@link CassandraUserDao}.
+ * Fixed statements are prepared once at startup, dynamic {@code select} projections
+ * and {@code update user set ...} statements are prepared asynchronously on first use
+ * and kept in a bounded LRU cache, so that they can be requested from driver callbacks without blocking.
+ * Updates of {@code user} rows are lightweight transactions, so that they don't recreate deleted users
+ * and don't lose concurrent changes of email, names and role. Inserts and deletes are plain writes:
+ * a row is inserted with a new time-based id no other write knows yet, and a deleted row is not written
+ * by conditional updates. Cassandra orders a plain delete against a conditional update by client and
+ * paxos timestamps, so clocks of instances and nodes are expected to be synchronized
+ */
+@Component
+@Profile("!in-memory")
+public class UserStatements {
+
+    /**
+     * Max number of cached dynamic statements
+     */
+    private static final int MAX_DYNAMIC_STATEMENTS = 256;
+
+    private static final String COLUMNS = "id, email, password, first_name, last_name, avatar_id, role";
+    /**
+     * Columns of {@code user_by_name}: key columns, then user columns shown in listings
+     */
+    private static final String NAME_COLUMNS = "sort_last_name, sort_first_name, id, " +
+            "email, first_name, last_name, role";
+
+    @Autowired
+    private CqlSession cqlSession;
+
+    private PreparedStatement selectIdByEmail;
+    private PreparedStatement selectCredentialsByEmail;
+    private PreparedStatement selectEmailById;
+    private PreparedStatement insert;
+    private PreparedStatement reserveEmail;
+    private PreparedStatement releaseEmail;
+    private PreparedStatement updateCredentials;
+    private PreparedStatement replacePassword;
+    private PreparedStatement replaceReservedPassword;
+    private PreparedStatement delete;
+    private PreparedStatement deleteIfEmail;
+    private PreparedStatement selectReservationByEmail;
+    private PreparedStatement selectEmailReservations;
+    private PreparedStatement selectUserCredentials;
+    private PreparedStatement insertName;
+    private PreparedStatement deleteName;
+    private PreparedStatement selectName;
+    private PreparedStatement selectNames;
+    private final Map<PageDirection, PreparedStatement> selectNamesPage = new EnumMap<>(PageDirection.class);
+    private final Map<PageDirection, PreparedStatement> selectNamesPageFrom = new EnumMap<>(PageDirection.class);
+    private PreparedStatement insertRole;
+    private PreparedStatement deleteRole;
+    private PreparedStatement selectRole;
+    private PreparedStatement selectRoles;
+    private PreparedStatement selectRolesPage;
+    private PreparedStatement selectRolesPageFrom;
+
+    private final Map<String, CompletableFuture<PreparedStatement>> dynamicStatements =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<PreparedStatement>> eldest) {
+                    return size() > MAX_DYNAMIC_STATEMENTS;
+                }
+            };
+
+    @PostConstruct
+    public void prepare() {
+        checkSchema();
+        selectIdByEmail = cqlSession.prepare("select id from user_email where email=?");
+        selectCredentialsByEmail = cqlSession.prepare("select id, email, password, role from user_email where email=?");
+        selectEmailById = cqlSession.prepare("select email, writetime(email) as written from user where id=?");
+        insert = cqlSession.prepare("insert into user (" +
+                COLUMNS +
+                ") values (?, ?, ?, ?, ?, ?, ?)");
+        reserveEmail = cqlSession.prepare("insert into user_email (email, id, password, role) values (?, ?, ?, ?) " +
+                "if not exists");
+        releaseEmail = cqlSession.prepare("delete from user_email where email=? if id=?");
+        updateCredentials = cqlSession.prepare("update user_email set password=?, role=? where email=? if id=?");
+        replacePassword = cqlSession.prepare("update user set password=? where id=? if password=?");
+        replaceReservedPassword = cqlSession.prepare("update user_email set password=? where email=? " +
+                "if id=? and password=?");
+        delete = cqlSession.prepare("delete from user where id=?");
+        deleteIfEmail = cqlSession.prepare("delete from user where id=? if email=?");
+        selectReservationByEmail = cqlSession.prepare("select id, writetime(id) as written from user_email " +
+                "where email=?");
+        selectEmailReservations = cqlSession.prepare("select email, id, writetime(id) as written from user_email " +
+                "where token(email) >= ? and token(email) <= ?");
+        selectUserCredentials = cqlSession.prepare("select id, email, password, role, first_name, last_name, " +
+                "writetime(email) as written, writetime(password) as password_written, " +
+                "writetime(role) as role_written from user where token(id) >= ? and token(id) <= ?");
+        insertName = cqlSession.prepare("insert into user_by_name (bucket, " + NAME_COLUMNS + ") " +
+                "values (?, ?, ?, ?, ?, ?, ?, ?)");
+        deleteName = cqlSession.prepare("delete from user_by_name " +
+                "where bucket=? and sort_last_name=? and sort_first_name=? and id=?");
+        selectName = cqlSession.prepare("select " + NAME_COLUMNS + " from user_by_name " +
+                "where bucket=? and sort_last_name=? and sort_first_name=? and id=?");
+        selectNames = cqlSession.prepare("select bucket, sort_last_name, sort_first_name, id from user_by_name " +
+                "where token(bucket) >= ? and token(bucket) <= ?");
+        selectNamesPage.put(PageDirection.FORWARD, cqlSession.prepare("select " + NAME_COLUMNS +
+                " from user_by_name where bucket=? limit ?"));
+        selectNamesPage.put(PageDirection.BACKWARD, cqlSession.prepare("select " + NAME_COLUMNS +
+                " from user_by_name where bucket=? " +
+                "order by sort_last_name desc, sort_first_name desc, id desc limit ?"));
+        selectNamesPageFrom.put(PageDirection.FORWARD, cqlSession.prepare("select " + NAME_COLUMNS +
+                " from user_by_name where bucket=? and (sort_last_name, sort_first_name, id) > (?, ?, ?) limit ?"));
+        selectNamesPageFrom.put(PageDirection.BACKWARD, cqlSession.prepare("select " + NAME_COLUMNS +
+                " from user_by_name where bucket=? and (sort_last_name, sort_first_name, id) < (?, ?, ?) " +
+                "order by sort_last_name desc, sort_first_name desc, id desc limit ?"));
+        insertRole = cqlSession.prepare("insert into user_by_role (role, bucket, id) values (?, ?, ?)");
+        deleteRole = cqlSession.prepare("delete from user_by_role where role=? and bucket=? and id=?");
+        selectRole = cqlSession.prepare("select id from user_by_role where role=? and bucket=? and id=?");
+        selectRoles = cqlSession.prepare("select role, bucket, id from user_by_role " +
+                "where token(role, bucket) >= ? and token(role, bucket) <= ?");
+        selectRolesPage = cqlSession.prepare("select id from user_by_role where role=? and bucket=? limit ?");
+        selectRolesPageFrom = cqlSession.prepare("select id from user_by_role " +
+                "where role=? and bucket=? and id > ? limit ?");
+        CompletableFuture.allOf(
+                selectAll(UserField.SUMMARY).toCompletableFuture(),
+                selectById(UserField.ALL).toCompletableFuture(),
+                selectById(UserField.CREDENTIALS).toCompletableFuture()).join();
+    }
+
+    /**
+     * Fails if {@code user_email} still has the layout of versions before email reservations,
+     * where conditional writes don't enforce unique emails, or {@code user_by_name} has the layout of versions
+     * which didn't store listed columns with the name
+     *
+     * @throws IllegalStateException if {@code user_email} has {@code id} as clustering column
+     *                               or {@code user_by_name} has no {@code sort_last_name} column
+     */
+    private void checkSchema() {
+        Optional<KeyspaceMetadata> keyspace = cqlSession.getKeyspace()
+                .flatMap(name -> cqlSession.getMetadata().getKeyspace(name));
+        boolean legacyUserEmail = keyspace
+                .flatMap(metadata -> metadata.getTable("user_email"))
+                .map(table -> table.getClusteringColumns().keySet().stream()
+                        .anyMatch(column -> column.getName().asInternal().equals("id")))
+                .orElse(false);
+        if (legacyUserEmail) {
+            throw new IllegalStateException("user_email is keyed by (email, id), " +
+                    "migrate it with sql/migrate_user_email.sql");
+        }
+        boolean legacyUserByName = keyspace
+                .flatMap(metadata -> metadata.getTable("user_by_name"))
+                .map(table -> table.getColumn("sort_last_name").isEmpty())
+                .orElse(false);
+        if (legacyUserByName) {
+            throw new IllegalStateException("user_by_name has no listed columns, " +
+                    "migrate it with sql/migrate_user_by_name.sql");
+        }
+    }
+
+    public PreparedStatement selectIdByEmail() {
+        return selectIdByEmail;
+    }
+
+    /**
+     * {@code select} of user credentials denormalized to {@code user_email},
+     * password and role are null in reservations written before they were stored there
+     */
+    public PreparedStatement selectCredentialsByEmail() {
+        return selectCredentialsByEmail;
+    }
+
+    /**
+     * {@code select} of user email with its write time in microseconds ({@code written})
+     */
+    public PreparedStatement selectEmailById() {
+        return selectEmailById;
+    }
+
+    /**
+     * {@code insert} into {@code user}
+     */
+    public PreparedStatement insert() {
+        return insert;
+    }
+
+    /**
+     * {@code insert ... if not exists} into {@code user_email} with password hash and role code of the user,
+     * not applied result contains id of email owner
+     */
+    public PreparedStatement reserveEmail() {
+        return reserveEmail;
+    }
+
+    /**
+     * {@code delete ... if id=?} from {@code user_email}, deletes email only if it is still reserved for the user
+     */
+    public PreparedStatement releaseEmail() {
+        return releaseEmail;
+    }
+
+    /**
+     * {@code update ... if id=?} of password and role in {@code user_email}, written only if email is still reserved
+     * for the user
+     */
+    public PreparedStatement updateCredentials() {
+        return updateCredentials;
+    }
+
+    /**
+     * {@code update ... if password=?} of {@code user}, replaces password only if it was not changed since it was read
+     */
+    public PreparedStatement replacePassword() {
+        return replacePassword;
+    }
+
+    /**
+     * {@code update ... if id=? and password=?} of password in {@code user_email}
+     */
+    public PreparedStatement replaceReservedPassword() {
+        return replaceReservedPassword;
+    }
+
+    /**
+     * {@code delete} from {@code user}
+     */
+    public PreparedStatement delete() {
+        return delete;
+    }
+
+    /**
+     * {@code delete ... if email=?} from {@code user}, deletes user only if it still has the email
+     */
+    public PreparedStatement deleteIfEmail() {
+        return deleteIfEmail;
+    }
+
+    /**
+     * {@code select} of the owner of an email reservation with write time of the reservation in microseconds
+     */
+    public PreparedStatement selectReservationByEmail() {
+        return selectReservationByEmail;
+    }
+
+    /**
+     * {@code select} of {@code user_email} rows of a token range with write time of the reservation in microseconds,
+     * bound to the first and the last token of the range
+     */
+    public PreparedStatement selectEmailReservations() {
+        return selectEmailReservations;
+    }
+
+    /**
+     * {@code select} of id, email, password, role and names of users of a token range
+     * with write times of email ({@code written}), password and role in microseconds
+     */
+    public PreparedStatement selectUserCredentials() {
+        return selectUserCredentials;
+    }
+
+    /**
+     * {@code insert} into {@code user_by_name} of bucket, names and id of {@link UserNameKey},
+     * then email, first and last name and role code of the user
+     */
+    public PreparedStatement insertName() {
+        return insertName;
+    }
+
+    /**
+     * {@code delete} from {@code user_by_name} by bucket, names and id of {@link UserNameKey}
+     */
+    public PreparedStatement deleteName() {
+        return deleteName;
+    }
+
+    /**
+     * {@code select} of a single {@code user_by_name} row with listed columns
+     * by bucket, names and id of {@link UserNameKey}
+     */
+    public PreparedStatement selectName() {
+        return selectName;
+    }
+
+    /**
+     * {@code select} of {@code user_by_name} rows of a token range
+     */
+    public PreparedStatement selectNames() {
+        return selectNames;
+    }
+
+    /**
+     * {@code select} of the first rows of a {@code user_by_name} bucket in {@code direction} with listed columns,
+     * bound to bucket and limit
+     */
+    public PreparedStatement selectNamesPage(PageDirection direction) {
+        return selectNamesPage.get(direction);
+    }
+
+    /**
+     * {@code select} of {@code user_by_name} rows of a bucket following the key in {@code direction}
+     * with listed columns, bound to bucket, names and id of the key and limit
+     */
+    public PreparedStatement selectNamesPageFrom(PageDirection direction) {
+        return selectNamesPageFrom.get(direction);
+    }
+
+    /**
+     * {@code insert} into {@code user_by_role} of role code, bucket and id of {@link UserRoleKey}
+     */
+    public PreparedStatement insertRole() {
+        return insertRole;
+    }
+
+    /**
+     * {@code delete} from {@code user_by_role} by role code, bucket and id of {@link UserRoleKey}
+     */
+    public PreparedStatement deleteRole() {
+        return deleteRole;
+    }
+
+    /**
+     * {@code select} of a single {@code user_by_role} row by role code, bucket and id of {@link UserRoleKey}
+     */
+    public PreparedStatement selectRole() {
+        return selectRole;
+    }
+
+    /**
+     * {@code select} of {@code user_by_role} rows of a token range
+     */
+    public PreparedStatement selectRoles() {
+        return selectRoles;
+    }
+
+    /**
+     * {@code select} of the first ids of a {@code user_by_role} bucket, bound to role code, bucket and limit
+     */
+    public PreparedStatement selectRolesPage() {
+        return selectRolesPage;
+    }
+
+    /**
+     * {@code select} of ids of a {@code user_by_role} bucket following an id,
+     * bound to role code, bucket, id and limit
+     */
+    public PreparedStatement selectRolesPageFrom() {
+        return selectRolesPageFrom;
+    }
+
+    /**
+     * Get prepared {@code select ... from user} statement
+     *
+     * @param fields fields to select, id is always selected
+     * @return prepared statement, completed immediately if it was prepared before
+     */
+    public CompletionStage<PreparedStatement> selectAll(Set<UserField> fields) {
+        return dynamic("select " + columns(fields) + " from user");
+    }
+
+    /**
+     * Get prepared {@code select ... from user where id=?} statement
+     *
+     * @param fields fields to select, id is always selected
+     * @return prepared statement, completed immediately if it was prepared before
+     */
+    public CompletionStage<PreparedStatement> selectById(Set<UserField> fields) {
+        return dynamic("select " + columns(fields) + " from user where id=?");
+    }
+
+    /**
+     * Get prepared {@code update user set ... where id=? if exists} statement,
+     * which doesn't create the row if user doesn't exist
+     *
+     * @param columns updated columns, in the order their values are bound
+     * @return prepared statement, the last bind marker is user id
+     */
+    public CompletionStage<PreparedStatement> updateIfExists(Collection<String> columns) {
+        return dynamic("update user set " +
+                String.join("=?, ", columns) +
+                "=? where id=? if exists");
+    }
+
+    /**
+     * Get prepared {@code update user set ... where id=? if email=? and first_name=? and last_name=? and role=?}
+     * statement, which writes the user only if the columns stored in {@code user_by_name} and {@code user_by_role}
+     * have the expected values, and returns their current values otherwise
+     *
+     * @param columns updated columns, in the order their values are bound
+     * @return prepared statement, bound to the values, user id, then expected email, first and last name and role
+     */
+    public CompletionStage<PreparedStatement> updateIfListed(Collection<String> columns) {
+        return dynamic("update user set " +
+                String.join("=?, ", columns) +
+                "=? where id=? if email=? and first_name=? and last_name=? and role=?");
+    }
+
+    private static String columns(Set<UserField> fields) {
+        EnumSet<UserField> selected = EnumSet.of(UserField.ID);
+        selected.addAll(fields);
+        return selected.stream()
+                .map(UserField::getColumn)
+                .collect(Collectors.joining(", "));
+    }
+
+    private CompletionStage<PreparedStatement> dynamic(String cql) {
+        CompletableFuture<PreparedStatement> statement;
+        synchronized (dynamicStatements) {
+            statement = dynamicStatements.get(cql);
+            if (statement != null) {
+                return statement;
+            }
+            statement = cqlSession.prepareAsync(cql).toCompletableFuture();
+            dynamicStatements.put(cql, statement);
+        }
+        CompletableFuture<PreparedStatement> prepared = statement;
+        return prepared.whenComplete((result, error) -> {
+            if (error != null) {
+                synchronized (dynamicStatements) {
+                    dynamicStatements.remove(cql, prepared);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package andrianova.usermanager.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static andrianova.usermanager.domain.Futures.await;
+
+/**
+ * Local journal of idempotent repair writes which failed, e.g. release of the old email after email update.
+ * Entries are appended to a file, so they survive restart, and are replayed by {@link UserReconciler}.
+ * File is accessed from a single thread, so callers on driver I/O threads are not blocked
+ */
+@Component
+@Profile("!in-memory")
+public class UserWriteJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(UserWriteJournal.class);
+
+    /**
+     * Journal file
+     */
+    @Value("${user-manager.write-journal.path:write-journal.log}")
+    private Path path;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "user-write-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Appends entry to the journal
+     *
+     * @param entry failed repair write
+     * @return completed when entry is written
+     */
+    public CompletionStage<Void> record(Entry entry) {
+        return CompletableFuture.runAsync(() -> append(entry), executor)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        log.error("Failed to record {} to write journal", entry, error);
+                    }
+                });
+    }
+
+    /**
+     * Removes all entries from the journal
+     *
+     * @return removed entries in the order they were recorded
+     */
+    public List<Entry> drain() {
+        return await(CompletableFuture.supplyAsync(this::readAndDelete, executor));
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void append(Entry entry) {
+        try {
+            Files.writeString(path, entry.toLine() + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Entry> readAndDelete() {
+        if (!Files.exists(path)) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Entry> entries = Files.readAllLines(path, StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.isBlank())
+                    .map(Entry::parse)
+                    .collect(Collectors.toList());
+            Files.delete(path);
+            return entries;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Repair operation
+     */
+    public enum Operation {
+        /**
+         * Delete {@code user_email} row if email is reserved for the user
+         */
+        RELEASE_EMAIL,
+        /**
+         * Delete {@code user} row
+         */
+        DELETE_USER
+    }
+
+    /**
+     * Journal entry
+     */
+    public static class Entry {
+        private final Operation operation;
+        private final UUID userId;
+        private final String email;
+
+        private Entry(Operation operation, UUID userId, String email) {
+            this.operation = operation;
+            this.userId = userId;
+            this.email = email;
+        }
+
+        public static Entry releaseEmail(String email, UUID userId) {
+            return new Entry(Operation.RELEASE_EMAIL, userId, email);
+        }
+
+        public static Entry deleteUser(UUID userId) {
+            return new Entry(Operation.DELETE_USER, userId, null);
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public UUID getUserId() {
+            return userId;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        private String toLine() {
+            return operation + "\t" + userId + "\t" + Objects.toString(email, "");
+        }
+
+        private static Entry parse(String line) {
+            String[] parts = line.split("\t", 3);
+            String email = parts.length < 3 || parts[2].isEmpty() ? null : parts[2];
+            return new Entry(Operation.valueOf(parts[0]), UUID.fromString(parts[1]), email);
+        }
+
+        @Override
+        public String toString() {
+            return operation + " " + userId + (email == null ? "" : " " + email);
+        }
+    }
+}
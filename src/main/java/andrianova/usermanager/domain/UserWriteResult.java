@@ -0,0 +1,42 @@
+package andrianova.usermanager.domain;
+
+import java.util.UUID;
+
+/**
+ * Result of creating or updating user
+ */
+public class UserWriteResult {
+    /**
+     * Write outcome
+     */
+    private final WriteStatus status;
+    /**
+     * Id of written user, null if user was not written
+     */
+    private final UUID userId;
+
+    private UserWriteResult(WriteStatus status, UUID userId) {
+        this.status = status;
+        this.userId = userId;
+    }
+
+    public static UserWriteResult ok(UUID userId) {
+        return new UserWriteResult(WriteStatus.OK, userId);
+    }
+
+    public static UserWriteResult of(WriteStatus status) {
+        return new UserWriteResult(status, null);
+    }
+
+    public WriteStatus getStatus() {
+        return status;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public boolean isOk() {
+        return status == WriteStatus.OK;
+    }
+}
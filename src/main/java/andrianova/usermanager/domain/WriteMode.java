@@ -0,0 +1,20 @@
+package andrianova.usermanager.domain;
+
+/**
+ * How {@link CassandraUserDao} issues writes to {@code user} and {@code user_email} partitions
+ * which don't depend on each other's result.
+ * Set by {@code user-manager.write-mode} property
+ */
+public enum WriteMode {
+    /**
+     * Writes are issued one after another, a write is not started if the previous one failed
+     */
+    SEQUENTIAL,
+    /**
+     * User row is inserted concurrently with the email reservation, inconsistencies left by partial failures
+     * are fixed from {@link UserWriteJournal} and by {@link UserReconciler}.
+     * Emails are still released only after the user row no longer has them, as releasing one together
+     * with a write which fails leaves the user without a reservation
+     */
+    PARALLEL
+}
@@ -0,0 +1,23 @@
+package andrianova.usermanager.domain;
+
+/**
+ * Outcome of a user write
+ */
+public enum WriteStatus {
+    /**
+     * User was written
+     */
+    OK,
+    /**
+     * User doesn't exist
+     */
+    NOT_FOUND,
+    /**
+     * Email is used by another user
+     */
+    EMAIL_CONFLICT,
+    /**
+     * User already has the same values, nothing was written
+     */
+    NOT_MODIFIED
+}
@@ -0,0 +1,41 @@
+package andrianova.usermanager.service;
+
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
+import andrianova.usermanager.domain.UserField;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Creates request-scoped {@link DataLoader}s of users.
+ * Users requested by id within one GraphQL execution are collected until the execution level is dispatched
+ * and then read concurrently, each id is read once per execution.
+ * All fields are read, so that lookups selecting different fields can be coalesced
+ */
+@Component
+public class UserDataLoaders {
+
+    /**
+     * Name of the loader of users by id
+     */
+    public static final String USER = "user";
+
+    @Autowired
+    private UserDao userDao;
+
+    /**
+     * Create registry of user loaders
+     *
+     * @return new registry, to be used for a single execution only
+     */
+    public DataLoaderRegistry newRegistry() {
+        DataLoaderRegistry registry = new DataLoaderRegistry();
+        registry.register(USER, DataLoader.<UUID, User>newMappedDataLoader(
+                userIds -> userDao.findByIdsAsync(userIds, UserField.ALL)));
+        return registry;
+    }
+}
@@ -0,0 +1,47 @@
+package andrianova.usermanager.service;
+
+import andrianova.usermanager.api.UserRequest;
+
+/**
+ * Single record of bulk user import: either parsed user request or parse error
+ */
+public class UserImportRecord {
+    /**
+     * Line number of the record in the import
+     */
+    private final long line;
+    /**
+     * Parsed user request, null if record is invalid
+     */
+    private final UserRequest request;
+    /**
+     * Parse or validation error, null if record is valid
+     */
+    private final String error;
+
+    private UserImportRecord(long line, UserRequest request, String error) {
+        this.line = line;
+        this.request = request;
+        this.error = error;
+    }
+
+    public static UserImportRecord of(long line, UserRequest request) {
+        return new UserImportRecord(line, request, null);
+    }
+
+    public static UserImportRecord invalid(long line, String error) {
+        return new UserImportRecord(line, null, error);
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public UserRequest getRequest() {
+        return request;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,80 @@
+package andrianova.usermanager.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.UUID;
+
+/**
+ * Result of importing single record
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"line", "email", "status", "id", "error"})
+public class UserImportResult {
+
+    public enum Status {
+        /**
+         * User was created
+         */
+        CREATED,
+        /**
+         * Email occurred earlier in the same import
+         */
+        DUPLICATE,
+        /**
+         * User with the email already exists
+         */
+        EXISTS,
+        /**
+         * Record could not be parsed or is not valid
+         */
+        INVALID,
+        /**
+         * Database request failed
+         */
+        FAILED
+    }
+
+    private final long line;
+    private final String email;
+    private final Status status;
+    private final UUID id;
+    private final String error;
+
+    private UserImportResult(long line, String email, Status status, UUID id, String error) {
+        this.line = line;
+        this.email = email;
+        this.status = status;
+        this.id = id;
+        this.error = error;
+    }
+
+    static UserImportResult created(UserImportRecord record, UUID id) {
+        return new UserImportResult(record.getLine(), record.getRequest().getEmail(), Status.CREATED, id, null);
+    }
+
+    static UserImportResult of(UserImportRecord record, Status status, String error) {
+        String email = record.getRequest() == null ? null : record.getRequest().getEmail();
+        return new UserImportResult(record.getLine(), email, status, null, error);
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
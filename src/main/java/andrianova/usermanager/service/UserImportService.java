@@ -0,0 +1,150 @@
+package andrianova.usermanager.service;
+
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Bulk import of users.
+ * Records are processed in chunks: emails of a chunk are checked concurrently,
+ * then new users are written while the next chunk is read and checked.
+ * Number of concurrent email checks and writes is bounded,
+ * so throughput grows with the number of requests in flight rather than with round trips
+ */
+@Service
+public class UserImportService {
+
+    /**
+     * Number of records read and checked together
+     */
+    @Value("${user-manager.import.chunk-size:1000}")
+    private int chunkSize;
+    /**
+     * Max number of concurrent email checks
+     */
+    @Value("${user-manager.import.check-parallelism:64}")
+    private int checkParallelism;
+    /**
+     * Max number of concurrent writes
+     */
+    @Value("${user-manager.import.max-in-flight-writes:128}")
+    private int maxInFlightWrites;
+
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private UserService userService;
+
+    /**
+     * Imports users, skipping emails repeated in the import and emails of existing users.
+     * Results are passed to {@code results} on the calling thread, not necessarily in record order
+     *
+     * @param records records to import
+     * @param results consumer of per-record results
+     */
+    public void importUsers(Iterator<UserImportRecord> records, Consumer<UserImportResult> results) {
+        Semaphore checks = new Semaphore(checkParallelism);
+        Semaphore writes = new Semaphore(maxInFlightWrites);
+        Queue<UserImportResult> completed = new ConcurrentLinkedQueue<>();
+        Set<String> emails = new HashSet<>();
+
+        List<UserImportRecord> chunk = new ArrayList<>(chunkSize);
+        while (records.hasNext()) {
+            UserImportRecord record = records.next();
+            if (record.getError() != null) {
+                results.accept(UserImportResult.of(record, UserImportResult.Status.INVALID, record.getError()));
+            } else if (!emails.add(record.getRequest().getEmail())) {
+                results.accept(UserImportResult.of(record, UserImportResult.Status.DUPLICATE, null));
+            } else {
+                chunk.add(record);
+            }
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, checks, writes, completed);
+                chunk.clear();
+                drain(completed, results);
+            }
+        }
+        importChunk(chunk, checks, writes, completed);
+
+        writes.acquireUninterruptibly(maxInFlightWrites);
+        drain(completed, results);
+    }
+
+    private void importChunk(List<UserImportRecord> chunk, Semaphore checks, Semaphore writes,
+                             Queue<UserImportResult> completed) {
+        List<CompletableFuture<Optional<UUID>>> owners = new ArrayList<>(chunk.size());
+        for (UserImportRecord record : chunk) {
+            checks.acquireUninterruptibly();
+            owners.add(userDao.findByEmailAsync(record.getRequest().getEmail())
+                    .toCompletableFuture()
+                    .whenComplete((owner, error) -> checks.release()));
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            UserImportRecord record = chunk.get(i);
+            Optional<UUID> owner;
+            try {
+                owner = owners.get(i).join();
+            } catch (CompletionException e) {
+                completed.add(failed(record, e));
+                continue;
+            }
+            if (owner.isPresent()) {
+                completed.add(UserImportResult.of(record, UserImportResult.Status.EXISTS, null));
+                continue;
+            }
+
+            // acquired before password is hashed, so that an import doesn't fill the password hashing queue
+            writes.acquireUninterruptibly();
+            CompletionStage<User> user;
+            try {
+                user = userService.toUser(record.getRequest());
+            } catch (IllegalArgumentException e) {
+                writes.release();
+                completed.add(UserImportResult.of(record, UserImportResult.Status.INVALID,
+                        Optional.ofNullable(e.getMessage()).orElse("invalid password or role")));
+                continue;
+            }
+            user.thenCompose(userDao::createAsync).whenComplete((result, error) -> {
+                writes.release();
+                if (error != null) {
+                    completed.add(failed(record, error));
+                } else {
+                    completed.add(result.isOk()
+                            ? UserImportResult.created(record, result.getUserId())
+                            : UserImportResult.of(record, UserImportResult.Status.EXISTS, null));
+                }
+            });
+        }
+    }
+
+    private static UserImportResult failed(UserImportRecord record, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        return UserImportResult.of(record, UserImportResult.Status.FAILED, cause.getMessage());
+    }
+
+    private static void drain(Queue<UserImportResult> completed, Consumer<UserImportResult> results) {
+        UserImportResult result;
+        while ((result = completed.poll()) != null) {
+            results.accept(result);
+        }
+    }
+}
@@ -1,38 +1,205 @@
 package andrianova.usermanager.service;
 
+import andrianova.usermanager.api.UserPatchRequest;
 import andrianova.usermanager.api.UserRequest;
+import andrianova.usermanager.auth.PasswordHasher;
+import andrianova.usermanager.domain.Avatar;
+import andrianova.usermanager.domain.AvatarDao;
+import andrianova.usermanager.domain.PageDirection;
 import andrianova.usermanager.domain.Password;
 import andrianova.usermanager.domain.Role;
 import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserBatch;
+import andrianova.usermanager.domain.UserCreateResult;
 import andrianova.usermanager.domain.UserDao;
+import andrianova.usermanager.domain.UserField;
+import andrianova.usermanager.domain.UserPage;
+import andrianova.usermanager.domain.UserSearchIndex;
+import andrianova.usermanager.domain.UserWriteResult;
+import andrianova.usermanager.domain.WriteStatus;
+import graphql.schema.DataFetchingFieldSelectionSet;
 import io.leangen.graphql.annotations.GraphQLArgument;
+import io.leangen.graphql.annotations.GraphQLEnvironment;
 import io.leangen.graphql.annotations.GraphQLMutation;
+import io.leangen.graphql.annotations.GraphQLNonNull;
 import io.leangen.graphql.annotations.GraphQLQuery;
+import io.leangen.graphql.execution.ResolutionEnvironment;
+import org.dataloader.DataLoader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
- * Service to work with {@link User}
+ * Service to work with {@link User}.
+ * Operations return {@link CompletionStage}, so callers are not blocked while database requests are in flight
  */
 @Service
 public class UserService {
 
+    /**
+     * Page size used when client didn't specify one
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    /**
+     * Max page size client can request
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+    /**
+     * Number of search results returned when client didn't specify a limit
+     */
+    public static final int DEFAULT_SEARCH_LIMIT = 20;
+    /**
+     * Page size used to fetch users for export
+     */
+    private static final int EXPORT_PAGE_SIZE = 500;
+
     @Autowired
     private UserDao userDao;
+    @Autowired
+    private AvatarDao avatarDao;
+    @Autowired
+    private PasswordHasher passwordHasher;
+    @Autowired
+    private UserSearchIndex userSearchIndex;
 
     /**
-     * List users
+     * List users page by page, reading only fields selected in the query
      *
-     * @return users
+     * @param first       max number of users to return
+     * @param after       cursor returned as {@code pageInfo.endCursor} of the previous page
+     * @param role        role of users to list, null to list all users
+     * @param environment query environment
+     * @return users page
      */
     @GraphQLQuery(name = "users")
-    public List<User> getUsers() {
-        return userDao.getUsers();
+    public CompletableFuture<UserPage> getUsers(@GraphQLArgument(name = "first") Integer first,
+                                                @GraphQLArgument(name = "after") String after,
+                                                @GraphQLArgument(name = "role") Role role,
+                                                @GraphQLEnvironment ResolutionEnvironment environment) {
+        Set<UserField> fields = selectedFields(environment, "nodes/");
+        return (role == null ? getUsersAsync(first, after, fields) : getUsersByRoleAsync(role, first, after, fields))
+                .toCompletableFuture();
+    }
+
+    /**
+     * List users page by page
+     *
+     * @param first  max number of users to return
+     * @param after  cursor returned as {@code pageInfo.endCursor} of the previous page
+     * @param fields user fields to read
+     * @return users page
+     */
+    public CompletionStage<UserPage> getUsersAsync(Integer first, String after, Set<UserField> fields) {
+        return userDao.getUsersAsync(pageSize(first), after, fields);
+    }
+
+    /**
+     * List users having {@code role} page by page.
+     * Users are read from an index by role, so the cost of a page doesn't depend on the number of other users
+     *
+     * @param role   role of users
+     * @param first  max number of users to return
+     * @param after  cursor returned as {@code pageInfo.endCursor} of the previous page
+     * @param fields user fields to read
+     * @return users page
+     */
+    public CompletionStage<UserPage> getUsersByRoleAsync(Role role, Integer first, String after,
+                                                         Set<UserField> fields) {
+        return userDao.getUsersByRoleAsync(role, pageSize(first), after, fields);
+    }
+
+    /**
+     * List users ordered by last name, first name and id, reading only fields selected in the query.
+     * Pages are read forward with {@code first} and {@code after} or backward with {@code last} and {@code before}
+     *
+     * @param first       max number of users following {@code after}
+     * @param after       cursor returned as {@code pageInfo.endCursor} of the previous page
+     * @param last        max number of users preceding {@code before}
+     * @param before      cursor returned as {@code pageInfo.startCursor} of the next page
+     * @param environment query environment
+     * @return users page
+     */
+    @GraphQLQuery(name = "usersByName")
+    public CompletableFuture<UserPage> getUsersByName(@GraphQLArgument(name = "first") Integer first,
+                                                      @GraphQLArgument(name = "after") String after,
+                                                      @GraphQLArgument(name = "last") Integer last,
+                                                      @GraphQLArgument(name = "before") String before,
+                                                      @GraphQLEnvironment ResolutionEnvironment environment) {
+        return getUsersByNameAsync(first, after, last, before, selectedFields(environment, "nodes/"))
+                .toCompletableFuture();
+    }
+
+    /**
+     * List users ordered by last name, first name and id.
+     * Without arguments the first page is returned, {@code last} without {@code before} returns the last page
+     *
+     * @param first  max number of users following {@code after}
+     * @param after  cursor returned as {@code pageInfo.endCursor} of the previous page
+     * @param last   max number of users preceding {@code before}
+     * @param before cursor returned as {@code pageInfo.startCursor} of the next page
+     * @param fields user fields to read
+     * @return users page
+     * @throws IllegalArgumentException if both forward and backward arguments are set
+     */
+    public CompletionStage<UserPage> getUsersByNameAsync(Integer first, String after, Integer last, String before,
+                                                         Set<UserField> fields) {
+        boolean backward = last != null || before != null;
+        if (backward && (first != null || after != null)) {
+            throw new IllegalArgumentException("first and after can't be combined with last and before");
+        }
+        return backward
+                ? userDao.getUsersByNameAsync(pageSize(last), before, PageDirection.BACKWARD, fields)
+                : userDao.getUsersByNameAsync(pageSize(first), after, PageDirection.FORWARD, fields);
+    }
+
+    private static int pageSize(Integer requested) {
+        int pageSize = Optional.ofNullable(requested).orElse(DEFAULT_PAGE_SIZE);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return pageSize;
+    }
+
+    /**
+     * Passes all users to {@code consumer}, holding at most one page of users in memory
+     *
+     * @param consumer user consumer
+     */
+    public void exportUsers(Consumer<User> consumer) {
+        userDao.forEachUser(EXPORT_PAGE_SIZE, consumer);
+    }
+
+    /**
+     * Get user by id.
+     * Lookups within one execution are batched by {@link UserDataLoaders#USER} loader if it is registered,
+     * otherwise only fields selected in the query are read
+     *
+     * @param userId      user id
+     * @param environment query environment
+     * @return user
+     */
+    @GraphQLQuery(name = "user")
+    public CompletableFuture<Optional<User>> getUser(@GraphQLArgument(name = "id") UUID userId,
+                                                     @GraphQLEnvironment ResolutionEnvironment environment) {
+        DataLoader<UUID, User> loader = environment.dataFetchingEnvironment.getDataLoader(UserDataLoaders.USER);
+        if (loader == null) {
+            return userDao.findByIdAsync(userId, selectedFields(environment, "")).toCompletableFuture();
+        }
+        return loader.load(userId).thenApply(Optional::ofNullable);
     }
 
     /**
@@ -41,25 +208,110 @@ public class UserService {
      * @param userId user id
      * @return user
      */
-    @GraphQLQuery(name = "user")
-    public Optional<User> getUser(@GraphQLArgument(name = "id") UUID userId) {
-        return userDao.findById(userId);
+    public CompletionStage<Optional<User>> getUserAsync(UUID userId) {
+        return userDao.findByIdAsync(userId);
+    }
+
+    /**
+     * Get users by ids, reading only fields selected in the query
+     *
+     * @param userIds     user ids
+     * @param environment query environment
+     * @return found users in the order of ids and ids of missing users
+     */
+    @GraphQLQuery(name = "usersByIds")
+    public CompletableFuture<UserBatch> getUsersByIds(
+            @GraphQLArgument(name = "ids") @GraphQLNonNull List<@GraphQLNonNull UUID> userIds,
+            @GraphQLEnvironment ResolutionEnvironment environment) {
+        return getUsersByIdsAsync(userIds, selectedFields(environment, "users/")).toCompletableFuture();
     }
 
     /**
-     * Creates user if it didn't exist
+     * Get users by ids
+     *
+     * @param userIds user ids, at most {@link #MAX_PAGE_SIZE}
+     * @param fields  user fields to read
+     * @return found users in the order of ids and ids of missing users
+     */
+    public CompletionStage<UserBatch> getUsersByIdsAsync(List<UUID> userIds, Set<UserField> fields) {
+        if (userIds.size() > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_PAGE_SIZE + " ids can be requested");
+        }
+        return userDao.findByIdsAsync(userIds, fields).thenApply(found -> {
+            List<User> users = new ArrayList<>(userIds.size());
+            List<UUID> missingIds = new ArrayList<>();
+            for (UUID userId : userIds) {
+                User user = found.get(userId);
+                if (user != null) {
+                    users.add(user);
+                } else {
+                    missingIds.add(userId);
+                }
+            }
+            return new UserBatch(users, missingIds);
+        });
+    }
+
+    /**
+     * Search users by prefixes of email and words of first and last name, reading only fields selected in the query
+     *
+     * @param query       terms separated by whitespace
+     * @param limit       max number of users to return
+     * @param environment query environment
+     * @return best matching users, best first
+     */
+    @GraphQLQuery(name = "searchUsers")
+    public CompletableFuture<List<User>> searchUsers(@GraphQLArgument(name = "query") @GraphQLNonNull String query,
+                                                     @GraphQLArgument(name = "limit") Integer limit,
+                                                     @GraphQLEnvironment ResolutionEnvironment environment) {
+        return searchUsersAsync(query, limit, selectedFields(environment, "")).toCompletableFuture();
+    }
+
+    /**
+     * Search users by prefixes of email and words of first and last name, see {@link UserSearchIndex}.
+     * Users changed less than {@code user-manager.user-search.refresh-interval-ms} ago may be found by old values
+     *
+     * @param query  terms separated by whitespace, every term must match
+     * @param limit  max number of users to return, at most {@link #MAX_PAGE_SIZE}, null for default
+     * @param fields user fields to read
+     * @return best matching users, best first
+     */
+    public CompletionStage<List<User>> searchUsersAsync(String query, Integer limit, Set<UserField> fields) {
+        int size = Optional.ofNullable(limit).orElse(DEFAULT_SEARCH_LIMIT);
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        List<UUID> userIds = userSearchIndex.search(query, size);
+        return userDao.findByIdsAsync(userIds, fields).thenApply(found -> userIds.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Creates user if its email is not taken
      *
      * @param user user to create
-     * @return true if user created
+     * @return write status and created user
      */
     @GraphQLMutation(name = "createUser")
-    public Optional<User> create(@GraphQLArgument(name = "user") UserRequest user) {
-        if (userDao.findByEmail(user.getEmail()).isPresent()) {
-            return Optional.empty();
-        }
+    public CompletableFuture<UserCreateResult> create(@GraphQLArgument(name = "user") UserRequest user) {
+        return createAsync(user).toCompletableFuture();
+    }
 
-        Optional<UUID> userId = userDao.create(toUser(user));
-        return userId.flatMap(this::getUser);
+    /**
+     * Creates user if its email is not taken.
+     * Email uniqueness is checked by reserving the email, created user is built from the request
+     * instead of being read back, so creation costs two database round trips
+     *
+     * @param request user to create
+     * @return write status and created user
+     */
+    public CompletionStage<UserCreateResult> createAsync(UserRequest request) {
+        return toUser(request).thenCompose(user -> userDao.createAsync(user)
+                .thenApply(result -> new UserCreateResult(result.getStatus(), result.isOk()
+                        ? withId(user, result.getUserId())
+                        : null)));
     }
 
     /**
@@ -67,23 +319,110 @@ public class UserService {
      *
      * @param userId user id
      * @param user updated user info
-     * @return true if user was updated
+     * @return write status
      */
     @GraphQLMutation(name = "updateUser")
-    public boolean updateUser(@GraphQLArgument(name = "id") UUID userId,
-                              @GraphQLArgument(name = "user") UserRequest user) {
-        return userDao.update(userId, toUser(user));
+    public CompletableFuture<WriteStatus> updateUser(@GraphQLArgument(name = "id") UUID userId,
+                                                     @GraphQLArgument(name = "user") UserRequest user) {
+        return updateUserAsync(userId, user).toCompletableFuture();
+    }
+
+    /**
+     * Update user
+     *
+     * @param userId  user id
+     * @param request updated user info
+     * @return write status
+     */
+    public CompletionStage<WriteStatus> updateUserAsync(UUID userId, UserRequest request) {
+        return toUser(request)
+                .thenCompose(user -> userDao.updateAsync(userId, user))
+                .thenApply(UserWriteResult::getStatus);
+    }
+
+    /**
+     * Change some fields of user
+     *
+     * @param userId user id
+     * @param user   fields to change, null fields are not changed
+     * @return write status
+     */
+    @GraphQLMutation(name = "patchUser")
+    public CompletableFuture<WriteStatus> patchUser(@GraphQLArgument(name = "id") UUID userId,
+                                                    @GraphQLArgument(name = "user") UserPatchRequest user) {
+        return patchUserAsync(userId, user).toCompletableFuture();
+    }
+
+    /**
+     * Change some fields of user.
+     * If only avatar is changed, user is written with a single round trip
+     *
+     * @param userId  user id
+     * @param request fields to change, null fields are not changed
+     * @return write status
+     */
+    public CompletionStage<WriteStatus> patchUserAsync(UUID userId, UserPatchRequest request) {
+        byte[] rawPassword = Optional.ofNullable(request.getPassword())
+                .map(Base64.getDecoder()::decode)
+                .orElse(null);
+        Role role = Optional.ofNullable(request.getRole())
+                .map(Role::findByName)
+                .orElse(null);
+        CompletionStage<Password> password = rawPassword == null
+                ? CompletableFuture.completedFuture(null)
+                : passwordHasher.hashAsync(rawPassword);
+        return password
+                .thenCompose(hash -> storeAvatar(request.getAvatar())
+                        .thenCompose(avatarId -> userDao.patchAsync(userId, User.builder()
+                                .withEmail(request.getEmail())
+                                .withFirstName(request.getFirstName())
+                                .withLastName(request.getLastName())
+                                .withAvatarId(avatarId)
+                                .withPassword(hash)
+                                .withRole(role)
+                                .build())))
+                .thenApply(UserWriteResult::getStatus);
     }
 
-    private User toUser(UserRequest request) {
+    /**
+     * Converts request to user, hashing its password and storing its avatar.
+     * Request is validated before password is hashed, avatar is stored after that
+     */
+    CompletionStage<User> toUser(UserRequest request) {
+        byte[] rawPassword = Base64.getDecoder().decode(request.getPassword());
+        Role role = Role.findByName(request.getRole());
+        return passwordHasher.hashAsync(rawPassword)
+                .thenCompose(password -> storeAvatar(request.getAvatar()).thenApply(id -> User.builder()
+                        .withEmail(request.getEmail())
+                        .withFirstName(request.getFirstName())
+                        .withLastName(request.getLastName())
+                        .withAvatarId(id)
+                        .withPassword(password)
+                        .withRole(role)
+                        .build()));
+    }
+
+    /**
+     * Stores Base64 encoded avatar
+     *
+     * @return avatar id, null if avatar is null
+     */
+    private CompletionStage<String> storeAvatar(String avatar) {
+        return Optional.ofNullable(avatar)
+                .map(Base64.getDecoder()::decode)
+                .map(avatarDao::storeAsync)
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
+    }
+
+    private static User withId(User user, UUID userId) {
         return User.builder()
-                .withEmail(request.getEmail())
-                .withFirstName(request.getFirstName())
-                .withLastName(request.getLastName())
-                .withAvatar(Optional.ofNullable(request.getAvatar())
-                        .map(Base64.getDecoder()::decode).orElse(null))
-                .withPassword(Password.of(Base64.getDecoder().decode(request.getPassword())))
-                .withRole(Role.findByName(request.getRole()))
+                .withId(userId)
+                .withEmail(user.getEmail())
+                .withFirstName(user.getFirstName())
+                .withLastName(user.getLastName())
+                .withAvatarId(user.getAvatarId())
+                .withPassword(user.getPassword())
+                .withRole(user.getRole())
                 .build();
     }
 
@@ -94,7 +433,50 @@ public class UserService {
      * @return true if user was deleted
      */
     @GraphQLMutation(name = "deleteUser")
-    public boolean deleteUser(@GraphQLArgument(name = "id") UUID userId) {
-        return userDao.delete(userId);
+    public CompletableFuture<Boolean> deleteUser(@GraphQLArgument(name = "id") UUID userId) {
+        return deleteUserAsync(userId).toCompletableFuture();
+    }
+
+    /**
+     * Delete user
+     *
+     * @param userId user id
+     * @return true if user was deleted
+     */
+    public CompletionStage<Boolean> deleteUserAsync(UUID userId) {
+        return userDao.deleteAsync(userId);
+    }
+
+    /**
+     * Get avatar of the user
+     *
+     * @param userId user id
+     * @return avatar, empty if user not exists or has no avatar
+     */
+    public Optional<Avatar> getAvatar(UUID userId) {
+        return userDao.findById(userId, EnumSet.of(UserField.AVATAR_ID))
+                .map(User::getAvatarId)
+                .flatMap(avatarDao::find);
+    }
+
+    /**
+     * Writes avatar content to {@code out}
+     *
+     * @param avatar avatar
+     * @param out    output stream
+     */
+    public void writeAvatar(Avatar avatar, OutputStream out) throws IOException {
+        avatarDao.writeTo(avatar, out);
+    }
+
+    private static Set<UserField> selectedFields(ResolutionEnvironment environment, String prefix) {
+        DataFetchingFieldSelectionSet selectionSet = environment.dataFetchingEnvironment.getSelectionSet();
+        Set<UserField> fields = EnumSet.noneOf(UserField.class);
+        for (UserField field : UserField.values()) {
+            if (selectionSet.contains(prefix + field.getGraphQlName())) {
+                fields.add(field);
+            }
+        }
+        return fields;
     }
 }
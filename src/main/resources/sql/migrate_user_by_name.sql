@@ -0,0 +1,21 @@
+-- Recreates user_by_name of versions keeping only names in it with the fields listed on a page
+-- and one bucket per first letter of the last name.
+-- Run with 'cqlsh -f migrate_user_by_name.sql' while the application is stopped,
+-- the application refuses to start until it is done.
+-- Rows are inserted again by the reconciler (user-manager.reconciler.enabled=true),
+-- until then users are missing from listings ordered by name.
+
+USE user_manager;
+
+drop table if exists user_by_name;
+create table user_by_name(
+    bucket int,
+    sort_last_name varchar,
+    sort_first_name varchar,
+    id uuid,
+    email varchar,
+    first_name varchar,
+    last_name varchar,
+    role int,
+    primary key (bucket, sort_last_name, sort_first_name, id)
+) with clustering order by (sort_last_name asc, sort_first_name asc, id asc);
@@ -0,0 +1,34 @@
+-- Moves user_email of versions before email reservations from primary key (email, id)
+-- to primary key (email), which conditional reservations rely on: with id as clustering column
+-- 'insert ... if not exists' never conflicts and 'delete ... if id=?' is rejected.
+-- Run with 'cqlsh -f migrate_user_email.sql' while the application is stopped,
+-- the application refuses to start until it is done.
+-- An email reserved for several users keeps one of them,
+-- the others are left to the reconciler as users whose email is reserved for another user.
+
+USE user_manager;
+
+-- 1. copy reservations to a table of the new layout
+create table if not exists user_email_migrated(
+    email varchar primary key,
+    id uuid,
+    password varchar,
+    role int
+);
+COPY user_email (email, id) TO 'user_email.csv' WITH HEADER = true;
+COPY user_email_migrated (email, id) FROM 'user_email.csv' WITH HEADER = true;
+
+-- 2. swap: recreate user_email with the new key and copy the reservations back
+drop table user_email;
+create table user_email(
+    email varchar primary key,
+    id uuid,
+    password varchar,
+    role int
+);
+COPY user_email_migrated (email, id) TO 'user_email_migrated.csv' WITH HEADER = true;
+COPY user_email (email, id) FROM 'user_email_migrated.csv' WITH HEADER = true;
+drop table user_email_migrated;
+
+-- password and role of reservations are copied from user rows by the reconciler,
+-- until then logins read them from user table
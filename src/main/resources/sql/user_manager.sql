@@ -9,12 +9,59 @@ create table if not exists user(
     password varchar,
     first_name varchar,
     last_name varchar,
-    avatar blob,
+    avatar_id varchar,
     role int
 );
+-- databases storing avatars in user.avatar blob column: alter table user add avatar_id varchar;
+-- then run once with user-manager.avatar-migration.enabled=true and alter table user drop avatar;
 
 create table if not exists user_email(
+    email varchar primary key,
+    id uuid,
+    password varchar,
+    role int
+);
+
+-- users ordered by lower case last name, first name and id, with the fields listed on a page,
+-- bucket is 0 for last names before 'a', 1-26 for 'a'-'z', 27 for last names after 'z'
+create table if not exists user_by_name(
+    bucket int,
+    sort_last_name varchar,
+    sort_first_name varchar,
     id uuid,
     email varchar,
-    primary key (email, id)
+    first_name varchar,
+    last_name varchar,
+    role int,
+    primary key (bucket, sort_last_name, sort_first_name, id)
+) with clustering order by (sort_last_name asc, sort_first_name asc, id asc);
+
+-- users of a role spread over 16 buckets by floorMod of the id hash code, ordered by id within a bucket
+create table if not exists user_by_role(
+    role int,
+    bucket int,
+    id uuid,
+    primary key ((role, bucket), id)
+);
+
+-- lease of the reconciler scan, owner is written with a ttl by the instance running it,
+-- next_segment is the token range the next scan starts with
+create table if not exists reconciler_lease(
+    name varchar primary key,
+    owner uuid,
+    next_segment int
+);
+
+create table if not exists avatar(
+    id varchar primary key,
+    size int,
+    chunk_count int,
+    content_type varchar
+);
+
+create table if not exists avatar_chunk(
+    avatar_id varchar,
+    chunk int,
+    data blob,
+    primary key (avatar_id, chunk)
 );
@@ -0,0 +1,34 @@
+package andrianova.usermanager;
+
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and deletes all users in tests, which keep only a few of them
+ */
+public final class TestUsers {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private TestUsers() {
+    }
+
+    /**
+     * @return all users with {@link andrianova.usermanager.domain.UserField#SUMMARY} fields
+     */
+    public static List<User> all(UserDao userDao) {
+        List<User> users = new ArrayList<>();
+        userDao.forEachUser(PAGE_SIZE, users::add);
+        return users;
+    }
+
+    /**
+     * Deletes all users
+     */
+    public static void deleteAll(UserDao userDao) {
+        all(userDao).stream().map(User::getId).forEach(userDao::delete);
+    }
+}
@@ -1,12 +1,15 @@
 package andrianova.usermanager.api;
 
 import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
 import andrianova.usermanager.auth.AuthService;
 import andrianova.usermanager.auth.UserDetailsImpl;
 import andrianova.usermanager.domain.Password;
 import andrianova.usermanager.domain.Role;
 import andrianova.usermanager.domain.User;
 import andrianova.usermanager.domain.UserDao;
+import andrianova.usermanager.domain.UserField;
+import com.datastax.oss.driver.shaded.guava.common.hash.Hashing;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -17,11 +20,17 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -37,6 +46,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class AuthControllerTest {
 
+    private static final long TIMEOUT_MS = 5000;
+
     @Autowired
     private MockMvc mockMvc;
     @Autowired
@@ -46,8 +57,7 @@ public class AuthControllerTest {
 
     @BeforeEach
     public void clear() {
-        userDao.getUsers().stream().map(User::getId)
-                .forEach(userDao::delete);
+        TestUsers.deleteAll(userDao);
     }
 
     @Test
@@ -62,7 +72,7 @@ public class AuthControllerTest {
         userDao.create(user);
         String auth = authService.createAuthToken(new UserDetailsImpl(user));
 
-        mockMvc.perform(post("/login")
+        perform(post("/login")
                 .content("{\"email\": \"email@test.com\", " +
                         "\"password\": \"123456\" }")
                 .contentType(MediaType.APPLICATION_JSON))
@@ -75,7 +85,7 @@ public class AuthControllerTest {
 
     @Test
     public void should_denyLogin_when_userNotExists() throws Exception {
-        mockMvc.perform(post("/login")
+        perform(post("/login")
                 .content("{\"email\": \"fake@test.com\", " +
                         "\"password\": \"wrongPass\" }")
                 .contentType(MediaType.APPLICATION_JSON))
@@ -94,11 +104,51 @@ public class AuthControllerTest {
                 .build();
         userDao.create(user);
 
-        mockMvc.perform(post("/login")
+        perform(post("/login")
                 .content("{\"email\": \"email@test.com\", " +
                         "\"password\": \"wrongPass\" }")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andDo(print())
                 .andExpect(status().isUnauthorized());
     }
+
+    @Test
+    public void should_upgradeLegacyPassword_when_login() throws Exception {
+        Password legacy = Password.ofHash(Hashing.sha256().hashString("123456", StandardCharsets.UTF_8).toString());
+        UUID userId = userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(legacy)
+                .withRole(Role.USER)
+                .build()).getUserId();
+
+        perform(post("/login")
+                .content("{\"email\": \"email@test.com\", " +
+                        "\"password\": \"123456\" }")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        Password password;
+        while ((password = userDao.findById(userId, UserField.CREDENTIALS).get().getPassword()).isLegacy()) {
+            assertThat("password is upgraded", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertThat(password.matches("123456".getBytes(StandardCharsets.UTF_8)), is(true));
+
+        perform(post("/login")
+                .content("{\"email\": \"email@test.com\", " +
+                        "\"password\": \"123456\" }")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+    }
+
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions actions = mockMvc.perform(request);
+        MvcResult result = actions.andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            return mockMvc.perform(asyncDispatch(result));
+        }
+        return actions;
+    }
 }
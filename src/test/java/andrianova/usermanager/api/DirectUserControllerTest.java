@@ -0,0 +1,20 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.Application;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for {@link UserController} with {@code direct} api mode
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        classes = Application.class,
+        properties = "user-manager.api.mode=direct")
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DirectUserControllerTest extends UserControllerTest {
+}
@@ -0,0 +1,21 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.Application;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for {@link UserController} with {@code in-memory} profile
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        classes = Application.class)
+@AutoConfigureMockMvc
+@ActiveProfiles("in-memory")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class InMemoryUserControllerTest extends UserControllerTest {
+}
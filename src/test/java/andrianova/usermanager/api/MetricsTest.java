@@ -0,0 +1,105 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import andrianova.usermanager.auth.AuthService;
+import andrianova.usermanager.auth.UserDetailsImpl;
+import andrianova.usermanager.domain.Password;
+import andrianova.usermanager.domain.Role;
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test for metrics exported at {@code /actuator/prometheus}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        classes = Application.class)
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MetricsTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private AuthService authService;
+    private String authToken;
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+        User admin = User.builder()
+                .withRole(Role.ADMIN)
+                .withEmail("admin@test.com")
+                .withPassword(Password.of("admin".getBytes(StandardCharsets.UTF_8)))
+                .build();
+        userDao.create(admin);
+        authToken = authService.createAuthToken(new UserDetailsImpl(admin));
+    }
+
+    @Test
+    public void should_exportTimers_when_userRequested() throws Exception {
+        UUID userId = userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build()).getUserId();
+        MvcResult result = mockMvc.perform(get("/user/" + userId)
+                        .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk());
+        }
+        result = mockMvc.perform(post("/login")
+                        .content("{\"email\": \"admin@test.com\", \"password\": \"admin\"}")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/actuator/prometheus")
+                        .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("user_dao_seconds_bucket{")))
+                .andExpect(content().string(containsString("operation=\"findById\"")))
+                .andExpect(content().string(containsString("auth_seconds_count{")))
+                .andExpect(content().string(containsString("operation=\"login\"")))
+                .andExpect(content().string(containsString("password_seconds_count{")))
+                .andExpect(content().string(containsString("graphql_execute_seconds_count{")));
+    }
+
+    @Test
+    public void should_denyMetrics_when_notAuthenticated() throws Exception {
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+    }
+}
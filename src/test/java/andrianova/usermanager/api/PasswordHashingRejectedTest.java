@@ -0,0 +1,124 @@
+package andrianova.usermanager.api;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import andrianova.usermanager.auth.AuthService;
+import andrianova.usermanager.auth.PasswordHasher;
+import andrianova.usermanager.auth.UserDetailsImpl;
+import andrianova.usermanager.domain.Password;
+import andrianova.usermanager.domain.Role;
+import andrianova.usermanager.domain.User;
+import andrianova.usermanager.domain.UserDao;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test for {@link UserController} in {@code graphql} api mode when password hashing pool is saturated
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        classes = Application.class,
+        properties = "user-manager.api.mode=graphql")
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PasswordHashingRejectedTest {
+
+    private static final String PASSWORD =
+            Base64.getEncoder().encodeToString("123456".getBytes(StandardCharsets.UTF_8));
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private AuthService authService;
+    @MockBean
+    private PasswordHasher passwordHasher;
+    private String authToken;
+    private UUID userId;
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+        User admin = User.builder()
+                .withRole(Role.ADMIN)
+                .withEmail("admin@test.com")
+                .withPassword(Password.of("admin".getBytes(StandardCharsets.UTF_8)))
+                .build();
+        userDao.create(admin);
+        authToken = authService.createAuthToken(new UserDetailsImpl(admin));
+        userId = userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build()).getUserId();
+        when(passwordHasher.hashAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("saturated")));
+    }
+
+    @Test
+    public void should_returnUnavailable_when_creatingUser() throws Exception {
+        perform(post("/user")
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"email\": \"new@test.com\", \"password\": \"" + PASSWORD + "\", \"role\": \"user\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void should_returnUnavailable_when_updatingUser() throws Exception {
+        perform(put("/user/" + userId)
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"email\": \"email@test.com\", \"password\": \"" + PASSWORD + "\", \"role\": \"user\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void should_returnUnavailable_when_patchingPassword() throws Exception {
+        perform(patch("/user/" + userId)
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"password\": \"" + PASSWORD + "\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    /**
+     * Performs request, dispatching async result if request handling was started asynchronously
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions actions = mockMvc.perform(request);
+        MvcResult result = actions.andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            return mockMvc.perform(asyncDispatch(result));
+        }
+        return actions;
+    }
+}
@@ -1,13 +1,17 @@
 package andrianova.usermanager.api;
 
 import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
 import andrianova.usermanager.auth.AuthService;
 import andrianova.usermanager.auth.UserDetailsImpl;
+import andrianova.usermanager.domain.AvatarDao;
 import andrianova.usermanager.domain.Password;
 import andrianova.usermanager.domain.Role;
 import andrianova.usermanager.domain.User;
 import andrianova.usermanager.domain.UserDao;
+import andrianova.usermanager.domain.UserReconciler;
 import com.datastax.oss.driver.shaded.guava.common.hash.Hashing;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -19,19 +23,27 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -45,18 +57,27 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class UserControllerTest {
 
+    private static final long SEARCH_TIMEOUT_MS = 5000;
+
     @Autowired
     private MockMvc mockMvc;
     @Autowired
     private UserDao userDao;
     @Autowired
+    private AvatarDao avatarDao;
+    @Autowired
     private AuthService authService;
+    @Autowired(required = false)
+    private UserReconciler reconciler;
     private String authToken;
 
     @BeforeEach
     public void clear() {
-        userDao.getUsers().stream().map(User::getId)
-                .forEach(userDao::delete);
+        TestUsers.deleteAll(userDao);
+        // reconciler deletes index rows left stale by tests which change users in the database directly
+        if (reconciler != null) {
+            reconciler.reconcile();
+        }
         User admin = User.builder()
                 .withRole(Role.ADMIN)
                 .withEmail("admin@test.com")
@@ -76,47 +97,327 @@ public class UserControllerTest {
                 .withRole(Role.USER)
                 .build());
 
-        mockMvc.perform(get("/user")
+        perform(get("/user")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.users.nodes", hasSize(2)))
+                .andExpect(jsonPath("$.data.users.nodes[0].id", notNullValue()))
+                .andExpect(jsonPath("$.data.users.nodes[0].email", notNullValue()))
+                .andExpect(jsonPath("$.data.users.nodes[0].role", notNullValue()))
+                .andExpect(jsonPath("$.data.users.pageInfo.hasNextPage", is(false)));
+    }
+
+    @Test
+    public void should_getUsersPage() throws Exception {
+        userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build());
+
+        String response = perform(get("/user")
+                .param("pageSize", "1")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.users.nodes", hasSize(1)))
+                .andExpect(jsonPath("$.data.users.pageInfo.hasNextPage", is(true)))
+                .andReturn().getResponse().getContentAsString();
+        String pageToken = JsonPath.read(response, "$.data.users.pageInfo.endCursor");
+
+        perform(get("/user")
+                .param("pageSize", "1")
+                .param("pageToken", pageToken)
                 .header(HttpHeaders.AUTHORIZATION, authToken))
                 .andDo(print())
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.data.users", hasSize(2)))
-                .andExpect(jsonPath("$.data.users[0].id", notNullValue()))
-                .andExpect(jsonPath("$.data.users[0].email", notNullValue()))
-                .andExpect(jsonPath("$.data.users[0].role", notNullValue()));
+                .andExpect(jsonPath("$.data.users.nodes", hasSize(1)));
+    }
+
+    @Test
+    public void should_getUsersByName() throws Exception {
+        createUser("smith@test.com", "Anna", "Smith");
+        createUser("adams@test.com", "bob", "adams");
+        createUser("carl@test.com", "Carl", "smith");
+
+        String response = perform(get("/user")
+                .param("sort", "name")
+                .param("pageSize", "2")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.usersByName.nodes", hasSize(2)))
+                .andExpect(jsonPath("$.data.usersByName.nodes[0].email", is("admin@test.com")))
+                .andExpect(jsonPath("$.data.usersByName.nodes[1].email", is("adams@test.com")))
+                .andExpect(jsonPath("$.data.usersByName.pageInfo.hasPreviousPage", is(false)))
+                .andExpect(jsonPath("$.data.usersByName.pageInfo.hasNextPage", is(true)))
+                .andReturn().getResponse().getContentAsString();
+        String pageToken = JsonPath.read(response, "$.data.usersByName.pageInfo.endCursor");
+
+        response = perform(get("/user")
+                .param("sort", "name")
+                .param("pageSize", "2")
+                .param("pageToken", pageToken)
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.usersByName.nodes", hasSize(2)))
+                .andExpect(jsonPath("$.data.usersByName.nodes[0].email", is("smith@test.com")))
+                .andExpect(jsonPath("$.data.usersByName.nodes[1].email", is("carl@test.com")))
+                .andExpect(jsonPath("$.data.usersByName.pageInfo.hasPreviousPage", is(true)))
+                .andExpect(jsonPath("$.data.usersByName.pageInfo.hasNextPage", is(false)))
+                .andReturn().getResponse().getContentAsString();
+        String before = JsonPath.read(response, "$.data.usersByName.pageInfo.startCursor");
+
+        perform(get("/user")
+                .param("sort", "name")
+                .param("pageSize", "2")
+                .param("before", before)
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.usersByName.nodes", hasSize(2)))
+                .andExpect(jsonPath("$.data.usersByName.nodes[0].email", is("admin@test.com")))
+                .andExpect(jsonPath("$.data.usersByName.nodes[1].email", is("adams@test.com")))
+                .andExpect(jsonPath("$.data.usersByName.pageInfo.hasPreviousPage", is(false)))
+                .andExpect(jsonPath("$.data.usersByName.pageInfo.hasNextPage", is(true)));
+    }
+
+    @Test
+    public void should_getUsersByRole() throws Exception {
+        createUser("smith@test.com", "Anna", "Smith");
+        createUser("adams@test.com", "bob", "adams");
+        createUser("carl@test.com", "Carl", "smith");
+
+        perform(get("/user")
+                .param("role", "admin")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.users.nodes", hasSize(1)))
+                .andExpect(jsonPath("$.data.users.nodes[0].email", is("admin@test.com")))
+                .andExpect(jsonPath("$.data.users.pageInfo.hasNextPage", is(false)));
+
+        String response = perform(get("/user")
+                .param("role", "user")
+                .param("pageSize", "2")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.users.nodes", hasSize(2)))
+                .andExpect(jsonPath("$.data.users.nodes[*].role", everyItem(is("user"))))
+                .andExpect(jsonPath("$.data.users.pageInfo.hasNextPage", is(true)))
+                .andReturn().getResponse().getContentAsString();
+        String pageToken = JsonPath.read(response, "$.data.users.pageInfo.endCursor");
+
+        perform(get("/user")
+                .param("role", "user")
+                .param("pageSize", "2")
+                .param("pageToken", pageToken)
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.users.nodes", hasSize(1)))
+                .andExpect(jsonPath("$.data.users.nodes[0].role", is("user")))
+                .andExpect(jsonPath("$.data.users.pageInfo.hasNextPage", is(false)));
+
+        perform(get("/user")
+                .param("role", "fakeRole")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void should_rejectInvalidListArguments() throws Exception {
+        perform(get("/user")
+                .param("pageSize", "0")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isBadRequest());
+        perform(get("/user")
+                .param("role", "user")
+                .param("pageSize", "100000")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isBadRequest());
+        perform(get("/user")
+                .param("sort", "name")
+                .param("pageToken", "malformed")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void should_exportUsers() throws Exception {
+        userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build());
+
+        String response = perform(get("/user/export")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = response.split("\n");
+        assertThat(lines.length, is(2));
+        for (String line : lines) {
+            assertThat(JsonPath.read(line, "$.email"), notNullValue());
+            assertThat(JsonPath.read(line, "$.role"), notNullValue());
+        }
+    }
+
+    @Test
+    public void should_importUsers() throws Exception {
+        String password = Base64.getEncoder().encodeToString("123456".getBytes(StandardCharsets.UTF_8));
+        String response = perform(post("/user/_import")
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .contentType("application/x-ndjson")
+                .content("{\"email\": \"first@test.com\", \"password\": \"" + password + "\", \"role\": \"user\"}\n" +
+                        "{\"email\": \"first@test.com\", \"password\": \"" + password + "\", \"role\": \"user\"}\n" +
+                        "{\"email\": \"admin@test.com\", \"password\": \"" + password + "\", \"role\": \"admin\"}\n" +
+                        "{\"email\": \"email\", \"password\": \"" + password + "\", \"role\": \"user\"}\n"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        Map<Integer, String> statuses = new HashMap<>();
+        for (String line : response.split("\n")) {
+            statuses.put(JsonPath.read(line, "$.line"), JsonPath.read(line, "$.status"));
+        }
+        assertThat(statuses.get(1), is("CREATED"));
+        assertThat(statuses.get(2), is("DUPLICATE"));
+        assertThat(statuses.get(3), is("EXISTS"));
+        assertThat(statuses.get(4), is("INVALID"));
+        assertThat(userDao.findByEmail("first@test.com").isPresent(), is(true));
+    }
+
+    @Test
+    public void should_importUsers_fromCsv() throws Exception {
+        String password = Base64.getEncoder().encodeToString("123456".getBytes(StandardCharsets.UTF_8));
+        String response = perform(post("/user/_import")
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .contentType("text/csv")
+                .content("email,password,firstName,lastName,role\n" +
+                        "csv@test.com," + password + ",\"John, Jr\",Smith,user\n"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(JsonPath.read(response, "$.line"), is(2));
+        assertThat(JsonPath.read(response, "$.status"), is("CREATED"));
+        User user = userDao.findById(userDao.findByEmail("csv@test.com").get()).get();
+        assertThat(user.getFirstName(), is("John, Jr"));
+        assertThat(user.getLastName(), is("Smith"));
     }
 
     @Test
     public void should_getUser() throws Exception {
+        String avatarId = avatarDao.store(getAvatar());
+        Password password = Password.of("123456".getBytes(StandardCharsets.UTF_8));
         userDao.create(User.builder()
                 .withLastName("lastName")
                 .withFirstName("firstName")
                 .withEmail("email@test.com")
-                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withPassword(password)
                 .withRole(Role.USER)
-                .withAvatar(getAvatar())
+                .withAvatarId(avatarId)
                 .build());
-        Optional<User> user = userDao.getUsers().stream()
+        Optional<User> user = TestUsers.all(userDao).stream()
                 .filter(user1 -> user1.getEmail().equals("email@test.com"))
                 .findFirst();
         assertThat(user.isPresent(), is(true));
 
-        mockMvc.perform(get("/user/" + user.get().getId())
+        perform(get("/user/" + user.get().getId())
                 .header(HttpHeaders.AUTHORIZATION, authToken))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.data.user.lastName", is("lastName")))
                 .andExpect(jsonPath("$.data.user.firstName", is("firstName")))
                 .andExpect(jsonPath("$.data.user.email", is("email@test.com")))
-                .andExpect(jsonPath("$.data.user.password.hash",
-                        is("8d969eef6ecad3c29a3a629280e686cf0c3f5d5a86aff3ca12020c923adc6c92")))
+                .andExpect(jsonPath("$.data.user.password.hash", is(password.getHash())))
+                .andExpect(jsonPath("$.data.user.password.legacy").doesNotExist())
+                .andExpect(jsonPath("$.data.user.password.strength").doesNotExist())
                 .andExpect(jsonPath("$.data.user.role", is("user")))
-                .andExpect(jsonPath("$.data.user.avatar", is(Base64.getEncoder().encodeToString(getAvatar()))));
+                .andExpect(jsonPath("$.data.user.avatarId", is(avatarId)));
+    }
+
+    @Test
+    public void should_getUsersByIds() throws Exception {
+        userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build());
+        UUID userId = userDao.findByEmail("email@test.com").get();
+        UUID adminId = userDao.findByEmail("admin@test.com").get();
+        UUID missingId = UUID.randomUUID();
+
+        perform(post("/user/_batch-get")
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"ids\": [\"" + userId + "\", \"" + missingId + "\", \"" + adminId + "\"]}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.usersByIds.users", hasSize(2)))
+                .andExpect(jsonPath("$.data.usersByIds.users[0].email", is("email@test.com")))
+                .andExpect(jsonPath("$.data.usersByIds.users[1].email", is("admin@test.com")))
+                .andExpect(jsonPath("$.data.usersByIds.missingIds", hasSize(1)))
+                .andExpect(jsonPath("$.data.usersByIds.missingIds[0]", is(missingId.toString())));
+    }
+
+    @Test
+    public void should_searchUsers() throws Exception {
+        createUser("smith@test.com", "John", "Smith");
+        createUser("walker@test.com", "Johnny", "Walker");
+        createUser("bob@test.com", "Bob", "Johnson");
+
+        String response = awaitSearch("john", 3);
+        assertThat(JsonPath.read(response, "$.data.searchUsers[0].email"), is("smith@test.com"));
+        assertThat(JsonPath.read(response, "$.data.searchUsers[1].email"), is("walker@test.com"));
+        assertThat(JsonPath.read(response, "$.data.searchUsers[2].email"), is("bob@test.com"));
+
+        perform(get("/user/search")
+                .param("q", "JOHN sm")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.searchUsers", hasSize(1)))
+                .andExpect(jsonPath("$.data.searchUsers[0].email", is("smith@test.com")))
+                .andExpect(jsonPath("$.data.searchUsers[0].firstName", is("John")));
+        perform(get("/user/search")
+                .param("q", "john")
+                .param("limit", "1")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.searchUsers", hasSize(1)));
+
+        userDao.delete(userDao.findByEmail("smith@test.com").get());
+        userDao.patch(userDao.findByEmail("bob@test.com").get(), User.builder().withLastName("Brown").build());
+        response = awaitSearch("john", 1);
+        assertThat(JsonPath.read(response, "$.data.searchUsers[0].email"), is("walker@test.com"));
+    }
+
+    @Test
+    public void should_getAvatar() throws Exception {
+        String avatarId = avatarDao.store(getAvatar());
+        userDao.create(User.builder()
+                .withEmail("email@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .withAvatarId(avatarId)
+                .build());
+        UUID userId = userDao.findByEmail("email@test.com").get();
+
+        byte[] avatar = perform(get("/user/" + userId + "/avatar")
+                .header(HttpHeaders.AUTHORIZATION, authToken))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + avatarId + "\""))
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(avatar, is(getAvatar()));
+
+        perform(get("/user/" + userId + "/avatar")
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"" + avatarId + "\""))
+                .andDo(print())
+                .andExpect(status().isNotModified());
     }
 
     @Test
     public void should_createUser() throws Exception {
-        mockMvc.perform(post("/user")
+        perform(post("/user")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"email\": \"email@email.com\", " +
                         "\"password\": \"" + Base64.getEncoder().encodeToString("password".getBytes(StandardCharsets.UTF_8)) + "\", " +
@@ -129,25 +430,24 @@ public class UserControllerTest {
                 .andDo(print())
                 .andExpect(status().isOk());
 
-        List<User> users = userDao.getUsers();
+        List<User> users = TestUsers.all(userDao);
         Optional<User> userOpt = users.stream()
                 .filter(user1 -> user1.getEmail().equals("email@email.com"))
                 .findFirst();
         assertThat(userOpt.isPresent(), is(true));
 
         User user = userDao.findById(userOpt.get().getId()).get();
-        assertThat(user.getPassword().getHash(),
-                is(Hashing.sha256().hashString("password", StandardCharsets.UTF_8).toString()));
+        assertThat(user.getPassword().matches("password".getBytes(StandardCharsets.UTF_8)), is(true));
         assertThat(user.getRole(), is(Role.USER));
         assertThat(user.getId(), notNullValue());
         assertThat(user.getLastName(), is("lastName"));
         assertThat(user.getFirstName(), is("firstName"));
-        assertThat(user.getAvatar(), is(getAvatar()));
+        assertThat(user.getAvatarId(), is(Hashing.sha256().hashBytes(getAvatar()).toString()));
     }
 
     @Test
     public void should_validateEmail_when_createUser() throws Exception {
-        mockMvc.perform(post("/user")
+        perform(post("/user")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"email\": \"email\", " +
                         "\"password\": \"password\", " +
@@ -162,7 +462,7 @@ public class UserControllerTest {
 
     @Test
     public void should_validateRole_when_createUser() throws Exception {
-        mockMvc.perform(post("/user")
+        perform(post("/user")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"email\": \"email@mail.com\", " +
                         "\"password\": \"password\", " +
@@ -175,7 +475,7 @@ public class UserControllerTest {
 
     @Test
     public void should_validateEmptyEmail_when_createUser() throws Exception {
-        mockMvc.perform(post("/user")
+        perform(post("/user")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"password\": \"password\", " +
                         "\"role\": \"user\", " +
@@ -193,18 +493,17 @@ public class UserControllerTest {
                 .withEmail("email@test.com")
                 .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
                 .withRole(Role.USER)
-                .withAvatar(getAvatar())
                 .build());
 
-        mockMvc.perform(post("/user")
+        perform(post("/user")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"email\": \"email@test.com\", " +
-                        "\"password\": \"password\", " +
-                        "\"role\": \"user\", " +
+                        "\"password\": \"" + Base64.getEncoder().encodeToString("123456".getBytes(StandardCharsets.UTF_8)) + "\", " +
+                        "\"role\": \"user\"" +
                         "}")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andDo(print())
-                .andExpect(status().isBadRequest());
+                .andExpect(status().isConflict());
     }
 
     @Test
@@ -216,13 +515,13 @@ public class UserControllerTest {
                 .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
                 .withRole(Role.USER)
                 .build());
-        List<User> users = userDao.getUsers();
+        List<User> users = TestUsers.all(userDao);
         Optional<User> user = users.stream()
                 .filter(user1 -> user1.getEmail().equals("user@test.com"))
                 .findFirst();
         assertThat(user.isPresent(), is(true));
 
-        mockMvc.perform(put("/user/" + user.get().getId().toString())
+        perform(put("/user/" + user.get().getId().toString())
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"lastName\": \"Smith\", " +
                         "\"firstName\": \"John\", " +
@@ -239,8 +538,7 @@ public class UserControllerTest {
         assertThat(user.get().getLastName(), is("Smith"));
         assertThat(user.get().getRole(), is(Role.USER));
         assertThat(user.get().getEmail(), is("smith@test.com"));
-        assertThat(user.get().getPassword().getHash(),
-                is(Hashing.sha256().hashString("123456", StandardCharsets.UTF_8).toString()));
+        assertThat(user.get().getPassword().matches("123456".getBytes(StandardCharsets.UTF_8)), is(true));
     }
 
     @Test
@@ -252,13 +550,13 @@ public class UserControllerTest {
                 .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
                 .withRole(Role.USER)
                 .build());
-        List<User> users = userDao.getUsers();
+        List<User> users = TestUsers.all(userDao);
         Optional<User> user = users.stream()
                 .filter(user1 -> user1.getEmail().equals("user@test.com"))
                 .findFirst();
         assertThat(user.isPresent(), is(true));
 
-        mockMvc.perform(put("/user/" + user.get().getId().toString())
+        perform(put("/user/" + user.get().getId().toString())
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"lastName\": \"Smith\", " +
                         "\"firstName\": \"John\", " +
@@ -277,7 +575,7 @@ public class UserControllerTest {
                 .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
                 .withRole(Role.USER)
                 .build());
-        List<User> users = userDao.getUsers();
+        List<User> users = TestUsers.all(userDao);
         Optional<User> user = users.stream()
                 .filter(user1 -> user1.getEmail().equals("user@test.com"))
                 .findFirst();
@@ -289,21 +587,21 @@ public class UserControllerTest {
                 .withRole(Role.USER)
                 .build());
 
-        mockMvc.perform(put("/user/" + user.get().getId().toString())
+        perform(put("/user/" + user.get().getId().toString())
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"lastName\": \"Smith\", " +
                         "\"firstName\": \"John\", " +
                         "\"email\": \"smith@test.com\", " +
-                        "\"password\": \"123456\", " +
+                        "\"password\": \"" + Base64.getEncoder().encodeToString("123456".getBytes(StandardCharsets.UTF_8)) + "\", " +
                         "\"role\": \"user\"}")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andDo(print())
-                .andExpect(status().isBadRequest());
+                .andExpect(status().isConflict());
     }
 
     @Test
     public void should_validateUserNotExists_when_updateUser() throws Exception {
-        mockMvc.perform(put("/user/1234")
+        perform(put("/user/1234")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .content("{\"lastName\": \"Smith\", " +
                         "\"firstName\": \"John\", " +
@@ -315,9 +613,89 @@ public class UserControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void should_patchUser() throws Exception {
+        UUID userId = userDao.create(User.builder()
+                .withLastName("lastName")
+                .withFirstName("firstName")
+                .withEmail("user@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build()).getUserId();
+
+        perform(patch("/user/" + userId)
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"firstName\": \"John\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        Optional<User> user = userDao.findById(userId);
+        assertThat(user.isPresent(), is(true));
+        assertThat(user.get().getFirstName(), is("John"));
+        assertThat(user.get().getLastName(), is("lastName"));
+        assertThat(user.get().getEmail(), is("user@test.com"));
+        assertThat(user.get().getRole(), is(Role.USER));
+    }
+
+    @Test
+    public void should_patchEmail() throws Exception {
+        UUID userId = userDao.create(User.builder()
+                .withEmail("user@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build()).getUserId();
+
+        perform(patch("/user/" + userId)
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"email\": \"smith@test.com\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isOk());
+
+        assertThat(userDao.findById(userId).map(User::getEmail), is(Optional.of("smith@test.com")));
+        assertThat(userDao.findByEmail("smith@test.com"), is(Optional.of(userId)));
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.empty()));
+    }
+
+    @Test
+    public void should_validateExistingEmail_when_patchUser() throws Exception {
+        UUID userId = userDao.create(User.builder()
+                .withEmail("user@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build()).getUserId();
+        userDao.create(User.builder()
+                .withEmail("smith@test.com")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build());
+
+        perform(patch("/user/" + userId)
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"email\": \"smith@test.com\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    public void should_validateUserNotExists_when_patchUser() throws Exception {
+        UUID userId = UUID.randomUUID();
+
+        perform(patch("/user/" + userId)
+                .header(HttpHeaders.AUTHORIZATION, authToken)
+                .content("{\"firstName\": \"John\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(status().isBadRequest());
+
+        assertThat(userDao.findById(userId), is(Optional.empty()));
+    }
+
     @Test
     public void should_validateUserNotExists_when_deleteUser() throws Exception {
-        mockMvc.perform(delete("/user/1234")
+        perform(delete("/user/1234")
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .contentType(MediaType.APPLICATION_JSON))
                 .andDo(print())
@@ -331,13 +709,13 @@ public class UserControllerTest {
                 .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
                 .withRole(Role.USER)
                 .build());
-        List<User> users = userDao.getUsers();
+        List<User> users = TestUsers.all(userDao);
         Optional<User> user = users.stream()
                 .filter(user1 -> user1.getEmail().equals("user@test.com"))
                 .findFirst();
         assertThat(user.isPresent(), is(true));
 
-        mockMvc.perform(delete("/user/" + user.get().getId())
+        perform(delete("/user/" + user.get().getId())
                 .header(HttpHeaders.AUTHORIZATION, authToken)
                 .contentType(MediaType.APPLICATION_JSON))
                 .andDo(print())
@@ -345,6 +723,49 @@ public class UserControllerTest {
         assertThat(userDao.findById(user.get().getId()).isPresent(), is(false));
     }
 
+    /**
+     * Performs request, dispatching async result if request handling was started asynchronously
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions actions = mockMvc.perform(request);
+        MvcResult result = actions.andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            return mockMvc.perform(asyncDispatch(result));
+        }
+        return actions;
+    }
+
+    private void createUser(String email, String firstName, String lastName) {
+        userDao.create(User.builder()
+                .withEmail(email)
+                .withFirstName(firstName)
+                .withLastName(lastName)
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build());
+    }
+
+    /**
+     * Searches users until the expected number is found, as changed users are indexed in the background
+     *
+     * @return search response
+     */
+    private String awaitSearch(String query, int expectedSize) throws Exception {
+        long deadline = System.currentTimeMillis() + SEARCH_TIMEOUT_MS;
+        while (true) {
+            String response = perform(get("/user/search")
+                    .param("q", query)
+                    .header(HttpHeaders.AUTHORIZATION, authToken))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            if (JsonPath.<List<?>>read(response, "$.data.searchUsers").size() == expectedSize) {
+                return response;
+            }
+            assertThat("users are indexed", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
     private byte[] getAvatar() throws IOException {
         return getClass().getResourceAsStream("avatar.png").readAllBytes();
     }
@@ -0,0 +1,93 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test for {@link AvatarMigration}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class,
+        properties = "user-manager.avatar-migration.enabled=true")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AvatarMigrationTest {
+
+    @Autowired
+    private CqlSession cqlSession;
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private AvatarDao avatarDao;
+    @Autowired
+    private AvatarMigration migration;
+
+    @BeforeAll
+    public void addLegacyColumn() {
+        try {
+            cqlSession.execute("alter table user add avatar blob");
+        } catch (InvalidQueryException e) {
+            // added by a previous run
+        }
+    }
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+    }
+
+    @Test
+    public void should_moveLegacyAvatar() {
+        byte[] content = "legacy avatar".getBytes(StandardCharsets.UTF_8);
+        UUID userId = userDao.create(user("legacy@test.com", null)).getUserId();
+        cqlSession.execute("update user set avatar=? where id=? if exists", ByteBuffer.wrap(content), userId);
+
+        migration.migrate();
+
+        String avatarId = AvatarDao.idOf(content);
+        assertThat(userDao.findById(userId).get().getAvatarId(), is(avatarId));
+        assertThat(avatarDao.find(avatarId).get().getSize(), is(content.length));
+        assertThat(cqlSession.execute("select avatar from user where id=?", userId).one()
+                .getByteBuffer("avatar"), is((ByteBuffer) null));
+    }
+
+    @Test
+    public void should_keepNewAvatar_when_legacyAvatarMigrated() {
+        String newAvatarId = avatarDao.store("new avatar".getBytes(StandardCharsets.UTF_8));
+        UUID userId = userDao.create(user("changed@test.com", newAvatarId)).getUserId();
+        cqlSession.execute("update user set avatar=? where id=? if exists",
+                ByteBuffer.wrap("legacy avatar".getBytes(StandardCharsets.UTF_8)), userId);
+
+        migration.migrate();
+
+        assertThat(userDao.findById(userId).get().getAvatarId(), is(newAvatarId));
+        assertThat(cqlSession.execute("select avatar from user where id=?", userId).one()
+                .getByteBuffer("avatar"), is((ByteBuffer) null));
+    }
+
+    private static User user(String email, String avatarId) {
+        return User.builder()
+                .withEmail(email)
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withAvatarId(avatarId)
+                .withRole(Role.USER)
+                .build();
+    }
+}
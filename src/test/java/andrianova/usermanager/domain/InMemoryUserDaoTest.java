@@ -0,0 +1,19 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for {@link InMemoryUserDao}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class)
+@ActiveProfiles("in-memory")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class InMemoryUserDaoTest extends UserDaoTest {
+}
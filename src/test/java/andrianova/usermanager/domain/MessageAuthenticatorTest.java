@@ -0,0 +1,70 @@
+package andrianova.usermanager.domain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test for {@link MessageAuthenticator}
+ */
+public class MessageAuthenticatorTest {
+
+    private static final long MAX_AGE_MS = 30000;
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final MessageAuthenticator authenticator = authenticator("0123456789abcdef0123456789abcdef");
+    private final byte[] message = new UserInvalidationChannel.Message(UUID.randomUUID(), 1,
+            List.of(new UserInvalidationChannel.Invalidation(UUID.randomUUID(), "user@test.com"))).toBytes();
+
+    @Test
+    public void should_openSealedMessage() {
+        byte[] sealed = authenticator.seal(message, NOW);
+        byte[] datagram = new byte[sealed.length + 10];
+        System.arraycopy(sealed, 0, datagram, 5, sealed.length);
+
+        ByteBuffer opened = authenticator.open(datagram, 5, sealed.length, NOW + 1000);
+
+        byte[] content = new byte[opened.remaining()];
+        opened.get(content);
+        assertThat(content, is(message));
+    }
+
+    @Test
+    public void should_rejectMessage_when_tampered() {
+        byte[] sealed = authenticator.seal(message, NOW);
+        sealed[Long.BYTES + 1] ^= 1;
+
+        assertThat(authenticator.open(sealed, 0, sealed.length, NOW), is(nullValue()));
+    }
+
+    @Test
+    public void should_rejectMessage_when_sealedWithAnotherKey() {
+        byte[] sealed = authenticator("fedcba9876543210fedcba9876543210").seal(message, NOW);
+
+        assertThat(authenticator.open(sealed, 0, sealed.length, NOW), is(nullValue()));
+    }
+
+    @Test
+    public void should_rejectMessage_when_replayedAfterMaxAge() {
+        byte[] sealed = authenticator.seal(message, NOW);
+
+        assertThat(authenticator.open(sealed, 0, sealed.length, NOW + MAX_AGE_MS + 1), is(nullValue()));
+    }
+
+    @Test
+    public void should_requireLongKey() {
+        Assertions.assertThrows(IllegalStateException.class, () -> authenticator("short"));
+    }
+
+    private static MessageAuthenticator authenticator(String key) {
+        return new MessageAuthenticator(key.getBytes(StandardCharsets.UTF_8), MAX_AGE_MS);
+    }
+}
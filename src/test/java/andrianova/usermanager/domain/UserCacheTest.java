@@ -0,0 +1,101 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test for {@link UserCache}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class UserCacheTest {
+
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+    }
+
+    @Test
+    public void should_readUserFromCache_when_readTwice() {
+        UUID userId = userDao.create(user("user@test.com", "firstName")).getUserId();
+        double hits = hits();
+
+        userDao.findById(userId);
+        userDao.findById(userId, UserField.SUMMARY);
+
+        assertThat(hits(), is(hits + 1));
+        assertThat(userDao.findById(userId, UserField.SUMMARY).get().getPassword(), is((Password) null));
+    }
+
+    @Test
+    public void should_readUpdatedUser_when_userUpdated() {
+        UUID userId = userDao.create(user("user@test.com", "firstName")).getUserId();
+        assertThat(userDao.findById(userId).get().getFirstName(), is("firstName"));
+
+        userDao.update(userId, user("user@test.com", "updated"));
+
+        assertThat(userDao.findById(userId).get().getFirstName(), is("updated"));
+    }
+
+    @Test
+    public void should_forgetEmail_when_emailChanged() {
+        UUID userId = userDao.create(user("user@test.com", "firstName")).getUserId();
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.of(userId)));
+
+        userDao.patch(userId, User.builder().withEmail("updated@test.com").build());
+
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.empty()));
+        assertThat(userDao.findByEmail("updated@test.com"), is(Optional.of(userId)));
+    }
+
+    @Test
+    public void should_forgetUser_when_userDeleted() {
+        UUID userId = userDao.create(user("user@test.com", "firstName")).getUserId();
+        assertThat(userDao.findById(userId).isPresent(), is(true));
+
+        userDao.delete(userId);
+
+        assertThat(userDao.findById(userId), is(Optional.empty()));
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.empty()));
+    }
+
+    private double hits() {
+        return meterRegistry.get("cache.gets")
+                .tag("cache", "users")
+                .tag("result", "hit")
+                .functionCounter()
+                .count();
+    }
+
+    private static User user(String email, String firstName) {
+        return User.builder()
+                .withEmail(email)
+                .withFirstName(firstName)
+                .withLastName("lastName")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build();
+    }
+}
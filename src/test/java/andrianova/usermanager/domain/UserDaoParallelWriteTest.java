@@ -0,0 +1,18 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for {@link UserDao} with {@link WriteMode#PARALLEL} writes
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class,
+        properties = "user-manager.write-mode=parallel")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class UserDaoParallelWriteTest extends UserDaoTest {
+}
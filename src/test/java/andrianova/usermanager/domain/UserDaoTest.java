@@ -0,0 +1,296 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+
+/**
+ * Test for {@link UserDao}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class UserDaoTest {
+
+    private static final int CONCURRENT_WRITES = 50;
+
+    @Autowired
+    private UserDao userDao;
+    @Autowired(required = false)
+    private UserReconciler reconciler;
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+        // reconciler deletes index rows left stale by tests which change users in the database directly
+        if (reconciler != null) {
+            reconciler.reconcile();
+        }
+    }
+
+    @Test
+    public void should_createOneUser_when_sameEmailCreatedConcurrently() {
+        List<CompletableFuture<UserWriteResult>> writes = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_WRITES; i++) {
+            writes.add(userDao.createAsync(user("same@test.com")).toCompletableFuture());
+        }
+
+        Map<WriteStatus, Long> statuses = writes.stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.groupingBy(UserWriteResult::getStatus, Collectors.counting()));
+        assertThat(statuses.get(WriteStatus.OK), is(1L));
+        assertThat(statuses.get(WriteStatus.EMAIL_CONFLICT), is(CONCURRENT_WRITES - 1L));
+        List<User> users = TestUsers.all(userDao).stream()
+                .filter(user -> user.getEmail().equals("same@test.com"))
+                .collect(Collectors.toList());
+        assertThat(users, hasSize(1));
+        assertThat(userDao.findByEmail("same@test.com"), is(Optional.of(users.get(0).getId())));
+    }
+
+    @Test
+    public void should_moveEmailOnce_when_sameEmailUpdatedConcurrently() {
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_WRITES; i++) {
+            UserWriteResult result = userDao.create(user("user" + i + "@test.com"));
+            assertThat(result.isOk(), is(true));
+            userIds.add(result.getUserId());
+        }
+
+        Map<UUID, CompletableFuture<UserWriteResult>> writes = userIds.stream()
+                .collect(Collectors.toMap(Function.identity(), userId -> userDao
+                        .updateAsync(userId, user("same@test.com")).toCompletableFuture()));
+
+        List<UUID> updated = writes.entrySet().stream()
+                .filter(write -> write.getValue().join().isOk())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        assertThat(updated, hasSize(1));
+        assertThat(userDao.findByEmail("same@test.com"), is(Optional.of(updated.get(0))));
+        assertThat(TestUsers.all(userDao).stream()
+                .filter(user -> user.getEmail().equals("same@test.com"))
+                .count(), is(1L));
+    }
+
+    @Test
+    public void should_releaseEmail_when_userDeleted() {
+        UserWriteResult created = userDao.create(user("user@test.com"));
+        assertThat(created.isOk(), is(true));
+
+        assertThat(userDao.delete(created.getUserId()), is(true));
+
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.empty()));
+        assertThat(userDao.create(user("user@test.com")).isOk(), is(true));
+    }
+
+    @Test
+    public void should_notRecreateUser_when_deletedUserUpdated() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        assertThat(userDao.delete(userId), is(true));
+
+        assertThat(userDao.update(userId, user("user@test.com")).getStatus(), is(WriteStatus.NOT_FOUND));
+        assertThat(userDao.update(userId, user("moved@test.com")).getStatus(), is(WriteStatus.NOT_FOUND));
+
+        assertThat(userDao.findById(userId), is(Optional.empty()));
+        assertThat(userDao.findByEmail("moved@test.com"), is(Optional.empty()));
+    }
+
+    @Test
+    public void should_readCurrentCredentialsByEmail_when_userChanged() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        User credentials = userDao.findCredentialsByEmail("user@test.com").get();
+        assertThat(credentials.getId(), is(userId));
+        assertThat(credentials.getRole(), is(Role.USER));
+        assertThat(credentials.getFirstName(), is((String) null));
+
+        Password password = Password.of("654321".getBytes(StandardCharsets.UTF_8));
+        userDao.patch(userId, User.builder().withPassword(password).withRole(Role.ADMIN).build());
+        credentials = userDao.findCredentialsByEmail("user@test.com").get();
+        assertThat(credentials.getPassword(), is(password));
+        assertThat(credentials.getRole(), is(Role.ADMIN));
+
+        userDao.patch(userId, User.builder().withEmail("moved@test.com").build());
+        assertThat(userDao.findCredentialsByEmail("user@test.com"), is(Optional.empty()));
+        credentials = userDao.findCredentialsByEmail("moved@test.com").get();
+        assertThat(credentials.getPassword(), is(password));
+        assertThat(credentials.getRole(), is(Role.ADMIN));
+
+        userDao.update(userId, user("moved@test.com"));
+        assertThat(userDao.findCredentialsByEmail("moved@test.com").get().getRole(), is(Role.USER));
+
+        userDao.delete(userId);
+        assertThat(userDao.findCredentialsByEmail("moved@test.com"), is(Optional.empty()));
+    }
+
+    @Test
+    public void should_listUsersByName_when_namesChanged() {
+        UUID smith = userDao.create(user("smith@test.com", "Anna", "Smith")).getUserId();
+        UUID adams = userDao.create(user("adams@test.com", "bob", "adams")).getUserId();
+        UUID walker = userDao.create(user("walker@test.com", "Carl", "Walker")).getUserId();
+        assertThat(namesInOrder(), is(List.of(adams, smith, walker)));
+
+        userDao.patch(walker, User.builder().withLastName("Brown").build());
+        userDao.update(smith, user("smith@test.com", "Anna", "Allen"));
+        assertThat(namesInOrder(), is(List.of(smith, adams, walker)));
+
+        userDao.delete(adams);
+        assertThat(namesInOrder(), is(List.of(smith, walker)));
+    }
+
+    @Test
+    public void should_fillPageByName_when_usersRenamed() {
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            userIds.add(userDao.create(user("user" + i + "@test.com", "first", "a" + i)).getUserId());
+        }
+        userDao.patch(userIds.get(0), User.builder().withLastName("z0").withRole(Role.ADMIN).build());
+        userDao.patch(userIds.get(1), User.builder().withEmail("moved1@test.com").withLastName("z1").build());
+
+        UserPage first = userDao.getUsersByName(2, null, PageDirection.FORWARD, UserField.SUMMARY);
+        assertThat(ids(first), is(List.of(userIds.get(2), userIds.get(3))));
+        assertThat(first.getPageInfo().hasNextPage(), is(true));
+        UserPage second = userDao.getUsersByName(2, first.getNextPageToken(), PageDirection.FORWARD,
+                UserField.SUMMARY);
+        assertThat(ids(second), is(List.of(userIds.get(0), userIds.get(1))));
+        assertThat(second.getPageInfo().hasNextPage(), is(false));
+        assertThat(second.getUsers().get(0).getRole(), is(Role.ADMIN));
+        assertThat(second.getUsers().get(0).getLastName(), is("z0"));
+        assertThat(second.getUsers().get(1).getEmail(), is("moved1@test.com"));
+    }
+
+    @Test
+    public void should_pageUsersByName_inBothDirections() {
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            userIds.add(userDao.create(user("user" + i + "@test.com", "first", "last" + i)).getUserId());
+        }
+
+        UserPage first = userDao.getUsersByName(2, null, PageDirection.FORWARD, UserField.SUMMARY);
+        assertThat(ids(first), is(userIds.subList(0, 2)));
+        assertThat(first.getPageInfo().hasPreviousPage(), is(false));
+        UserPage second = userDao.getUsersByName(2, first.getNextPageToken(), PageDirection.FORWARD,
+                UserField.SUMMARY);
+        assertThat(ids(second), is(userIds.subList(2, 4)));
+        assertThat(second.getPageInfo().hasPreviousPage(), is(true));
+        UserPage third = userDao.getUsersByName(2, second.getNextPageToken(), PageDirection.FORWARD,
+                UserField.SUMMARY);
+        assertThat(ids(third), is(userIds.subList(4, 5)));
+        assertThat(third.getPageInfo().hasNextPage(), is(false));
+
+        UserPage back = userDao.getUsersByName(2, third.getPreviousPageToken(), PageDirection.BACKWARD,
+                UserField.SUMMARY);
+        assertThat(ids(back), is(userIds.subList(2, 4)));
+        assertThat(back.getPageInfo().hasNextPage(), is(true));
+        UserPage last = userDao.getUsersByName(3, null, PageDirection.BACKWARD, UserField.SUMMARY);
+        assertThat(ids(last), is(userIds.subList(2, 5)));
+        assertThat(last.getPageInfo().hasNextPage(), is(false));
+        assertThat(last.getPageInfo().hasPreviousPage(), is(true));
+    }
+
+    @Test
+    public void should_pageUsersWithSameName_inCreationOrder() {
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            userIds.add(userDao.create(user("user" + i + "@test.com", null, null)).getUserId());
+        }
+
+        List<UUID> forward = new ArrayList<>();
+        String cursor = null;
+        do {
+            UserPage page = userDao.getUsersByName(3, cursor, PageDirection.FORWARD, UserField.SUMMARY);
+            forward.addAll(ids(page));
+            cursor = page.getNextPageToken();
+        } while (cursor != null);
+        assertThat(forward, is(userIds));
+
+        UserPage last = userDao.getUsersByName(4, null, PageDirection.BACKWARD, UserField.SUMMARY);
+        assertThat(ids(last), is(userIds.subList(6, 10)));
+        UserPage previous = userDao.getUsersByName(4, last.getPreviousPageToken(), PageDirection.BACKWARD,
+                UserField.SUMMARY);
+        assertThat(ids(previous), is(userIds.subList(2, 6)));
+    }
+
+    @Test
+    public void should_listUsersByRole_when_roleChanged() {
+        List<UUID> userIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            userIds.add(userDao.create(user("user" + i + "@test.com")).getUserId());
+        }
+        assertThat(usersByRole(Role.USER), containsInAnyOrder(userIds.toArray()));
+        assertThat(usersByRole(Role.ADMIN), is(List.of()));
+
+        userDao.patch(userIds.get(0), User.builder().withRole(Role.ADMIN).build());
+        userDao.patch(userIds.get(1), User.builder().withEmail("admin1@test.com").withRole(Role.ADMIN).build());
+        userDao.update(userIds.get(0), user("user0@test.com"));
+        userDao.delete(userIds.get(2));
+
+        assertThat(usersByRole(Role.ADMIN), is(List.of(userIds.get(1))));
+        assertThat(usersByRole(Role.USER), containsInAnyOrder(userIds.get(0), userIds.get(3), userIds.get(4)));
+    }
+
+    /**
+     * @return ids of all users having {@code role}, read two at a time
+     */
+    private List<UUID> usersByRole(Role role) {
+        List<UUID> userIds = new ArrayList<>();
+        String pageToken = null;
+        do {
+            UserPage page = userDao.getUsersByRole(role, 2, pageToken, UserField.SUMMARY);
+            userIds.addAll(ids(page));
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return userIds;
+    }
+
+    /**
+     * @return ids of all users ordered by name
+     */
+    private List<UUID> namesInOrder() {
+        return ids(userDao.getUsersByName(100, null, PageDirection.FORWARD, UserField.SUMMARY));
+    }
+
+    private static List<UUID> ids(UserPage page) {
+        return page.getUsers().stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    private static User user(String email, String firstName, String lastName) {
+        return User.builder()
+                .withEmail(email)
+                .withFirstName(firstName)
+                .withLastName(lastName)
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build();
+    }
+
+    private static User user(String email) {
+        return User.builder()
+                .withEmail(email)
+                .withFirstName("firstName")
+                .withLastName("lastName")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build();
+    }
+}
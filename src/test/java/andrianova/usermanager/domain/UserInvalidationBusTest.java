@@ -0,0 +1,111 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import com.datastax.oss.driver.api.core.CqlSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test for {@link UserInvalidationBus}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class,
+        properties = {"user-manager.invalidation.channel=loopback",
+                "user-manager.invalidation.heartbeat-interval-ms=600000"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class UserInvalidationBusTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    @Autowired
+    private CqlSession cqlSession;
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private UserInvalidationChannel channel;
+
+    private final UUID peerId = UUID.randomUUID();
+    private long peerSequence;
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+    }
+
+    @Test
+    public void should_invalidateUser_when_peerChangedUser() {
+        UUID userId = cachedUser();
+        changeFirstNameOnPeer(userId);
+        assertThat(userDao.findById(userId).get().getFirstName(), is("firstName"));
+
+        channel.publish(new UserInvalidationChannel.Message(peerId, ++peerSequence,
+                List.of(new UserInvalidationChannel.Invalidation(userId, null))));
+
+        assertThat(userDao.findById(userId).get().getFirstName(), is("updated"));
+    }
+
+    @Test
+    public void should_invalidateAllUsers_when_peerMessageLost() {
+        UUID userId = cachedUser();
+        channel.publish(new UserInvalidationChannel.Message(peerId, ++peerSequence, List.of()));
+        changeFirstNameOnPeer(userId);
+
+        peerSequence++;
+        channel.publish(new UserInvalidationChannel.Message(peerId, ++peerSequence, List.of()));
+
+        assertThat(userDao.findById(userId).get().getFirstName(), is("updated"));
+    }
+
+    @Test
+    public void should_publishInvalidation_when_userChanged() throws InterruptedException {
+        Queue<UserInvalidationChannel.Message> messages = new ConcurrentLinkedQueue<>();
+        channel.subscribe(messages::add);
+        UUID userId = cachedUser();
+
+        userDao.patch(userId, User.builder().withFirstName("updated").build());
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (messages.stream().noneMatch(message -> message.getInvalidations().stream()
+                .anyMatch(invalidation -> invalidation.getUserId().equals(userId)))) {
+            assertThat("invalidation is published", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return id of created user, which is read so that it is cached
+     */
+    private UUID cachedUser() {
+        UUID userId = userDao.create(User.builder()
+                .withEmail("user@test.com")
+                .withFirstName("firstName")
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build()).getUserId();
+        assertThat(userDao.findById(userId).get().getFirstName(), is("firstName"));
+        return userId;
+    }
+
+    /**
+     * Changes user bypassing this instance, as another instance would
+     */
+    private void changeFirstNameOnPeer(UUID userId) {
+        cqlSession.execute("update user set first_name=? where id=? if exists", "updated", userId);
+    }
+}
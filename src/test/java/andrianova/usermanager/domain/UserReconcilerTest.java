@@ -0,0 +1,200 @@
+package andrianova.usermanager.domain;
+
+import andrianova.usermanager.Application;
+import andrianova.usermanager.TestUsers;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.Row;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test for {@link UserReconciler}
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        classes = Application.class,
+        properties = {
+                "user-manager.reconciler.grace-period-seconds=0",
+                "user-manager.write-journal.path=build/test-write-journal.log"
+        })
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class UserReconcilerTest {
+
+    @Autowired
+    private CqlSession cqlSession;
+    @Autowired
+    private UserDao userDao;
+    @Autowired
+    private UserWriteJournal journal;
+    @Autowired
+    private UserReconciler reconciler;
+
+    @BeforeEach
+    public void clear() {
+        TestUsers.deleteAll(userDao);
+        reconciler.reconcile();
+    }
+
+    @Test
+    public void should_releaseEmail_when_userNotExists() {
+        cqlSession.execute("insert into user_email (email, id) values (?, ?) if not exists",
+                "orphan@test.com", UUID.randomUUID());
+
+        reconciler.reconcile();
+
+        assertThat(userDao.findByEmail("orphan@test.com"), is(Optional.empty()));
+    }
+
+    @Test
+    public void should_skipScan_when_leaseHeldByAnotherInstance() {
+        cqlSession.execute("insert into user_email (email, id) values (?, ?) if not exists",
+                "orphan@test.com", UUID.randomUUID());
+        cqlSession.execute("update reconciler_lease set owner=? where name='user' if owner=null", UUID.randomUUID());
+        try {
+            reconciler.reconcile();
+            assertThat(userDao.findByEmail("orphan@test.com").isPresent(), is(true));
+        } finally {
+            cqlSession.execute("update reconciler_lease set owner=null where name='user' if exists");
+        }
+
+        reconciler.reconcile();
+
+        assertThat(userDao.findByEmail("orphan@test.com"), is(Optional.empty()));
+    }
+
+    @Test
+    public void should_reserveEmail_when_reservationMissing() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        cqlSession.execute("delete from user_email where email=? if id=?", "user@test.com", userId);
+
+        reconciler.reconcile();
+
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.of(userId)));
+    }
+
+    @Test
+    public void should_deleteUser_when_emailReservedForAnotherUser() {
+        UUID ownerId = userDao.create(user("user@test.com")).getUserId();
+        UUID orphanId = UUID.randomUUID();
+        cqlSession.execute("insert into user (id, email, password, role) values (?, ?, ?, ?)",
+                orphanId, "user@test.com", "hash", Role.USER.getCode());
+
+        reconciler.reconcile();
+
+        assertThat(userDao.findById(orphanId), is(Optional.empty()));
+        assertThat(userDao.findById(ownerId).isPresent(), is(true));
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.of(ownerId)));
+    }
+
+    @Test
+    public void should_keepUser_when_emailReservedForAnotherUserLater() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        cqlSession.execute("delete from user_email where email=? if id=?", "user@test.com", userId);
+        UUID laterId = userDao.create(user("user@test.com")).getUserId();
+
+        reconciler.reconcile();
+
+        assertThat(userDao.findById(userId).isPresent(), is(true));
+        assertThat(userDao.findById(laterId).isPresent(), is(true));
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.of(laterId)));
+    }
+
+    @Test
+    public void should_backfillCredentials_when_reservationHasNone() {
+        User user = user("user@test.com");
+        UUID userId = userDao.create(user).getUserId();
+        cqlSession.execute("update user_email set password=null, role=null where email=? if id=?",
+                "user@test.com", userId);
+
+        reconciler.reconcile();
+
+        Row reservation = cqlSession.execute("select password, role from user_email where email=?",
+                "user@test.com").one();
+        assertThat(reservation.getString("password"), is(user.getPassword().getHash()));
+        assertThat(reservation.getInt("role"), is(Role.USER.getCode()));
+    }
+
+    @Test
+    public void should_repairNameIndex() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        cqlSession.execute("delete from user_by_name " +
+                        "where bucket=? and sort_last_name=? and sort_first_name=? and id=?",
+                new UserNameKey("", "", userId).bucket(), "", "", userId);
+        UUID orphanId = UUID.randomUUID();
+        int orphanBucket = new UserNameKey("test", "orphan", orphanId).bucket();
+        cqlSession.execute("insert into user_by_name (bucket, sort_last_name, sort_first_name, id) " +
+                "values (?, ?, ?, ?)", orphanBucket, "test", "orphan", orphanId);
+
+        reconciler.reconcile();
+
+        UserPage page = userDao.getUsersByName(10, null, PageDirection.FORWARD, UserField.SUMMARY);
+        assertThat(page.getUsers().size(), is(1));
+        assertThat(page.getUsers().get(0).getId(), is(userId));
+        assertThat(cqlSession.execute("select id from user_by_name " +
+                        "where bucket=? and sort_last_name=? and sort_first_name=? and id=?",
+                orphanBucket, "test", "orphan", orphanId).one(), is((Row) null));
+    }
+
+    @Test
+    public void should_rewriteNameIndex_when_listedFieldsStale() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        cqlSession.execute("update user_by_name set email=?, role=? " +
+                        "where bucket=? and sort_last_name=? and sort_first_name=? and id=?",
+                "stale@test.com", Role.ADMIN.getCode(), new UserNameKey("", "", userId).bucket(), "", "", userId);
+
+        reconciler.reconcile();
+
+        User listed = userDao.getUsersByName(10, null, PageDirection.FORWARD, UserField.SUMMARY).getUsers().get(0);
+        assertThat(listed.getEmail(), is("user@test.com"));
+        assertThat(listed.getRole(), is(Role.USER));
+    }
+
+    @Test
+    public void should_repairRoleIndex() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        int bucket = Math.floorMod(userId.hashCode(), UserRoleKey.BUCKETS);
+        cqlSession.execute("delete from user_by_role where role=? and bucket=? and id=?",
+                Role.USER.getCode(), bucket, userId);
+        cqlSession.execute("insert into user_by_role (role, bucket, id) values (?, ?, ?)",
+                Role.ADMIN.getCode(), bucket, userId);
+
+        reconciler.reconcile();
+
+        UserPage page = userDao.getUsersByRole(Role.USER, 10, null, UserField.SUMMARY);
+        assertThat(page.getUsers().size(), is(1));
+        assertThat(page.getUsers().get(0).getId(), is(userId));
+        assertThat(cqlSession.execute("select id from user_by_role where role=? and bucket=? and id=?",
+                Role.ADMIN.getCode(), bucket, userId).one(), is((Row) null));
+    }
+
+    @Test
+    public void should_replayJournal() {
+        UUID userId = userDao.create(user("user@test.com")).getUserId();
+        journal.record(UserWriteJournal.Entry.deleteUser(userId)).toCompletableFuture().join();
+
+        reconciler.reconcile();
+
+        assertThat(userDao.findById(userId), is(Optional.empty()));
+        assertThat(userDao.findByEmail("user@test.com"), is(Optional.empty()));
+    }
+
+    private static User user(String email) {
+        return User.builder()
+                .withEmail(email)
+                .withPassword(Password.of("123456".getBytes(StandardCharsets.UTF_8)))
+                .withRole(Role.USER)
+                .build();
+    }
+}
@@ -0,0 +1,48 @@
+package andrianova.usermanager.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test for {@link UserSearchIndex}
+ */
+public class UserSearchIndexTest {
+
+    private final UserSearchIndex index = new UserSearchIndex();
+
+    @Test
+    public void should_rankAllMatches_beforeLimit() {
+        for (int i = 0; i < 20000; i++) {
+            index.index(user("user" + i + "@test.com", "Annabelle"));
+        }
+        UUID ann = UUID.randomUUID();
+        index.index(User.builder().withId(ann).withEmail("z@test.com").withFirstName("Ann").build());
+
+        assertThat(index.search("ann", 1), is(List.of(ann)));
+    }
+
+    @Test
+    public void should_keepIndex_when_allUsersChanged() {
+        assertThat(index.takeRebuildRequest(), is(true));
+        User user = user("smith@test.com", "Anna");
+        index.index(user);
+
+        index.allUsersChanged();
+
+        assertThat(index.takeRebuildRequest(), is(false));
+        assertThat(index.search("anna", 10), is(List.of(user.getId())));
+    }
+
+    private static User user(String email, String firstName) {
+        return User.builder()
+                .withId(UUID.randomUUID())
+                .withEmail(email)
+                .withFirstName(firstName)
+                .build();
+    }
+}